@@ -40,11 +40,13 @@ CREATE TABLE `message`  (
   `status` int(11) NOT NULL COMMENT '消息状态 0正常 1删除',
   `gap_count` int(11) NULL DEFAULT NULL COMMENT '与回复的消息间隔多少条',
   `type` int(11) NULL DEFAULT 1 COMMENT '消息类型 1正常文本 2.撤回消息',
+  `seq` bigint(20) NULL DEFAULT NULL COMMENT '房间内的消息序号',
   `extra` json DEFAULT NULL COMMENT '扩展信息',
   `create_time` datetime(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3) COMMENT '创建时间',
   `update_time` datetime(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3) ON UPDATE CURRENT_TIMESTAMP(3) COMMENT '修改时间',
   PRIMARY KEY (`id`) USING BTREE,
-  INDEX `idx_room_id`(`room_id`) USING BTREE,
+  INDEX `idx_room_id_status_id`(`room_id`, `status`, `id`) USING BTREE,
+  INDEX `idx_room_id_seq`(`room_id`, `seq`) USING BTREE,
   INDEX `idx_from_uid`(`from_uid`) USING BTREE,
   INDEX `idx_create_time`(`create_time`) USING BTREE,
   INDEX `idx_update_time`(`update_time`) USING BTREE
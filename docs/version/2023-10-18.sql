@@ -0,0 +1,6 @@
+###房间内消息序号
+ALTER TABLE `message` ADD COLUMN `seq` bigint(20) NULL DEFAULT NULL COMMENT '房间内的消息序号' AFTER `type`;
+ALTER TABLE `message` ADD INDEX `idx_room_id_seq`(`room_id`, `seq`) USING BTREE;
+###历史消息翻页索引，room_id单列索引是它的前缀，一并删掉
+ALTER TABLE `message` ADD INDEX `idx_room_id_status_id`(`room_id`, `status`, `id`) USING BTREE;
+ALTER TABLE `message` DROP INDEX `idx_room_id`;
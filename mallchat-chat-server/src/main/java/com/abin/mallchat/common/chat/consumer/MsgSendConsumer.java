@@ -13,14 +13,22 @@ import com.abin.mallchat.common.chat.service.ChatService;
 import com.abin.mallchat.common.chat.service.WeChatMsgOperationService;
 import com.abin.mallchat.common.chat.service.cache.GroupMemberCache;
 import com.abin.mallchat.common.chat.service.cache.HotRoomCache;
+import com.abin.mallchat.common.chat.service.cache.LastMsgDigestCache;
+import com.abin.mallchat.common.chat.service.cache.RecentMsgCache;
 import com.abin.mallchat.common.chat.service.cache.RoomCache;
+import com.abin.mallchat.common.chat.service.cache.RoomSeqCache;
+import com.abin.mallchat.common.chat.service.impl.ContactInboxWriter;
+import com.abin.mallchat.common.chat.service.impl.UrlUnfurlService;
 import com.abin.mallchat.common.chatai.service.IChatAIService;
 import com.abin.mallchat.common.common.constant.MQConstant;
 import com.abin.mallchat.common.common.domain.dto.MsgSendMessageDTO;
 import com.abin.mallchat.common.user.service.WebSocketService;
 import com.abin.mallchat.common.user.service.adapter.WSAdapter;
 import com.abin.mallchat.common.user.service.cache.UserCache;
+import com.abin.mallchat.common.user.service.cache.UserInfoCache;
 import com.abin.mallchat.common.user.service.impl.PushService;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.rocketmq.spring.annotation.ConsumeMode;
 import org.apache.rocketmq.spring.annotation.RocketMQMessageListener;
 import org.apache.rocketmq.spring.core.RocketMQListener;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -37,9 +45,17 @@ import java.util.Objects;
  * Author: <a href="https://github.com/zongzibinbin">abin</a>
  * Date: 2023-08-12
  */
-@RocketMQMessageListener(consumerGroup = MQConstant.SEND_MSG_GROUP, topic = MQConstant.SEND_MSG_TOPIC)
+@Slf4j
+@RocketMQMessageListener(consumerGroup = MQConstant.SEND_MSG_GROUP, topic = MQConstant.SEND_MSG_TOPIC, consumeMode = ConsumeMode.ORDERLY,
+        maxReconsumeTimes = MsgSendConsumer.MAX_RECONSUME_TIMES)
 @Component
 public class MsgSendConsumer implements RocketMQListener<MsgSendMessageDTO> {
+    /**
+     * 顺序消费失败会挂起整个队列重试，同一队列上的其他房间都会被卡住。
+     * 重试这么多次还失败就进死信队列（%DLQ%+消费组），放行后面的消息，序号由INCR保证，不靠队列顺序
+     */
+    static final int MAX_RECONSUME_TIMES = 5;
+
     @Autowired
     private WebSocketService webSocketService;
     @Autowired
@@ -68,15 +84,40 @@ public class MsgSendConsumer implements RocketMQListener<MsgSendMessageDTO> {
     private HotRoomCache hotRoomCache;
     @Autowired
     private PushService pushService;
+    @Autowired
+    private RoomSeqCache roomSeqCache;
+    @Autowired
+    private ContactInboxWriter contactInboxWriter;
+    @Autowired
+    private LastMsgDigestCache lastMsgDigestCache;
+    @Autowired
+    private RecentMsgCache recentMsgCache;
+    @Autowired
+    private UserInfoCache userInfoCache;
+    @Autowired
+    private UrlUnfurlService urlUnfurlService;
 
     @Override
     public void onMessage(MsgSendMessageDTO dto) {
         Message message = messageDao.getById(dto.getMsgId());
+        if (Objects.isNull(message)) {//重试也不会好，直接跳过
+            log.error("发送的消息不存在，跳过 msgId:{}", dto.getMsgId());
+            return;
+        }
         Room room = roomCache.get(message.getRoomId());
+        if (Objects.isNull(room)) {
+            log.error("消息所在房间不存在，跳过 msgId:{} roomId:{}", message.getId(), message.getRoomId());
+            return;
+        }
+        assignSeq(message);
+        //房间最近消息，消息首页从这里出
+        recentMsgCache.push(message);
         ChatMessageResp msgResp = chatService.getMsgResp(message, null);
         //所有房间更新房间最新消息
         roomDao.refreshActiveTime(room.getId(), message.getId(), message.getCreateTime());
-        roomCache.delete(room.getId());
+        roomCache.refreshActiveTime(room, message.getId(), message.getCreateTime());
+        //会话列表展示的最后一条消息
+        lastMsgDigestCache.refresh(message, userInfoCache.get(message.getFromUid()));
         if (room.isHotRoom()) {//热门群聊推送所有在线的人
             //更新热门群聊时间-redis
             hotRoomCache.refreshActiveTime(room.getId(), message.getCreateTime());
@@ -92,10 +133,31 @@ public class MsgSendConsumer implements RocketMQListener<MsgSendMessageDTO> {
                 memberUidList = Arrays.asList(roomFriend.getUid1(), roomFriend.getUid2());
             }
             //更新所有群成员的会话时间
-            contactDao.refreshOrCreateActiveTime(room.getId(), memberUidList, message.getId(), message.getCreateTime());
+            contactInboxWriter.refreshActiveTime(room.getId(), memberUidList, message.getId(), message.getCreateTime());
             //推送房间成员
             pushService.sendPushMsg(WSAdapter.buildMsgSend(msgResp), memberUidList);
         }
+        //消息推出去之后再抓链接预览，预览的补充推送排在消息后面
+        urlUnfurlService.unfurlAsync(message.getId());
+    }
+
+    /**
+     * 分配房间内序号，重复投递时沿用已经分配的。
+     * 库里已经写了的直接用；写库前挂掉的，redis里记着这条消息分到的序号，再分配还是同一个
+     */
+    private void assignSeq(Message message) {
+        if (Objects.nonNull(message.getSeq())) {
+            return;
+        }
+        Long seq = roomSeqCache.next(message.getRoomId(), message.getId());
+        if (!messageDao.setSeq(message.getId(), seq)) {
+            //没写进去说明库里已经有序号了，以库里的为准
+            seq = messageDao.getById(message.getId()).getSeq();
+            if (Objects.isNull(seq)) {
+                throw new IllegalStateException("消息序号写入失败 msgId:" + message.getId());
+            }
+        }
+        message.setSeq(seq);
     }
 
 
@@ -2,6 +2,7 @@ package com.abin.mallchat.common.chat.controller;
 
 
 import com.abin.mallchat.common.chat.domain.dto.MsgReadInfoDTO;
+import com.abin.mallchat.common.chat.domain.enums.MessageStatusEnum;
 import com.abin.mallchat.common.chat.domain.vo.request.*;
 import com.abin.mallchat.common.chat.domain.vo.response.ChatMessageReadResp;
 import com.abin.mallchat.common.chat.domain.vo.response.ChatMessageResp;
@@ -54,11 +55,34 @@ public class ChatController {
         return ApiResult.success(msgPage);
     }
 
+    @GetMapping("/public/msg/sync")
+    @ApiOperation("按房间序号增量同步消息，推送的序号断档或者重连后调用")
+    public ApiResult<CursorPageBaseResp<ChatMessageResp>> syncMsg(@Valid ChatMessageSyncReq request) {
+        CursorPageBaseResp<ChatMessageResp> msgPage = chatService.getMsgAfterSeq(request, RequestHolder.get().getUid());
+        tombstoneBlackMsg(msgPage);
+        return ApiResult.success(msgPage);
+    }
+
     private void filterBlackMsg(CursorPageBaseResp<ChatMessageResp> memberPage) {
         Set<String> blackMembers = getBlackUidSet();
         memberPage.getList().removeIf(a -> blackMembers.contains(a.getFromUser().getUid().toString()));
     }
 
+    /**
+     * 增量同步不能直接去掉拉黑用户的消息，否则序号断档，前端会一直重新同步，这里换成删除占位
+     */
+    private void tombstoneBlackMsg(CursorPageBaseResp<ChatMessageResp> msgPage) {
+        Set<String> blackMembers = getBlackUidSet();
+        msgPage.getList().stream()
+                .filter(a -> blackMembers.contains(a.getFromUser().getUid().toString()))
+                .map(ChatMessageResp::getMessage)
+                .forEach(message -> {
+                    message.setStatus(MessageStatusEnum.DELETE.getStatus());
+                    message.setBody(null);
+                    message.setMessageMark(null);
+                });
+    }
+
     @PostMapping("/msg")
     @ApiOperation("发送消息")
     @FrequencyControl(time = 5, count = 3, target = FrequencyControl.Target.UID)
@@ -44,6 +44,16 @@ public class ContactDao extends ServiceImpl<ContactMapper, Contact> {
                 .count();
     }
 
+    /**
+     * 房间全部会话的已读时间，只查uid和read_time
+     */
+    public List<Contact> getReadTimeList(Long roomId) {
+        return lambdaQuery()
+                .eq(Contact::getRoomId, roomId)
+                .select(Contact::getUid, Contact::getReadTime)
+                .list();
+    }
+
     public Integer getUnReadCount(Message message) {
         return lambdaQuery()
                 .eq(Contact::getRoomId, message.getRoomId())
@@ -84,9 +94,16 @@ public class ContactDao extends ServiceImpl<ContactMapper, Contact> {
     }
 
     /**
-     * 更新所有人的会话时间，没有就直接插入
+     * 更新所有人的会话时间，没有就直接插入，只会往新了改
      */
     public void refreshOrCreateActiveTime(Long roomId, List<Long> memberUidList, Long msgId, Date activeTime) {
         baseMapper.refreshOrCreateActiveTime(roomId, memberUidList, msgId, activeTime);
     }
+
+    /**
+     * 批量更新已读时间，没有会话就直接插入，只会往新了改
+     */
+    public void refreshReadTime(List<Contact> contacts) {
+        baseMapper.refreshReadTime(contacts);
+    }
 }
@@ -1,16 +1,26 @@
 package com.abin.mallchat.common.chat.dao;
 
+import cn.hutool.core.collection.CollectionUtil;
+import cn.hutool.core.util.StrUtil;
+import com.abin.mallchat.common.chat.domain.dto.UnreadCountDTO;
+import com.abin.mallchat.common.chat.domain.entity.Contact;
 import com.abin.mallchat.common.chat.domain.entity.Message;
 import com.abin.mallchat.common.chat.domain.enums.MessageStatusEnum;
+import com.abin.mallchat.common.chat.domain.enums.MessageTypeEnum;
 import com.abin.mallchat.common.chat.mapper.MessageMapper;
 import com.abin.mallchat.common.common.domain.vo.request.CursorPageBaseReq;
 import com.abin.mallchat.common.common.domain.vo.response.CursorPageBaseResp;
-import com.abin.mallchat.common.common.utils.CursorUtils;
+import com.abin.mallchat.common.common.utils.discover.domain.UrlInfo;
+import com.abin.mallchat.utils.JsonUtils;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import org.springframework.stereotype.Service;
 
-import java.util.Date;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.stream.Collectors;
 
 /**
  * <p>
@@ -23,12 +33,77 @@ import java.util.Objects;
 @Service
 public class MessageDao extends ServiceImpl<MessageMapper, Message> {
 
+    /**
+     * 房间消息按id倒序翻页。
+     * 先只查id，条件和排序都落在(room_id, status, id)索引上，不回表、不走分页插件的count；再按主键取整行
+     */
     public CursorPageBaseResp<Message> getCursorPage(Long roomId, CursorPageBaseReq request, Long lastMsgId) {
-        return CursorUtils.getCursorPageByMysql(this, request, wrapper -> {
-            wrapper.eq(Message::getRoomId, roomId);
-            wrapper.eq(Message::getStatus, MessageStatusEnum.NORMAL.getStatus());
-            wrapper.le(Objects.nonNull(lastMsgId), Message::getId, lastMsgId);
-        }, Message::getId);
+        //游标按数字传，字符串和bigint比较会让mysql按浮点数比，大id会丢精度
+        Long before = StrUtil.isNotBlank(request.getCursor()) ? Long.valueOf(request.getCursor()) : null;
+        List<Long> ids = lambdaQuery()
+                .select(Message::getId)
+                .eq(Message::getRoomId, roomId)
+                .eq(Message::getStatus, MessageStatusEnum.NORMAL.getStatus())
+                .lt(Objects.nonNull(before), Message::getId, before)
+                .le(Objects.nonNull(lastMsgId), Message::getId, lastMsgId)
+                .orderByDesc(Message::getId)
+                .last("limit " + request.getPageSize())
+                .list()
+                .stream()
+                .map(Message::getId)
+                .collect(Collectors.toList());
+        if (ids.isEmpty()) {
+            return CursorPageBaseResp.empty();
+        }
+        List<Message> messages = listByIds(ids).stream()
+                .sorted(Comparator.comparing(Message::getId).reversed())
+                .collect(Collectors.toList());
+        String cursor = String.valueOf(CollectionUtil.getLast(ids));
+        Boolean isLast = ids.size() != request.getPageSize();
+        return new CursorPageBaseResp<>(cursor, isLast, messages);
+    }
+
+    /**
+     * 房间内序号大于seq的消息，按序号升序。删除的消息也返回，由上层做成占位，序号才是连续的
+     */
+    public List<Message> getAfterSeq(Long roomId, Long seq, Long lastMsgId, Integer limit) {
+        return lambdaQuery()
+                .eq(Message::getRoomId, roomId)
+                .gt(Message::getSeq, seq)
+                .le(Objects.nonNull(lastMsgId), Message::getId, lastMsgId)
+                .orderByAsc(Message::getSeq)
+                .last("limit " + limit)
+                .list();
+    }
+
+    public Long getMaxSeq(Long roomId) {
+        Message message = lambdaQuery()
+                .eq(Message::getRoomId, roomId)
+                .isNotNull(Message::getSeq)
+                .orderByDesc(Message::getSeq)
+                .select(Message::getSeq)
+                .last("limit 1")
+                .one();
+        return Objects.isNull(message) ? 0L : message.getSeq();
+    }
+
+    /**
+     * 只在还没有序号时写入，重复投递不会覆盖
+     */
+    public boolean setSeq(Long id, Long seq) {
+        return lambdaUpdate()
+                .eq(Message::getId, id)
+                .isNull(Message::getSeq)
+                .set(Message::getSeq, seq)
+                .update();
+    }
+
+    /**
+     * 回写链接预览，消息已经被撤回（类型变了）就不写，避免覆盖撤回信息。
+     * 只改扩展字段里的urlContentMap，抓取期间别处对扩展字段的修改不会被覆盖
+     */
+    public boolean setUrlContentMap(Long id, Map<String, UrlInfo> urlContentMap) {
+        return baseMapper.setUrlContentMap(id, MessageTypeEnum.TEXT.getType(), JsonUtils.toStr(urlContentMap)) > 0;
     }
 
     /**
@@ -57,10 +132,15 @@ public class MessageDao extends ServiceImpl<MessageMapper, Message> {
                 .update();
     }
 
-    public Integer getUnReadCount(Long roomId, Date readTime) {
-        return lambdaQuery()
-                .eq(Message::getRoomId, roomId)
-                .gt(Objects.nonNull(readTime), Message::getCreateTime, readTime)
-                .count();
+    /**
+     * 多个会话的未读数一条sql查完，每个会话只count自己阅读时间之后的消息
+     *
+     * @param contacts 只用roomId和readTime
+     */
+    public List<UnreadCountDTO> countUnreadBatch(List<Contact> contacts) {
+        if (CollectionUtil.isEmpty(contacts)) {
+            return new ArrayList<>();
+        }
+        return baseMapper.countUnreadBatch(contacts);
     }
 }
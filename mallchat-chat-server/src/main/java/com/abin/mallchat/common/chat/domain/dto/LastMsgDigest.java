@@ -0,0 +1,38 @@
+package com.abin.mallchat.common.chat.domain.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Date;
+
+/**
+ * Description: 房间最后一条消息的摘要，会话列表直接拿来展示
+ * Author: <a href="https://github.com/zongzibinbin">abin</a>
+ * Date: 2023-10-18
+ */
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class LastMsgDigest {
+    private Long roomId;
+    private Long msgId;
+    /**
+     * 摘要的版本号，消息id*2，撤回后再加1。旧消息的摘要不会覆盖新消息的，撤回前读到的摘要也不会覆盖撤回后的
+     */
+    private Long version;
+    private Long fromUid;
+    //发送人昵称
+    private String senderName;
+    /**
+     * 消息类型
+     *
+     * @see com.abin.mallchat.common.chat.domain.enums.MessageTypeEnum
+     */
+    private Integer type;
+    //会话列表展示的消息内容
+    private String text;
+    private Date createTime;
+}
@@ -0,0 +1,22 @@
+package com.abin.mallchat.common.chat.domain.dto;
+
+import com.abin.mallchat.common.chat.domain.entity.Message;
+import com.abin.mallchat.common.chat.domain.entity.MessageMark;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Description: 房间最近消息缓存里的一条，消息连同它的有效标记，组装消息返回不用再查库
+ * Author: <a href="https://github.com/zongzibinbin">abin</a>
+ * Date: 2023-10-18
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class RecentMsg {
+    private Message message;
+    private List<MessageMark> marks;
+}
@@ -0,0 +1,28 @@
+package com.abin.mallchat.common.chat.domain.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Description: 库里count出来的会话未读数，带上这次count到的最大消息id，初始化计数时当作水位线
+ * Author: <a href="https://github.com/zongzibinbin">abin</a>
+ * Date: 2023-10-18
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class UnreadCountDTO {
+    /**
+     * 房间id
+     */
+    private Long roomId;
+    /**
+     * 未读数
+     */
+    private Integer unreadCount;
+    /**
+     * count到的最大消息id，没有未读时为null
+     */
+    private Long maxMsgId;
+}
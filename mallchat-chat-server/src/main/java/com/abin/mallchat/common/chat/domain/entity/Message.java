@@ -81,6 +81,12 @@ public class Message implements Serializable {
     @TableField("type")
     private Integer type;
 
+    /**
+     * 房间内的消息序号，从1开始连续递增，消息投递时分配
+     */
+    @TableField("seq")
+    private Long seq;
+
     /**
      * 消息扩展字段
      */
@@ -0,0 +1,37 @@
+package com.abin.mallchat.common.chat.domain.vo.request;
+
+import io.swagger.annotations.ApiModelProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+/**
+ * Description: 按房间序号增量同步消息的请求
+ * Author: <a href="https://github.com/zongzibinbin">abin</a>
+ * Date: 2023-10-18
+ */
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class ChatMessageSyncReq {
+    @NotNull
+    @ApiModelProperty("会话id")
+    private Long roomId;
+
+    @NotNull
+    @Min(0)
+    @ApiModelProperty("本地已经收到的最大序号，返回比它大的消息")
+    private Long seq;
+
+    @Min(1)
+    @Max(100)
+    @ApiModelProperty("单次最多返回的条数")
+    @Builder.Default
+    private Integer pageSize = 50;
+}
@@ -36,10 +36,14 @@ public class ChatMessageResp {
         private Long id;
         @ApiModelProperty("房间id")
         private Long roomId;
+        @ApiModelProperty("房间内的消息序号，连续递增，断档说明有漏收，可以用来增量同步")
+        private Long seq;
         @ApiModelProperty("消息发送时间")
         private Date sendTime;
         @ApiModelProperty("消息类型 1正常文本 2.撤回消息")
         private Integer type;
+        @ApiModelProperty("消息状态 0正常 1删除，只有增量同步会返回删除的消息，作为占位没有内容")
+        private Integer status;
         @ApiModelProperty("消息内容不同的消息类型，内容体不同，见https://www.yuque.com/snab/mallcaht/rkb2uz5k1qqdmcmd")
         private Object body;
         @ApiModelProperty("消息标记")
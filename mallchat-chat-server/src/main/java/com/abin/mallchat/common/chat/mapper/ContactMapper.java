@@ -18,4 +18,6 @@ import java.util.List;
 public interface ContactMapper extends BaseMapper<Contact> {
 
     void refreshOrCreateActiveTime(@Param("roomId") Long roomId, @Param("memberUidList") List<Long> memberUidList, @Param("msgId") Long msgId, @Param("activeTime") Date activeTime);
+
+    void refreshReadTime(@Param("contacts") List<Contact> contacts);
 }
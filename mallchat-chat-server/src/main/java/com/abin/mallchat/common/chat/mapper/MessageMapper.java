@@ -1,7 +1,12 @@
 package com.abin.mallchat.common.chat.mapper;
 
+import com.abin.mallchat.common.chat.domain.dto.UnreadCountDTO;
+import com.abin.mallchat.common.chat.domain.entity.Contact;
 import com.abin.mallchat.common.chat.domain.entity.Message;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
 
 /**
  * <p>
@@ -13,4 +18,7 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface MessageMapper extends BaseMapper<Message> {
 
+    int setUrlContentMap(@Param("id") Long id, @Param("type") Integer type, @Param("urlContentMap") String urlContentMap);
+
+    List<UnreadCountDTO> countUnreadBatch(@Param("contacts") List<Contact> contacts);
 }
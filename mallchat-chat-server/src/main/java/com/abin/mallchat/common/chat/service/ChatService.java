@@ -64,6 +64,14 @@ public interface ChatService {
      */
     CursorPageBaseResp<ChatMessageResp> getMsgPage(ChatMessagePageReq request, @Nullable Long receiveUid);
 
+    /**
+     * 增量同步房间内序号大于seq的消息，按序号升序，游标是本页最后一条的序号
+     *
+     * @param request
+     * @return
+     */
+    CursorPageBaseResp<ChatMessageResp> getMsgAfterSeq(ChatMessageSyncReq request, @Nullable Long receiveUid);
+
     ChatMemberStatisticResp getMemberStatistic();
 
     void setMsgMark(Long uid, ChatMessageMarkReq request);
@@ -51,6 +51,9 @@ public class MessageAdapter {
         ChatMessageResp.Message messageVO = new ChatMessageResp.Message();
         BeanUtil.copyProperties(message, messageVO);
         messageVO.setSendTime(message.getCreateTime());
+        if (!Objects.equals(message.getStatus(), MessageStatusEnum.NORMAL.getStatus())) {//删除的消息只占序号，不带内容
+            return messageVO;
+        }
         AbstractMsgHandler<?> msgHandler = MsgHandlerFactory.getStrategyNoNull(message.getType());
         if (Objects.nonNull(msgHandler)) {
             messageVO.setBody(msgHandler.showMsg(message));
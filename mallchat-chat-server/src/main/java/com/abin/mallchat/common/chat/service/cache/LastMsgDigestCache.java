@@ -0,0 +1,130 @@
+package com.abin.mallchat.common.chat.service.cache;
+
+import cn.hutool.core.collection.CollectionUtil;
+import cn.hutool.core.lang.Pair;
+import com.abin.mallchat.common.chat.dao.MessageDao;
+import com.abin.mallchat.common.chat.domain.dto.LastMsgDigest;
+import com.abin.mallchat.common.chat.domain.entity.Message;
+import com.abin.mallchat.common.chat.domain.entity.Room;
+import com.abin.mallchat.common.chat.domain.enums.MessageTypeEnum;
+import com.abin.mallchat.common.chat.service.strategy.msg.MsgHandlerFactory;
+import com.abin.mallchat.common.common.constant.RedisKey;
+import com.abin.mallchat.common.common.utils.RedisUtils;
+import com.abin.mallchat.common.user.domain.entity.User;
+import com.abin.mallchat.common.user.service.cache.UserInfoCache;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Description: 房间最后一条消息的摘要缓存。
+ * 发消息和撤回时直接写好摘要，会话列表一次mget就能拿到，不用再查消息表和发送人。
+ * 摘要以消息id和是否撤回做版本，写入都走redis脚本比较版本，只有更新的版本才能写入，
+ * 乱序的旧消息、晚到的回源结果和撤回前读到的同一条消息都不会覆盖新摘要。
+ * 发送人改名后，已有摘要里的昵称要等下一条消息或者过期才会更新
+ * Author: <a href="https://github.com/zongzibinbin">abin</a>
+ * Date: 2023-10-18
+ */
+@Component
+public class LastMsgDigestCache {
+    private static final String VERSION_FIELD = "version";
+    private static final long EXPIRE_SECONDS = 24 * 60 * 60L;
+
+    @Autowired
+    private RoomCache roomCache;
+    @Autowired
+    private MessageDao messageDao;
+    @Autowired
+    private UserInfoCache userInfoCache;
+
+    /**
+     * 房间有新消息，写入新摘要
+     */
+    public void refresh(Message message, User sender) {
+        LastMsgDigest digest = build(message, sender);
+        RedisUtils.setIfNewer(getKey(message.getRoomId()), digest, VERSION_FIELD, digest.getVersion(), EXPIRE_SECONDS);
+    }
+
+    /**
+     * 消息被撤回，只有它还是房间最后一条消息时才改写摘要。
+     * 撤回的版本比原消息大，摘要不存在时也写入，之后晚到的撤回前的回源结果写不进去
+     */
+    public void recall(Message message, User sender) {
+        Room room = roomCache.get(message.getRoomId());
+        if (Objects.isNull(room) || !Objects.equals(room.getLastMsgId(), message.getId())) {
+            return;
+        }
+        LastMsgDigest digest = build(message, sender);
+        RedisUtils.setIfNewer(getKey(message.getRoomId()), digest, VERSION_FIELD, digest.getVersion(), EXPIRE_SECONDS);
+    }
+
+    /**
+     * 一次取多个房间的摘要，缺失的按房间最后一条消息回源
+     */
+    public Map<Long, LastMsgDigest> getBatch(List<Long> roomIds) {
+        if (CollectionUtil.isEmpty(roomIds)) {
+            return new HashMap<>();
+        }
+        List<LastMsgDigest> digests = RedisUtils.mget(roomIds.stream().map(LastMsgDigestCache::getKey).collect(Collectors.toList()), LastMsgDigest.class);
+        Map<Long, LastMsgDigest> result = new HashMap<>();
+        List<Long> missRoomIds = new ArrayList<>();
+        for (int i = 0; i < roomIds.size(); i++) {
+            LastMsgDigest digest = digests.get(i);
+            if (Objects.nonNull(digest)) {
+                result.put(roomIds.get(i), digest);
+            } else {
+                missRoomIds.add(roomIds.get(i));
+            }
+        }
+        if (!missRoomIds.isEmpty()) {
+            result.putAll(load(missRoomIds));
+        }
+        return result;
+    }
+
+    private Map<Long, LastMsgDigest> load(List<Long> roomIds) {
+        List<Long> msgIds = roomCache.getBatch(roomIds).values().stream()
+                .filter(Objects::nonNull)
+                .map(Room::getLastMsgId)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+        if (msgIds.isEmpty()) {
+            return new HashMap<>();
+        }
+        List<Message> messages = messageDao.listByIds(msgIds);
+        Map<Long, User> senderMap = userInfoCache.getBatch(messages.stream().map(Message::getFromUid).collect(Collectors.toList()));
+        Map<Long, LastMsgDigest> result = new HashMap<>();
+        Map<String, Pair<Long, ?>> refill = new HashMap<>();
+        for (Message message : messages) {
+            LastMsgDigest digest = build(message, senderMap.get(message.getFromUid()));
+            refill.put(getKey(message.getRoomId()), Pair.of(digest.getVersion(), digest));
+            result.put(message.getRoomId(), digest);
+        }
+        //回源期间可能有新消息写了摘要，按版本写入不会覆盖
+        RedisUtils.setIfNewerBatch(refill, VERSION_FIELD, EXPIRE_SECONDS);
+        return result;
+    }
+
+    private static LastMsgDigest build(Message message, User sender) {
+        return LastMsgDigest.builder()
+                .roomId(message.getRoomId())
+                .msgId(message.getId())
+                .version(version(message))
+                .fromUid(message.getFromUid())
+                .senderName(Optional.ofNullable(sender).map(User::getName).orElse(""))
+                .type(message.getType())
+                .text(MsgHandlerFactory.getStrategyNoNull(message.getType()).showContactMsg(message))
+                .createTime(message.getCreateTime())
+                .build();
+    }
+
+    private static long version(Message message) {
+        return message.getId() * 2 + (Objects.equals(message.getType(), MessageTypeEnum.RECALL.getType()) ? 1 : 0);
+    }
+
+    private static String getKey(Long roomId) {
+        return RedisKey.getKey(RedisKey.LAST_MSG_DIGEST_STRING, roomId);
+    }
+}
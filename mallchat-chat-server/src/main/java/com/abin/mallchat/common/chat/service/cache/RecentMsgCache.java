@@ -0,0 +1,135 @@
+package com.abin.mallchat.common.chat.service.cache;
+
+import com.abin.mallchat.common.chat.dao.MessageDao;
+import com.abin.mallchat.common.chat.dao.MessageMarkDao;
+import com.abin.mallchat.common.chat.domain.dto.RecentMsg;
+import com.abin.mallchat.common.chat.domain.entity.Message;
+import com.abin.mallchat.common.chat.domain.entity.MessageMark;
+import com.abin.mallchat.common.chat.domain.entity.Room;
+import com.abin.mallchat.common.common.constant.RedisKey;
+import com.abin.mallchat.common.common.domain.vo.request.CursorPageBaseReq;
+import com.abin.mallchat.common.common.utils.RedisUtils;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Description: 房间最近消息的环形缓存，消息首页直接从这里出，不查库。
+ * redis里每个房间一个固定长度的队列，被读过的房间才会初始化，之后新消息、撤回、标记、链接预览都跟着更新。
+ * 热门群聊几千人同时拉同一个首页，再在本地留一份，最多旧1秒
+ * Author: <a href="https://github.com/zongzibinbin">abin</a>
+ * Date: 2023-10-18
+ */
+@Component
+public class RecentMsgCache {
+    /**
+     * 每个房间保留的最近消息数，首页大小超过它的回库查
+     */
+    public static final int CAPACITY = 50;
+    private static final long EXPIRE_SECONDS = 24 * 60 * 60L;
+    private static final long LOCAL_EXPIRE_MILLIS = 1000;
+
+    /**
+     * 热门群聊的本地副本
+     */
+    private final Cache<Long, List<RecentMsg>> hotRoomLocal = Caffeine.newBuilder()
+            .expireAfterWrite(LOCAL_EXPIRE_MILLIS, TimeUnit.MILLISECONDS)
+            .maximumSize(100)
+            .build();
+
+    @Autowired
+    private MessageDao messageDao;
+    @Autowired
+    private MessageMarkDao messageMarkDao;
+
+    /**
+     * 房间最近的消息，id倒序
+     */
+    public List<RecentMsg> getRecent(Room room) {
+        if (room.isHotRoom()) {
+            return hotRoomLocal.get(room.getId(), this::getRemote);
+        }
+        return getRemote(room.getId());
+    }
+
+    /**
+     * 新消息入队，房间还没有队列的不处理
+     */
+    public void push(Message message) {
+        RedisUtils.ringPush(getListKey(message.getRoomId()), getHashKey(message.getRoomId()), String.valueOf(message.getId()),
+                new RecentMsg(message, new ArrayList<>()), CAPACITY, EXPIRE_SECONDS);
+        hotRoomLocal.invalidate(message.getRoomId());
+    }
+
+    /**
+     * 消息内容或者标记变了，还在队列里的按库里最新的重写
+     */
+    public void refresh(Long msgId) {
+        Message message = messageDao.getById(msgId);
+        if (Objects.isNull(message)) {
+            return;
+        }
+        List<MessageMark> marks = messageMarkDao.getValidMarkByMsgIdBatch(Collections.singletonList(msgId));
+        RedisUtils.hsetIfFieldExists(getHashKey(message.getRoomId()), String.valueOf(msgId), new RecentMsg(message, marks));
+        hotRoomLocal.invalidate(message.getRoomId());
+    }
+
+    /**
+     * 跨房间的变化（拉黑后删掉用户所有消息），全部清掉，读的时候重新初始化
+     */
+    public void evictAll() {
+        RedisUtils.del(RedisUtils.scan(RedisKey.getKey(RedisKey.RECENT_MSG_PATTERN)));
+        hotRoomLocal.invalidateAll();
+    }
+
+    private List<RecentMsg> getRemote(Long roomId) {
+        List<RecentMsg> recent = RedisUtils.ringRange(getListKey(roomId), getHashKey(roomId), CAPACITY, RecentMsg.class);
+        if (recent.isEmpty()) {
+            recent = init(roomId);
+        }
+        return recent.stream()
+                .sorted(Comparator.comparing((RecentMsg a) -> a.getMessage().getId()).reversed())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * 用库里的最近一页初始化队列，空房间不建。
+     * 只缓存从最新一条开始连续有序号的消息：最新的还没分配序号说明还在发送途中，这次不建，等它推送完下次再建；
+     * 更早的没有序号的是加序号之前的老消息，到它为止，队列短一些，凑不够一页的首页回库查
+     */
+    private List<RecentMsg> init(Long roomId) {
+        List<Message> page = messageDao.getCursorPage(roomId, new CursorPageBaseReq(CAPACITY, null), null).getList();
+        List<Message> messages = new ArrayList<>();
+        for (Message message : page) {
+            if (Objects.isNull(message.getSeq())) {
+                break;
+            }
+            messages.add(message);
+        }
+        if (messages.isEmpty()) {
+            return new ArrayList<>();
+        }
+        Map<Long, List<MessageMark>> markMap = messageMarkDao.getValidMarkByMsgIdBatch(messages.stream().map(Message::getId).collect(Collectors.toList()))
+                .stream()
+                .collect(Collectors.groupingBy(MessageMark::getMsgId));
+        LinkedHashMap<String, RecentMsg> entries = new LinkedHashMap<>();
+        for (Message message : messages) {
+            entries.put(String.valueOf(message.getId()), new RecentMsg(message, markMap.getOrDefault(message.getId(), new ArrayList<>())));
+        }
+        RedisUtils.ringInit(getListKey(roomId), getHashKey(roomId), entries, EXPIRE_SECONDS);
+        return new ArrayList<>(entries.values());
+    }
+
+    private static String getListKey(Long roomId) {
+        return RedisKey.getKey(RedisKey.RECENT_MSG_LIST, roomId);
+    }
+
+    private static String getHashKey(Long roomId) {
+        return RedisKey.getKey(RedisKey.RECENT_MSG_HASH, roomId);
+    }
+}
@@ -1,14 +1,16 @@
 package com.abin.mallchat.common.chat.service.cache;
 
+import cn.hutool.core.bean.BeanUtil;
 import com.abin.mallchat.common.chat.dao.RoomDao;
 import com.abin.mallchat.common.chat.dao.RoomFriendDao;
 import com.abin.mallchat.common.chat.domain.entity.Room;
 import com.abin.mallchat.common.common.constant.RedisKey;
-import com.abin.mallchat.common.common.service.cache.AbstractRedisStringCache;
+import com.abin.mallchat.common.common.service.cache.JsonRedisStringCache;
 import com.abin.mallchat.common.user.dao.UserDao;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.function.Function;
@@ -20,7 +22,9 @@ import java.util.stream.Collectors;
  * Date: 2023-06-10
  */
 @Component
-public class RoomCache extends AbstractRedisStringCache<Long, Room> {
+public class RoomCache extends JsonRedisStringCache<Long, Room> {
+    private static final String LAST_MSG_ID_FIELD = "lastMsgId";
+
     @Autowired
     private UserDao userDao;
     @Autowired
@@ -38,6 +42,25 @@ public class RoomCache extends AbstractRedisStringCache<Long, Room> {
         return 5 * 60L;
     }
 
+    /**
+     * 新消息更新房间最后一条消息和活跃时间，直接写缓存，不删掉让所有读请求回源。
+     * 以lastMsgId做版本，乱序到达的旧消息不会把时间改回去。调用方手里的room后面还要用，这里复制一份再改
+     */
+    public void refreshActiveTime(Room room, Long msgId, Date activeTime) {
+        Room update = BeanUtil.copyProperties(room, Room.class);
+        update.setLastMsgId(msgId);
+        update.setActiveTime(activeTime);
+        putIfNewer(room.getId(), update, LAST_MSG_ID_FIELD, msgId);
+    }
+
+    /**
+     * 热门房间过期时多个节点同时回源，加租约只让一个节点查库
+     */
+    @Override
+    protected long getLeaseMillis() {
+        return 200;
+    }
+
     @Override
     protected Map<Long, Room> load(List<Long> roomIds) {
         List<Room> rooms = roomDao.listByIds(roomIds);
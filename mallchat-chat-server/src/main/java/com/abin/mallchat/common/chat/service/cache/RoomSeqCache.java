@@ -0,0 +1,38 @@
+package com.abin.mallchat.common.chat.service.cache;
+
+import com.abin.mallchat.common.chat.dao.MessageDao;
+import com.abin.mallchat.common.common.constant.RedisKey;
+import com.abin.mallchat.common.common.utils.RedisUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Description: 房间内消息序号
+ * 序号计数器放在redis，不过期。计数器丢失（迁移、淘汰）时用库里该房间最大的序号重新初始化，保证不回退。
+ * 自增和记录这条消息分到的序号在一个lua里完成，写库前挂掉或者重复投递再来分配，拿到的还是同一个，不会烧掉序号
+ * Author: <a href="https://github.com/zongzibinbin">abin</a>
+ * Date: 2023-10-18
+ */
+@Component
+public class RoomSeqCache {
+    /**
+     * 分配记录保留的时间，覆盖mq重投的间隔就够了
+     */
+    private static final long ASSIGN_EXPIRE_SECONDS = 24 * 60 * 60L;
+
+    @Autowired
+    private MessageDao messageDao;
+
+    /**
+     * 给消息分配房间内的下一个序号，需要在房间维度串行调用（发送消息的mq按房间顺序消费）
+     */
+    public Long next(Long roomId, Long msgId) {
+        String key = RedisKey.getKey(RedisKey.ROOM_SEQ_STRING, roomId);
+        String assignKey = RedisKey.getKey(RedisKey.MSG_SEQ_STRING, msgId);
+        Long seq = RedisUtils.assignSeq(key, assignKey, null, ASSIGN_EXPIRE_SECONDS);
+        if (seq > 0) {
+            return seq;
+        }
+        return RedisUtils.assignSeq(key, assignKey, messageDao.getMaxSeq(roomId), ASSIGN_EXPIRE_SECONDS);
+    }
+}
@@ -0,0 +1,93 @@
+package com.abin.mallchat.common.chat.service.cache;
+
+import cn.hutool.core.lang.Pair;
+import com.abin.mallchat.common.chat.domain.dto.UnreadCountDTO;
+import com.abin.mallchat.common.common.constant.RedisKey;
+import com.abin.mallchat.common.common.utils.RedisUtils;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+/**
+ * Description: 用户会话未读数，每个用户一个hash，field为roomId。
+ * 只有已读过（或者已经对过账）的会话才有计数，新消息只给已有的计数加一，没有计数的会话查询时用库里的count兜底再补上。
+ * 用count补上的计数同时记下count到的最大消息id作为水位线，已经算进count的消息晚到的累加会被忽略，不会算两次；
+ * 水位线以下、count时还没提交的消息会少算一条，下次已读清零就对上了。
+ * 热门群聊不扇出，不维护计数。
+ * Author: <a href="https://github.com/zongzibinbin">abin</a>
+ * Date: 2023-10-18
+ */
+@Component
+public class UnreadCountCache {
+    /**
+     * 用户一段时间不读消息计数就过期，下次打开会话列表时重新对账
+     */
+    private static final long EXPIRE_SECONDS = 7 * 24 * 60 * 60L;
+    /**
+     * 水位线和计数放在同一个hash里，field为roomId加这个后缀
+     */
+    private static final String MARK_SUFFIX = ":mark";
+
+    /**
+     * 房间新消息，给成员的未读数加一，消息已经算在对账的count里的不加
+     */
+    public void incr(Long roomId, List<Long> uidList, Long msgId) {
+        RedisUtils.hincrIfAboveMarkBatch(getKeys(uidList), String.valueOf(roomId), MARK_SUFFIX, msgId, 1);
+    }
+
+    /**
+     * 删掉成员的计数，计数可能不准的时候用，下次查询走库里对账
+     */
+    public void evict(Long roomId, List<Long> uidList) {
+        RedisUtils.hdelBatch(getKeys(uidList), String.valueOf(roomId));
+        RedisUtils.hdelBatch(getKeys(uidList), roomId + MARK_SUFFIX);
+    }
+
+    /**
+     * 已读，计数清零
+     */
+    public void reset(Long uid, Long roomId) {
+        RedisUtils.hset(getKey(uid), String.valueOf(roomId), "0", EXPIRE_SECONDS);
+    }
+
+    /**
+     * 用库里count出来的未读数初始化计数，已经有计数的不覆盖
+     *
+     * @param minMark 水位线至少到这里，这之前的消息都已经提交过
+     */
+    public void init(Long uid, List<UnreadCountDTO> counts, Map<Long, Long> minMark) {
+        Map<String, Pair<String, Long>> values = new HashMap<>();
+        for (UnreadCountDTO count : counts) {
+            long mark = Math.max(Objects.isNull(count.getMaxMsgId()) ? 0L : count.getMaxMsgId(), minMark.getOrDefault(count.getRoomId(), 0L));
+            values.put(String.valueOf(count.getRoomId()), Pair.of(String.valueOf(count.getUnreadCount()), mark));
+        }
+        RedisUtils.hsetIfAbsentWithMarkBatch(getKey(uid), values, MARK_SUFFIX, EXPIRE_SECONDS);
+    }
+
+    /**
+     * 一次取用户多个会话的未读数，没有计数的会话不在返回结果里
+     */
+    public Map<Long, Integer> getBatch(Long uid, List<Long> roomIds) {
+        List<String> counts = RedisUtils.hmultiGet(getKey(uid), roomIds.stream().map(String::valueOf).collect(Collectors.toList()));
+        Map<Long, Integer> result = new HashMap<>();
+        for (int i = 0; i < roomIds.size(); i++) {
+            String count = counts.get(i);
+            if (Objects.nonNull(count)) {
+                result.put(roomIds.get(i), Math.max(0, Integer.parseInt(count)));
+            }
+        }
+        return result;
+    }
+
+    private static String getKey(Long uid) {
+        return RedisKey.getKey(RedisKey.USER_UNREAD_HASH, uid);
+    }
+
+    private static List<String> getKeys(List<Long> uidList) {
+        return uidList.stream().map(UnreadCountCache::getKey).collect(Collectors.toList());
+    }
+}
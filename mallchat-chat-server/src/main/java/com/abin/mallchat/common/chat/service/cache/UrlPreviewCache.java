@@ -0,0 +1,242 @@
+package com.abin.mallchat.common.chat.service.cache;
+
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.crypto.SecureUtil;
+import com.abin.mallchat.common.chat.service.impl.UrlUnfurlMetrics;
+import com.abin.mallchat.common.common.config.UrlUnfurlProperties;
+import com.abin.mallchat.common.common.constant.RedisKey;
+import com.abin.mallchat.common.common.utils.RedisUtils;
+import com.abin.mallchat.common.common.utils.discover.PrioritizedUrlDiscover;
+import com.abin.mallchat.common.common.utils.discover.UrlDiscover;
+import com.abin.mallchat.common.common.utils.discover.domain.UrlInfo;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import lombok.extern.slf4j.Slf4j;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Nullable;
+import javax.annotation.PostConstruct;
+import java.net.URI;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Description: 链接预览缓存，本地caffeine + redis两级。
+ * 热门群里同一个链接会被反复贴，抓取失败的站点也会被反复重试，这里按规范化后的链接缓存结果，
+ * 失败结果也短暂缓存；同一个链接同一时刻在本机只会抓一次，同一个域名同时抓取的数量有上限。
+ * Author: <a href="https://github.com/zongzibinbin">abin</a>
+ * Date: 2023-10-18
+ */
+@Slf4j
+@Component
+public class UrlPreviewCache {
+    /**
+     * 抓取失败的占位，存到redis里是{}
+     */
+    private static final UrlInfo NEGATIVE = new UrlInfo();
+
+    @Autowired
+    private UrlUnfurlProperties urlUnfurlProperties;
+    @Autowired
+    private UrlUnfurlMetrics urlUnfurlMetrics;
+
+    private final UrlDiscover urlDiscover = new PrioritizedUrlDiscover();
+    private Cache<String, UrlInfo> localCache;
+    private LoadingCache<String, Semaphore> hostPermits;
+    private final ConcurrentHashMap<String, CompletableFuture<UrlInfo>> inflight = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        long localNanos = TimeUnit.SECONDS.toNanos(urlUnfurlProperties.getLocalCacheSeconds());
+        long negativeNanos = TimeUnit.SECONDS.toNanos(Math.min(urlUnfurlProperties.getLocalCacheSeconds(), urlUnfurlProperties.getNegativeCacheSeconds()));
+        localCache = Caffeine.newBuilder()
+                .maximumSize(urlUnfurlProperties.getLocalCacheSize())
+                .expireAfter(new Expiry<String, UrlInfo>() {
+                    @Override
+                    public long expireAfterCreate(@NonNull String key, @NonNull UrlInfo value, long currentTime) {
+                        return isNegative(value) ? negativeNanos : localNanos;
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(@NonNull String key, @NonNull UrlInfo value, long currentTime, long currentDuration) {
+                        return expireAfterCreate(key, value, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(@NonNull String key, @NonNull UrlInfo value, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .build();
+        //只有正在抓取的域名才需要留着
+        hostPermits = Caffeine.newBuilder()
+                .expireAfterAccess(10, TimeUnit.MINUTES)
+                .build(host -> new Semaphore(urlUnfurlProperties.getPerHostConcurrency()));
+    }
+
+    /**
+     * 获取链接预览，抓取失败或者没有可展示的内容返回null
+     */
+    @Nullable
+    public UrlInfo get(String url) {
+        return get(url, System.currentTimeMillis() + urlUnfurlProperties.getTimeoutMillis());
+    }
+
+    /**
+     * 获取链接预览，等域名额度、等别的线程抓取、自己抓取都不超过截止时间，超时返回null
+     *
+     * @param deadline 截止时间戳(毫秒)
+     */
+    @Nullable
+    public UrlInfo get(String url, long deadline) {
+        URI uri = normalize(url);
+        if (Objects.isNull(uri)) {
+            return null;
+        }
+        String key = uri.toString();
+        UrlInfo urlInfo = localCache.getIfPresent(key);
+        if (Objects.nonNull(urlInfo)) {
+            urlUnfurlMetrics.localHit();
+        } else {
+            urlInfo = loadOnce(key, uri.getHost(), deadline);
+        }
+        if (Objects.isNull(urlInfo) || isNegative(urlInfo)) {
+            return null;
+        }
+        return urlInfo;
+    }
+
+    /**
+     * 同一个链接同时只有一个线程在加载，其他线程等它的结果。
+     * 没用caffeine的get(key, loader)，抓取要上秒，会长时间锁住同一个桶里的其他key
+     */
+    @Nullable
+    private UrlInfo loadOnce(String key, String host, long deadline) {
+        CompletableFuture<UrlInfo> future = new CompletableFuture<>();
+        CompletableFuture<UrlInfo> loading = inflight.putIfAbsent(key, future);
+        if (Objects.nonNull(loading)) {
+            try {
+                return loading.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (ExecutionException | TimeoutException e) {
+                return null;
+            }
+        }
+        UrlInfo urlInfo = null;
+        try {
+            urlInfo = load(key, host, deadline);
+            if (Objects.nonNull(urlInfo)) {
+                localCache.put(key, urlInfo);
+            }
+        } finally {
+            inflight.remove(key, future);
+            future.complete(urlInfo);
+        }
+        return urlInfo;
+    }
+
+    @Nullable
+    private UrlInfo load(String url, String host, long deadline) {
+        UrlInfo cached = getRemote(url);
+        if (Objects.nonNull(cached)) {
+            urlUnfurlMetrics.remoteHit();
+            return cached;
+        }
+        UrlInfo fetched = fetch(url, host, deadline);
+        if (Objects.isNull(fetched)) {//没抢到域名并发额度或者已经超时，不缓存，下次再抓
+            return null;
+        }
+        putRemote(url, fetched, isNegative(fetched) ? urlUnfurlProperties.getNegativeCacheSeconds() : urlUnfurlProperties.getCacheSeconds());
+        return fetched;
+    }
+
+    /**
+     * 抓取并解析，失败返回NEGATIVE，域名并发满了等不到或者没有剩余时间返回null
+     */
+    @Nullable
+    private UrlInfo fetch(String url, String host, long deadline) {
+        Semaphore permits = hostPermits.get(host);
+        try {
+            if (!permits.tryAcquire(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) {
+                urlUnfurlMetrics.hostLimited();
+                return null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        try {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return null;
+            }
+            UrlInfo urlInfo = urlDiscover.getContent(url, (int) remaining);
+            return Objects.isNull(urlInfo) || isNegative(urlInfo) ? NEGATIVE : urlInfo;
+        } catch (Exception e) {
+            log.warn("链接预览解析失败 url:{}", url, e);
+            return NEGATIVE;
+        } finally {
+            permits.release();
+        }
+    }
+
+    protected UrlInfo getRemote(String url) {
+        try {
+            return RedisUtils.get(redisKey(url), UrlInfo.class);
+        } catch (Exception e) {
+            log.warn("链接预览读取redis失败，直接抓取 url:{}", url, e);
+            return null;
+        }
+    }
+
+    protected void putRemote(String url, UrlInfo urlInfo, long seconds) {
+        RedisUtils.set(redisKey(url), urlInfo, seconds);
+    }
+
+    private static String redisKey(String url) {
+        return RedisKey.getKey(RedisKey.URL_PREVIEW_STRING, SecureUtil.md5(url));
+    }
+
+    private static boolean isNegative(UrlInfo urlInfo) {
+        return StrUtil.isAllBlank(urlInfo.getTitle(), urlInfo.getDescription(), urlInfo.getImage());
+    }
+
+    /**
+     * 补全协议，协议和域名转小写，去掉默认端口、锚点和根路径的斜杠，让同一个地址的不同写法命中同一份缓存
+     */
+    @Nullable
+    static URI normalize(String url) {
+        if (StrUtil.isBlank(url)) {
+            return null;
+        }
+        String raw = StrUtil.startWithIgnoreCase(url, "http") ? url : "http://" + url;
+        try {
+            URI uri = URI.create(raw);
+            if (StrUtil.isBlank(uri.getHost())) {
+                return null;
+            }
+            String scheme = uri.getScheme().toLowerCase(Locale.ROOT);
+            int port = uri.getPort();
+            if (("http".equals(scheme) && port == 80) || ("https".equals(scheme) && port == 443)) {
+                port = -1;
+            }
+            String path = "/".equals(uri.getRawPath()) ? "" : uri.getRawPath();
+            String query = Objects.isNull(uri.getRawQuery()) ? "" : "?" + uri.getRawQuery();
+            return URI.create(scheme + "://" + uri.getHost().toLowerCase(Locale.ROOT) + (port == -1 ? "" : ":" + port) + path + query);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.abin.mallchat.common.chat.service.helper;
+
+import com.abin.mallchat.common.chat.domain.entity.Contact;
+import com.abin.mallchat.common.chat.domain.entity.Message;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Description: 消息已读数计算。
+ * 把房间所有会话的已读时间排好序，某条消息的已读数就是已读时间大于等于消息发送时间的会话数，二分查找得到，
+ * 一次加载可以算任意多条消息，不用每条消息count一次。
+ * Author: <a href="https://github.com/zongzibinbin">abin</a>
+ * Date: 2023-10-18
+ */
+public class MsgReadCounter {
+    /**
+     * 升序的已读时间，没读过的会话不在里面
+     */
+    private final long[] readTimes;
+    /**
+     * 房间总会话数
+     */
+    private final int totalCount;
+    /**
+     * 消息发送者自己的已读时间，算已读数时要排除掉自己
+     */
+    private final Map<Long, Long> senderReadTimes = new HashMap<>();
+
+    /**
+     * @param contacts   房间的全部会话，只需要uid和readTime
+     * @param senderUids 要计算的消息的发送者
+     */
+    public MsgReadCounter(List<Contact> contacts, Collection<Long> senderUids) {
+        this.totalCount = contacts.size();
+        long[] times = new long[contacts.size()];
+        int size = 0;
+        for (Contact contact : contacts) {
+            if (Objects.isNull(contact.getReadTime())) {
+                continue;
+            }
+            long readTime = contact.getReadTime().getTime();
+            times[size++] = readTime;
+            if (senderUids.contains(contact.getUid())) {
+                senderReadTimes.put(contact.getUid(), readTime);
+            }
+        }
+        this.readTimes = Arrays.copyOf(times, size);
+        Arrays.sort(this.readTimes);
+    }
+
+    public int getTotalCount() {
+        return totalCount;
+    }
+
+    /**
+     * 除发送者以外，已读时间大于等于消息发送时间的会话数
+     */
+    public int getReadCount(Message message) {
+        long createTime = message.getCreateTime().getTime();
+        int readCount = readTimes.length - lowerBound(createTime);
+        Long senderReadTime = senderReadTimes.get(message.getFromUid());
+        if (Objects.nonNull(senderReadTime) && senderReadTime >= createTime) {
+            readCount--;
+        }
+        return readCount;
+    }
+
+    /**
+     * 第一个大于等于target的下标
+     */
+    private int lowerBound(long target) {
+        int low = 0;
+        int high = readTimes.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (readTimes[mid] < target) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
@@ -7,8 +7,10 @@ import cn.hutool.core.date.DateUtil;
 import cn.hutool.core.lang.Pair;
 import com.abin.mallchat.common.chat.dao.*;
 import com.abin.mallchat.common.chat.domain.dto.MsgReadInfoDTO;
+import com.abin.mallchat.common.chat.domain.dto.RecentMsg;
 import com.abin.mallchat.common.chat.domain.entity.*;
 import com.abin.mallchat.common.chat.domain.enums.MessageMarkActTypeEnum;
+import com.abin.mallchat.common.chat.domain.enums.MessageStatusEnum;
 import com.abin.mallchat.common.chat.domain.enums.MessageTypeEnum;
 import com.abin.mallchat.common.chat.domain.vo.request.*;
 import com.abin.mallchat.common.chat.domain.vo.response.ChatMemberListResp;
@@ -20,8 +22,11 @@ import com.abin.mallchat.common.chat.service.ContactService;
 import com.abin.mallchat.common.chat.service.adapter.MemberAdapter;
 import com.abin.mallchat.common.chat.service.adapter.MessageAdapter;
 import com.abin.mallchat.common.chat.service.adapter.RoomAdapter;
+import com.abin.mallchat.common.chat.service.cache.GroupMemberCache;
+import com.abin.mallchat.common.chat.service.cache.RecentMsgCache;
 import com.abin.mallchat.common.chat.service.cache.RoomCache;
 import com.abin.mallchat.common.chat.service.cache.RoomGroupCache;
+import com.abin.mallchat.common.chat.service.cache.UnreadCountCache;
 import com.abin.mallchat.common.chat.service.helper.ChatMemberHelper;
 import com.abin.mallchat.common.chat.service.strategy.mark.AbstractMsgMarkStrategy;
 import com.abin.mallchat.common.chat.service.strategy.mark.MsgMarkFactory;
@@ -85,6 +90,10 @@ public class ChatServiceImpl implements ChatService {
     @Autowired
     private RecallMsgHandler recallMsgHandler;
     @Autowired
+    private MsgHistoryReader msgHistoryReader;
+    @Autowired
+    private RecentMsgCache recentMsgCache;
+    @Autowired
     private ContactService contactService;
     @Autowired
     private ContactDao contactDao;
@@ -96,6 +105,12 @@ public class ChatServiceImpl implements ChatService {
     private RoomGroupCache roomGroupCache;
     @Autowired
     private RoomGroupDao roomGroupDao;
+    @Autowired
+    private UnreadCountCache unreadCountCache;
+    @Autowired
+    private ContactReadWriter contactReadWriter;
+    @Autowired
+    private GroupMemberCache groupMemberCache;
 
     /**
      * 发送消息
@@ -107,7 +122,7 @@ public class ChatServiceImpl implements ChatService {
         AbstractMsgHandler<?> msgHandler = MsgHandlerFactory.getStrategyNoNull(request.getMsgType());
         Long msgId = msgHandler.checkAndSaveMsg(request, uid);
         //发布消息发送事件
-        applicationEventPublisher.publishEvent(new MessageSendEvent(this, msgId));
+        applicationEventPublisher.publishEvent(new MessageSendEvent(this, msgId, request.getRoomId()));
         return msgId;
     }
 
@@ -177,13 +192,61 @@ public class ChatServiceImpl implements ChatService {
     public CursorPageBaseResp<ChatMessageResp> getMsgPage(ChatMessagePageReq request, Long receiveUid) {
         //用最后一条消息id，来限制被踢出的人能看见的最大一条消息
         Long lastMsgId = getLastMsgId(request.getRoomId(), receiveUid);
-        CursorPageBaseResp<Message> cursorPage = messageDao.getCursorPage(request.getRoomId(), request, lastMsgId);
+        //首页优先从房间最近消息缓存里出
+        CursorPageBaseResp<ChatMessageResp> recentPage = getRecentPage(request, lastMsgId, receiveUid);
+        if (Objects.nonNull(recentPage)) {
+            return recentPage;
+        }
+        CursorPageBaseResp<Message> cursorPage = msgHistoryReader.getCursorPage(request.getRoomId(), request, lastMsgId);
         if (cursorPage.isEmpty()) {
             return CursorPageBaseResp.empty();
         }
         return CursorPageBaseResp.init(cursorPage, getMsgRespBatch(cursorPage.getList(), receiveUid));
     }
 
+    /**
+     * 从最近消息缓存里取首页，缓存里除了这一页还要再多出一条，才能确定后面还有，不是最后一页；
+     * 凑不够的（消息很少的房间、被踢出群的人）返回null，走库里查，由库里判断是不是最后一页
+     */
+    @Nullable
+    private CursorPageBaseResp<ChatMessageResp> getRecentPage(ChatMessagePageReq request, Long lastMsgId, Long receiveUid) {
+        if (!request.isFirstPage() || request.getPageSize() >= RecentMsgCache.CAPACITY) {
+            return null;
+        }
+        List<RecentMsg> recent = recentMsgCache.getRecent(roomCache.get(request.getRoomId())).stream()
+                .filter(a -> Objects.equals(a.getMessage().getStatus(), MessageStatusEnum.NORMAL.getStatus()))
+                .filter(a -> Objects.isNull(lastMsgId) || a.getMessage().getId() <= lastMsgId)
+                .limit(request.getPageSize() + 1)
+                .collect(Collectors.toList());
+        if (recent.size() <= request.getPageSize()) {
+            return null;
+        }
+        recent = recent.subList(0, request.getPageSize());
+        List<Message> messages = recent.stream().map(RecentMsg::getMessage).collect(Collectors.toList());
+        List<MessageMark> marks = recent.stream().flatMap(a -> a.getMarks().stream()).collect(Collectors.toList());
+        String cursor = String.valueOf(CollectionUtil.getLast(messages).getId());
+        //和走库的首页一样，顺手把第二页预取好
+        msgHistoryReader.prefetchNext(request.getRoomId(), request.getPageSize(), cursor, lastMsgId);
+        return new CursorPageBaseResp<>(cursor, Boolean.FALSE, MessageAdapter.buildMsgResp(messages, marks, receiveUid));
+    }
+
+    @Override
+    public CursorPageBaseResp<ChatMessageResp> getMsgAfterSeq(ChatMessageSyncReq request, Long receiveUid) {
+        Long lastMsgId = getLastMsgId(request.getRoomId(), receiveUid);
+        List<Message> messages = messageDao.getAfterSeq(request.getRoomId(), request.getSeq(), lastMsgId, request.getPageSize());
+        if (CollectionUtil.isEmpty(messages)) {
+            return CursorPageBaseResp.empty();
+        }
+        String cursor = String.valueOf(CollectionUtil.getLast(messages).getSeq());
+        Boolean isLast = messages.size() < request.getPageSize();
+        return new CursorPageBaseResp<>(cursor, isLast, getMsgRespBatch(messages, receiveUid));
+    }
+
+    /**
+     * 能看到的最大消息id，null表示不限制。
+     * 会话是推送之后才异步刷新的，在群里的人不能按会话上的最后消息限制，否则刚推送的消息拉不到；
+     * 被踢出群的人会话不再刷新，停在离开时的那条
+     */
     private Long getLastMsgId(Long roomId, Long receiveUid) {
         Room room = roomCache.get(roomId);
         AssertUtil.isNotEmpty(room, "房间号有误");
@@ -191,7 +254,11 @@ public class ChatServiceImpl implements ChatService {
             return null;
         }
         AssertUtil.isNotEmpty(receiveUid, "请先登录");
+        if (!room.isRoomGroup() || CollUtil.contains(groupMemberCache.getMemberUidList(roomId), receiveUid)) {
+            return null;
+        }
         Contact contact = contactDao.get(receiveUid, roomId);
+        AssertUtil.isNotEmpty(contact, "您已经被移除该群");
         return contact.getLastMsgId();
     }
 
@@ -272,20 +339,12 @@ public class ChatServiceImpl implements ChatService {
     }
 
     @Override
-    @RedissonLock(key = "#uid")
     public void msgRead(Long uid, ChatMessageMemberReq request) {
-        Contact contact = contactDao.get(uid, request.getRoomId());
-        if (Objects.nonNull(contact)) {
-            Contact update = new Contact();
-            update.setId(contact.getId());
-            update.setReadTime(new Date());
-            contactDao.updateById(update);
-        } else {
-            Contact insert = new Contact();
-            insert.setUid(uid);
-            insert.setRoomId(request.getRoomId());
-            insert.setReadTime(new Date());
-            contactDao.save(insert);
+        //先记redis，后台批量落库，同一个会话后上报的覆盖先上报的
+        contactReadWriter.markRead(uid, request.getRoomId(), new Date());
+        Room room = roomCache.get(request.getRoomId());
+        if (Objects.nonNull(room) && !room.isHotRoom()) {
+            unreadCountCache.reset(uid, request.getRoomId());
         }
     }
 
@@ -0,0 +1,284 @@
+package com.abin.mallchat.common.chat.service.impl;
+
+import cn.hutool.core.collection.CollUtil;
+import com.abin.mallchat.common.chat.dao.ContactDao;
+import com.abin.mallchat.common.chat.dao.RoomDao;
+import com.abin.mallchat.common.chat.dao.RoomFriendDao;
+import com.abin.mallchat.common.chat.domain.entity.Room;
+import com.abin.mallchat.common.chat.domain.entity.RoomFriend;
+import com.abin.mallchat.common.chat.service.cache.GroupMemberCache;
+import com.abin.mallchat.common.chat.service.cache.UnreadCountCache;
+import com.abin.mallchat.common.common.config.ContactInboxProperties;
+import com.abin.mallchat.common.common.config.ThreadPoolConfig;
+import com.abin.mallchat.common.common.constant.RedisKey;
+import com.abin.mallchat.common.common.utils.RedisUtils;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.data.redis.core.ZSetOperations.TypedTuple;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+/**
+ * Description: 新消息刷新房间成员的会话（最新消息和活跃时间）。
+ * 几千人的群一条insert带几千行，语句大、锁的行多，这里按chunkSize拆成多条并行写；
+ * 同一个房间短时间内的多条消息合并成一次写入，只保留最新的一条。
+ * 写入的sql只会把last_msg_id和active_time往大了改，重试和乱序都不会回退。
+ * 成员的未读数在消费消息时就累加，不跟着合并窗口延后，否则窗口内已读清零后，晚到的累加会让角标一直不对。
+ * 合并写入时mq消息在写库前就确认了，所以先把房间登记到redis，写完才移除；
+ * 节点挂掉或者重试用完留下的房间，由补偿任务按房间表的最新消息重新刷一遍
+ * Author: <a href="https://github.com/zongzibinbin">abin</a>
+ * Date: 2023-10-18
+ */
+@Slf4j
+@Component
+public class ContactInboxWriter {
+    /**
+     * 合并写入失败时最多重试的次数，用完交给补偿任务
+     */
+    private static final int MAX_RETRY = 3;
+    /**
+     * 补偿任务每次最多处理的房间数
+     */
+    private static final int REDRIVE_BATCH = 100;
+
+    @Autowired
+    private ContactDao contactDao;
+    @Autowired
+    private RoomDao roomDao;
+    @Autowired
+    private RoomFriendDao roomFriendDao;
+    @Autowired
+    private GroupMemberCache groupMemberCache;
+    @Autowired
+    private ContactInboxProperties contactInboxProperties;
+    @Autowired
+    private UnreadCountCache unreadCountCache;
+    @Autowired
+    private RedissonClient redissonClient;
+    @Autowired
+    @Qualifier(ThreadPoolConfig.CONTACT_INBOX_EXECUTOR)
+    private ThreadPoolTaskExecutor contactInboxExecutor;
+    @Autowired
+    @Qualifier(ThreadPoolConfig.CONTACT_INBOX_SCHEDULER)
+    private ThreadPoolTaskScheduler contactInboxScheduler;
+
+    private final ConcurrentHashMap<Long, RoomActive> pending = new ConcurrentHashMap<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private volatile boolean stopped;
+
+    @PostConstruct
+    public void start() {
+        long interval = contactInboxProperties.getRedriveAfterMillis();
+        contactInboxScheduler.scheduleWithFixedDelay(this::redrive, new Date(System.currentTimeMillis() + interval), interval);
+    }
+
+    @PreDestroy
+    public void stop() {
+        stopped = true;
+        flush();
+    }
+
+    /**
+     * 成员未读数加一，并刷新成员会话，开启合并时登记后异步写入，否则写完才返回，失败直接抛出
+     */
+    public void refreshActiveTime(Long roomId, List<Long> memberUidList, Long msgId, Date activeTime) {
+        if (CollUtil.isEmpty(memberUidList)) {
+            return;
+        }
+        incrUnread(roomId, memberUidList, msgId);
+        if (contactInboxProperties.getMergeWindowMillis() <= 0) {
+            write(new RoomActive(roomId, memberUidList, msgId, activeTime, 0, 0L)).join();
+            return;
+        }
+        //登记失败直接抛出，由mq重投
+        long mark = System.currentTimeMillis();
+        RedisUtils.zAdd(getPendingKey(), String.valueOf(roomId), mark);
+        submit(new RoomActive(roomId, memberUidList, msgId, activeTime, 0, mark));
+    }
+
+    private void submit(RoomActive active) {
+        pending.merge(active.getRoomId(), active, RoomActive::latest);
+        //窗口内只有第一个变动负责调度flush
+        if (flushScheduled.compareAndSet(false, true)) {
+            contactInboxScheduler.schedule(this::flush, new Date(System.currentTimeMillis() + contactInboxProperties.getMergeWindowMillis()));
+        }
+    }
+
+    /**
+     * 把攒下的房间全部写入，所有房间的分片一起并行
+     */
+    public void flush() {
+        //先放开调度标记再取数据，flush期间新进来的消息会开启下一个窗口，不会漏
+        flushScheduled.set(false);
+        List<RoomActive> activeList = new ArrayList<>(pending.size());
+        for (Long roomId : pending.keySet()) {
+            RoomActive active = pending.remove(roomId);
+            if (active != null) {
+                activeList.add(active);
+            }
+        }
+        List<CompletableFuture<Void>> futures = activeList.stream().map(this::write).collect(Collectors.toList());
+        for (int i = 0; i < activeList.size(); i++) {
+            RoomActive active = activeList.get(i);
+            try {
+                futures.get(i).join();
+                //期间又登记过的说明还有新消息在路上，留给后面的写入移除
+                RedisUtils.zRemoveIfScore(getPendingKey(), String.valueOf(active.getRoomId()), active.getMark());
+            } catch (Exception e) {
+                if (active.getRetry() < MAX_RETRY && !stopped) {
+                    log.warn("会话刷新失败，稍后重试 roomId:{} msgId:{}", active.getRoomId(), active.getMsgId(), e);
+                    submit(active.retry());
+                } else {
+                    log.error("会话刷新失败，交给补偿任务 roomId:{} msgId:{}", active.getRoomId(), active.getMsgId(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 补偿登记超过redriveAfterMillis还没写完的房间。房间表的最新消息在推送前就同步写好了，按它重算一遍成员会话，
+     * 写入只会往大了改，和正常写入撞上也没关系。失败的留在登记里，下一轮接着补
+     */
+    public void redrive() {
+        RLock lock = redissonClient.getLock(getPendingKey() + ":lock");
+        try {
+            if (!lock.tryLock()) {
+                return;
+            }
+        } catch (Exception e) {
+            log.error("会话补偿获取锁失败", e);
+            return;
+        }
+        try {
+            long deadline = System.currentTimeMillis() - contactInboxProperties.getRedriveAfterMillis();
+            Set<TypedTuple<String>> staleRooms = RedisUtils.zRangeByScoreWithScores(getPendingKey(), 0, deadline, 0, REDRIVE_BATCH);
+            for (TypedTuple<String> staleRoom : staleRooms) {
+                Long roomId = Long.parseLong(staleRoom.getValue());
+                try {
+                    redrive(roomId);
+                    RedisUtils.zRemoveIfScore(getPendingKey(), staleRoom.getValue(), staleRoom.getScore().longValue());
+                } catch (Exception e) {
+                    log.error("会话补偿失败，下一轮重试 roomId:{}", roomId, e);
+                }
+            }
+        } catch (Exception e) {
+            log.error("会话补偿失败", e);
+        } finally {
+            if (lock.isHeldByCurrentThread()) {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void redrive(Long roomId) {
+        Room room = roomDao.getById(roomId);
+        if (Objects.isNull(room) || Objects.isNull(room.getLastMsgId()) || room.isHotRoom()) {
+            return;
+        }
+        List<Long> memberUidList = getMemberUidList(room);
+        if (CollUtil.isEmpty(memberUidList)) {
+            return;
+        }
+        log.info("会话补偿 roomId:{} msgId:{}", roomId, room.getLastMsgId());
+        write(new RoomActive(roomId, memberUidList, room.getLastMsgId(), room.getActiveTime(), 0, 0L)).join();
+    }
+
+    private List<Long> getMemberUidList(Room room) {
+        if (room.isRoomGroup()) {
+            return groupMemberCache.getMemberUidList(room.getId());
+        }
+        if (room.isRoomFriend()) {
+            RoomFriend roomFriend = roomFriendDao.getByRoomId(room.getId());
+            return Objects.isNull(roomFriend) ? Collections.emptyList() : Arrays.asList(roomFriend.getUid1(), roomFriend.getUid2());
+        }
+        return Collections.emptyList();
+    }
+
+    private CompletableFuture<Void> write(RoomActive active) {
+        List<Long> uidList = active.getMemberUidList().stream().sorted().collect(Collectors.toList());
+        int chunkSize = contactInboxProperties.getChunkSize();
+        if (uidList.size() <= chunkSize) {//单聊和小群不切线程
+            try {
+                contactDao.refreshOrCreateActiveTime(active.getRoomId(), uidList, active.getMsgId(), active.getActiveTime());
+                return CompletableFuture.completedFuture(null);
+            } catch (Exception e) {
+                CompletableFuture<Void> failed = new CompletableFuture<>();
+                failed.completeExceptionally(e);
+                return failed;
+            }
+        }
+        //按uid排好序再切，每条语句加锁的顺序一致
+        List<CompletableFuture<Void>> futures = CollUtil.split(uidList, chunkSize).stream()
+                .map(chunk -> CompletableFuture.runAsync(() ->
+                        contactDao.refreshOrCreateActiveTime(active.getRoomId(), chunk, active.getMsgId(), active.getActiveTime()), contactInboxExecutor))
+                .collect(Collectors.toList());
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]));
+    }
+
+    /**
+     * 未读数只加一次，不跟着会话写入重试；加失败就删掉这些计数，查询时回库里对账
+     */
+    private void incrUnread(Long roomId, List<Long> uidList, Long msgId) {
+        try {
+            unreadCountCache.incr(roomId, uidList, msgId);
+        } catch (Exception e) {
+            log.error("未读数累加失败 roomId:{}", roomId, e);
+            try {
+                unreadCountCache.evict(roomId, uidList);
+            } catch (Exception ex) {
+                log.error("未读数清除失败 roomId:{}", roomId, ex);
+            }
+        }
+    }
+
+    private static String getPendingKey() {
+        return RedisKey.getKey(RedisKey.CONTACT_INBOX_PENDING_ZSET);
+    }
+
+    @Getter
+    @AllArgsConstructor
+    private static class RoomActive {
+        private final Long roomId;
+        private final List<Long> memberUidList;
+        private final Long msgId;
+        private final Date activeTime;
+        private final int retry;
+        /**
+         * 在redis登记时的时间，写完后按它移除登记，0表示没有登记
+         */
+        private final long mark;
+
+        /**
+         * 同一个房间取消息id更大的那条，成员列表也以它为准，登记取最新的
+         */
+        static RoomActive latest(RoomActive a, RoomActive b) {
+            RoomActive latest = a.getMsgId() >= b.getMsgId() ? a : b;
+            return new RoomActive(latest.roomId, latest.memberUidList, latest.msgId, latest.activeTime,
+                    Math.max(a.retry, b.retry), Math.max(a.mark, b.mark));
+        }
+
+        RoomActive retry() {
+            return new RoomActive(roomId, memberUidList, msgId, activeTime, retry + 1, mark);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.abin.mallchat.common.chat.service.impl;
+
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Description: 会话列表组装各阶段耗时分布，开启spring.jmx.enabled后可通过jmx查看
+ * Author: <a href="https://github.com/zongzibinbin">abin</a>
+ * Date: 2023-10-18
+ */
+@Component
+@ManagedResource(objectName = "mallchat:name=contactLoadMetrics")
+public class ContactLoadMetrics {
+    /**
+     * 耗时分布的桶上界(ms)，最后一个桶放超过上界的
+     */
+    private static final long[] LATENCY_BUCKETS = {5, 10, 25, 50, 100, 250, 500, 1000};
+
+    public enum Stage {
+        /**
+         * 房间基础信息
+         */
+        ROOM,
+        /**
+         * 群名称头像
+         */
+        GROUP,
+        /**
+         * 单聊好友信息
+         */
+        FRIEND,
+        /**
+         * 最后一条消息摘要
+         */
+        LAST_MSG,
+        /**
+         * 未读数
+         */
+        UNREAD,
+        /**
+         * 整体耗时
+         */
+        TOTAL,
+    }
+
+    private final LongAdder[][] latency = new LongAdder[Stage.values().length][LATENCY_BUCKETS.length + 1];
+    private final LongAdder[] count = new LongAdder[Stage.values().length];
+    private final LongAdder[] totalCostMillis = new LongAdder[Stage.values().length];
+    private final LongAccumulator[] maxCostMillis = new LongAccumulator[Stage.values().length];
+
+    public ContactLoadMetrics() {
+        for (int s = 0; s < latency.length; s++) {
+            for (int i = 0; i < latency[s].length; i++) {
+                latency[s][i] = new LongAdder();
+            }
+            count[s] = new LongAdder();
+            totalCostMillis[s] = new LongAdder();
+            maxCostMillis[s] = new LongAccumulator(Math::max, 0);
+        }
+    }
+
+    public void record(Stage stage, long costMillis) {
+        int s = stage.ordinal();
+        count[s].increment();
+        totalCostMillis[s].add(costMillis);
+        maxCostMillis[s].accumulate(costMillis);
+        int i = 0;
+        while (i < LATENCY_BUCKETS.length && costMillis > LATENCY_BUCKETS[i]) {
+            i++;
+        }
+        latency[s][i].increment();
+    }
+
+    @ManagedAttribute
+    public long getCount() {
+        return count[Stage.TOTAL.ordinal()].sum();
+    }
+
+    @ManagedAttribute
+    public Map<String, Long> getAvgCostMillis() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (Stage stage : Stage.values()) {
+            long c = count[stage.ordinal()].sum();
+            result.put(stage.name(), c == 0 ? 0 : totalCostMillis[stage.ordinal()].sum() / c);
+        }
+        return result;
+    }
+
+    @ManagedAttribute
+    public Map<String, Long> getMaxCostMillis() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (Stage stage : Stage.values()) {
+            result.put(stage.name(), maxCostMillis[stage.ordinal()].get());
+        }
+        return result;
+    }
+
+    /**
+     * 各阶段p99落在的桶上界，用来看哪一路拖慢了整体，超过最大桶的记为-1
+     */
+    @ManagedAttribute
+    public Map<String, Long> getP99Millis() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (Stage stage : Stage.values()) {
+            result.put(stage.name(), percentile(stage, 0.99));
+        }
+        return result;
+    }
+
+    @ManagedAttribute
+    public Map<String, Long> getRoomLatency() {
+        return getLatency(Stage.ROOM);
+    }
+
+    @ManagedAttribute
+    public Map<String, Long> getGroupLatency() {
+        return getLatency(Stage.GROUP);
+    }
+
+    @ManagedAttribute
+    public Map<String, Long> getFriendLatency() {
+        return getLatency(Stage.FRIEND);
+    }
+
+    @ManagedAttribute
+    public Map<String, Long> getLastMsgLatency() {
+        return getLatency(Stage.LAST_MSG);
+    }
+
+    @ManagedAttribute
+    public Map<String, Long> getUnreadLatency() {
+        return getLatency(Stage.UNREAD);
+    }
+
+    @ManagedAttribute
+    public Map<String, Long> getTotalLatency() {
+        return getLatency(Stage.TOTAL);
+    }
+
+    long percentile(Stage stage, double ratio) {
+        LongAdder[] buckets = latency[stage.ordinal()];
+        long total = 0;
+        for (LongAdder bucket : buckets) {
+            total += bucket.sum();
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long threshold = (long) Math.ceil(total * ratio);
+        long seen = 0;
+        for (int i = 0; i < LATENCY_BUCKETS.length; i++) {
+            seen += buckets[i].sum();
+            if (seen >= threshold) {
+                return LATENCY_BUCKETS[i];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 某阶段耗时分布，key为桶上界
+     */
+    private Map<String, Long> getLatency(Stage stage) {
+        LongAdder[] buckets = latency[stage.ordinal()];
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (int i = 0; i < LATENCY_BUCKETS.length; i++) {
+            result.put("<=" + LATENCY_BUCKETS[i] + "ms", buckets[i].sum());
+        }
+        result.put(">" + LATENCY_BUCKETS[LATENCY_BUCKETS.length - 1] + "ms", buckets[LATENCY_BUCKETS.length].sum());
+        return result;
+    }
+}
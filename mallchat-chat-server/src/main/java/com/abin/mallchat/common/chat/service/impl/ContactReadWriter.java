@@ -0,0 +1,197 @@
+package com.abin.mallchat.common.chat.service.impl;
+
+import cn.hutool.core.collection.CollUtil;
+import cn.hutool.core.thread.NamedThreadFactory;
+import com.abin.mallchat.common.chat.dao.ContactDao;
+import com.abin.mallchat.common.chat.domain.entity.Contact;
+import com.abin.mallchat.common.common.config.ContactInboxProperties;
+import com.abin.mallchat.common.common.constant.RedisKey;
+import com.abin.mallchat.common.common.factory.MyThreadFactory;
+import com.abin.mallchat.common.common.utils.RedisUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Description: 会话已读时间的延迟写入。
+ * 前端每次切换、滚动会话都会上报已读，这里先记到redis（每个房间一个hash，field为uid，后写的覆盖先写的），
+ * 再由后台每隔readFlushMillis批量upsert到contact.read_time，集群内同一时刻只有一个节点在刷。
+ * 需要已读时间的地方用getPending把还没落库的值叠加上去。
+ * Author: <a href="https://github.com/zongzibinbin">abin</a>
+ * Date: 2023-10-18
+ */
+@Slf4j
+@Component
+public class ContactReadWriter {
+    /**
+     * 每轮最多处理的房间数
+     */
+    private static final int ROOMS_PER_ROUND = 200;
+    /**
+     * 一次flush最多跑的轮数，剩下的留给下一次
+     */
+    private static final int MAX_ROUNDS = 50;
+    /**
+     * 一条upsert最多带的会话数
+     */
+    private static final int BATCH_SIZE = 500;
+
+    @Autowired
+    private ContactDao contactDao;
+    @Autowired
+    private RedissonClient redissonClient;
+    @Autowired
+    private ContactInboxProperties contactInboxProperties;
+
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(new MyThreadFactory(new NamedThreadFactory("contact-read-flush-", true)));
+        long interval = contactInboxProperties.getReadFlushMillis();
+        scheduler.scheduleWithFixedDelay(this::flush, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        scheduler.shutdown();
+        flush();
+    }
+
+    /**
+     * 记录已读时间，只写redis
+     */
+    public void markRead(Long uid, Long roomId, Date readTime) {
+        RedisUtils.hsetAndIndex(getKey(roomId), String.valueOf(uid), String.valueOf(readTime.getTime()),
+                RedisKey.getKey(RedisKey.CONTACT_READ_ROOM_SET), String.valueOf(roomId));
+    }
+
+    /**
+     * 用户在这些房间还没落库的已读时间
+     */
+    public Map<Long, Date> getPending(Long uid, List<Long> roomIds) {
+        List<String> keys = roomIds.stream().map(ContactReadWriter::getKey).collect(Collectors.toList());
+        List<String> values = RedisUtils.hgetBatch(keys, String.valueOf(uid));
+        Map<Long, Date> result = new HashMap<>();
+        for (int i = 0; i < roomIds.size(); i++) {
+            if (Objects.nonNull(values.get(i))) {
+                result.put(roomIds.get(i), new Date(Long.parseLong(values.get(i))));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 房间里所有还没落库的已读时间，key为uid
+     */
+    public Map<Long, Date> getPending(Long roomId) {
+        return RedisUtils.hmget(getKey(roomId)).entrySet().stream()
+                .collect(Collectors.toMap(e -> Long.parseLong(e.getKey().toString()), e -> new Date(Long.parseLong(e.getValue().toString()))));
+    }
+
+    /**
+     * 把房间还没落库的已读时间叠加到会话上，库里还没有的会话补进去
+     */
+    public List<Contact> applyPending(Long roomId, List<Contact> contacts) {
+        Map<Long, Date> pending = getPending(roomId);
+        if (pending.isEmpty()) {
+            return contacts;
+        }
+        Map<Long, Contact> contactMap = contacts.stream().collect(Collectors.toMap(Contact::getUid, Function.identity(), (a, b) -> a));
+        List<Contact> result = new ArrayList<>(contacts);
+        pending.forEach((uid, readTime) -> {
+            Contact contact = contactMap.get(uid);
+            if (Objects.isNull(contact)) {
+                result.add(buildContact(uid, roomId, readTime));
+            } else if (Objects.isNull(contact.getReadTime()) || contact.getReadTime().before(readTime)) {
+                contact.setReadTime(readTime);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * 把redis里的已读时间刷到库里，拿不到锁说明别的节点在刷
+     */
+    public void flush() {
+        RLock lock = redissonClient.getLock(RedisKey.getKey(RedisKey.CONTACT_READ_ROOM_SET) + ":lock");
+        try {
+            if (!lock.tryLock()) {
+                return;
+            }
+        } catch (Exception e) {
+            log.error("已读时间刷库获取锁失败", e);
+            return;
+        }
+        try {
+            for (int round = 0; round < MAX_ROUNDS; round++) {
+                Set<String> roomIds = RedisUtils.sRandomMembers(RedisKey.getKey(RedisKey.CONTACT_READ_ROOM_SET), ROOMS_PER_ROUND);
+                if (CollUtil.isEmpty(roomIds)) {
+                    return;
+                }
+                flushRooms(roomIds.stream().map(Long::parseLong).collect(Collectors.toList()));
+            }
+        } catch (Exception e) {
+            log.error("已读时间刷库失败，下次重试", e);
+        } finally {
+            if (lock.isHeldByCurrentThread()) {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void flushRooms(List<Long> roomIds) {
+        Map<Long, Map<Object, Object>> roomPending = new HashMap<>();
+        List<Contact> contacts = new ArrayList<>();
+        for (Long roomId : roomIds) {
+            Map<Object, Object> pending = RedisUtils.hmget(getKey(roomId));
+            roomPending.put(roomId, pending);
+            pending.forEach((uid, readTime) -> contacts.add(buildContact(Long.parseLong(uid.toString()), roomId, new Date(Long.parseLong(readTime.toString())))));
+        }
+        for (List<Contact> batch : CollUtil.split(contacts, BATCH_SIZE)) {
+            contactDao.refreshReadTime(batch);
+        }
+        //落库后只删值没变过的，期间又上报过的留给下一次
+        String setKey = RedisKey.getKey(RedisKey.CONTACT_READ_ROOM_SET);
+        roomPending.forEach((roomId, pending) -> {
+            if (!pending.isEmpty()) {
+                Map<String, String> items = pending.entrySet().stream().collect(Collectors.toMap(e -> e.getKey().toString(), e -> e.getValue().toString()));
+                RedisUtils.hdelIfEquals(getKey(roomId), items);
+            }
+            //先移出索引再检查，检查之后新写入的会自己加回索引
+            RedisUtils.setRemove(setKey, String.valueOf(roomId));
+            if (RedisUtils.hasKey(getKey(roomId))) {
+                RedisUtils.sSet(setKey, roomId);
+            }
+        });
+    }
+
+    private static Contact buildContact(Long uid, Long roomId, Date readTime) {
+        Contact contact = new Contact();
+        contact.setUid(uid);
+        contact.setRoomId(roomId);
+        contact.setReadTime(readTime);
+        return contact;
+    }
+
+    private static String getKey(Long roomId) {
+        return RedisKey.getKey(RedisKey.CONTACT_READ_PENDING_HASH, roomId);
+    }
+}
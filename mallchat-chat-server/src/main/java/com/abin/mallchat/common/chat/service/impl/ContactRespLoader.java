@@ -0,0 +1,203 @@
+package com.abin.mallchat.common.chat.service.impl;
+
+import cn.hutool.core.collection.CollectionUtil;
+import cn.hutool.core.util.StrUtil;
+import com.abin.mallchat.common.chat.dao.ContactDao;
+import com.abin.mallchat.common.chat.dao.MessageDao;
+import com.abin.mallchat.common.chat.domain.dto.LastMsgDigest;
+import com.abin.mallchat.common.chat.domain.dto.RoomBaseInfo;
+import com.abin.mallchat.common.chat.domain.dto.UnreadCountDTO;
+import com.abin.mallchat.common.chat.domain.entity.*;
+import com.abin.mallchat.common.chat.domain.enums.RoomTypeEnum;
+import com.abin.mallchat.common.chat.domain.vo.response.ChatRoomResp;
+import com.abin.mallchat.common.chat.service.adapter.ChatAdapter;
+import com.abin.mallchat.common.chat.service.cache.LastMsgDigestCache;
+import com.abin.mallchat.common.chat.service.cache.RoomCache;
+import com.abin.mallchat.common.chat.service.cache.RoomFriendCache;
+import com.abin.mallchat.common.chat.service.cache.RoomGroupCache;
+import com.abin.mallchat.common.chat.service.cache.UnreadCountCache;
+import com.abin.mallchat.common.chat.service.impl.ContactLoadMetrics.Stage;
+import com.abin.mallchat.common.common.config.ThreadPoolConfig;
+import com.abin.mallchat.common.user.domain.entity.User;
+import com.abin.mallchat.common.user.service.cache.UserInfoCache;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Description: 会话列表组装。
+ * 房间信息拿到后，群信息、好友信息、最后一条消息摘要、未读数几路互不依赖，原来串行查一次要走六七次redis和db。
+ * 这里在房间信息之后把几路并发发出去，最后在请求线程里合并。每一路的耗时都记到ContactLoadMetrics里
+ * Author: <a href="https://github.com/zongzibinbin">abin</a>
+ * Date: 2023-10-18
+ */
+@Slf4j
+@Component
+public class ContactRespLoader {
+    @Autowired
+    @Qualifier(ThreadPoolConfig.CONTACT_LOAD_EXECUTOR)
+    private ThreadPoolTaskExecutor contactLoadExecutor;
+    @Autowired
+    private ContactLoadMetrics contactLoadMetrics;
+    @Autowired
+    private RoomCache roomCache;
+    @Autowired
+    private RoomGroupCache roomGroupCache;
+    @Autowired
+    private RoomFriendCache roomFriendCache;
+    @Autowired
+    private UserInfoCache userInfoCache;
+    @Autowired
+    private MessageDao messageDao;
+    @Autowired
+    private LastMsgDigestCache lastMsgDigestCache;
+    @Autowired
+    private ContactDao contactDao;
+    @Autowired
+    private UnreadCountCache unreadCountCache;
+    @Autowired
+    private ContactReadWriter contactReadWriter;
+
+    public List<ChatRoomResp> load(Long uid, List<Long> roomIds) {
+        long start = System.currentTimeMillis();
+        Map<Long, Room> roomMap = timed(Stage.ROOM, () -> roomCache.getBatch(roomIds));
+        // 房间根据好友和群组类型分组
+        Map<Integer, List<Long>> groupRoomIdMap = roomMap.values().stream().collect(Collectors.groupingBy(Room::getType,
+                Collectors.mapping(Room::getId, Collectors.toList())));
+        List<Long> groupRoomIds = groupRoomIdMap.get(RoomTypeEnum.GROUP.getType());
+        List<Long> friendRoomIds = groupRoomIdMap.get(RoomTypeEnum.FRIEND.getType());
+        // 剩下几路并发查
+        CompletableFuture<Map<Long, RoomGroup>> groupFuture = supplyAsync(Stage.GROUP, () -> roomGroupCache.getBatch(groupRoomIds));
+        CompletableFuture<Map<Long, User>> friendFuture = supplyAsync(Stage.FRIEND, () -> getFriendRoomMap(friendRoomIds, uid));
+        CompletableFuture<Map<Long, Integer>> unreadFuture = supplyAsync(Stage.UNREAD, () -> getUnReadCountMap(uid, roomIds, roomMap));
+        CompletableFuture<Map<Long, LastMsgDigest>> digestFuture = supplyAsync(Stage.LAST_MSG, () -> lastMsgDigestCache.getBatch(new ArrayList<>(roomMap.keySet())));
+        join(CompletableFuture.allOf(groupFuture, friendFuture, unreadFuture, digestFuture));
+        Map<Long, RoomGroup> roomGroupMap = groupFuture.join();
+        Map<Long, User> friendRoomMap = friendFuture.join();
+        Map<Long, Integer> unReadCountMap = unreadFuture.join();
+        Map<Long, LastMsgDigest> digestMap = digestFuture.join();
+        // 合并
+        List<ChatRoomResp> result = roomMap.values().stream().map(room -> {
+                    RoomBaseInfo roomBaseInfo = buildRoomBaseInfo(room, roomGroupMap, friendRoomMap);
+                    ChatRoomResp resp = new ChatRoomResp();
+                    resp.setAvatar(roomBaseInfo.getAvatar());
+                    resp.setRoomId(roomBaseInfo.getRoomId());
+                    resp.setActiveTime(roomBaseInfo.getActiveTime());
+                    resp.setHot_Flag(roomBaseInfo.getHotFlag());
+                    resp.setType(roomBaseInfo.getType());
+                    resp.setName(roomBaseInfo.getName());
+                    LastMsgDigest digest = digestMap.get(roomBaseInfo.getRoomId());
+                    if (Objects.nonNull(digest)) {
+                        resp.setText(StrUtil.isBlank(digest.getSenderName()) ? digest.getText() : digest.getSenderName() + ":" + digest.getText());
+                    }
+                    resp.setUnreadCount(unReadCountMap.getOrDefault(roomBaseInfo.getRoomId(), 0));
+                    return resp;
+                }).sorted(Comparator.comparing(ChatRoomResp::getActiveTime).reversed())
+                .collect(Collectors.toList());
+        contactLoadMetrics.record(Stage.TOTAL, System.currentTimeMillis() - start);
+        return result;
+    }
+
+    private RoomBaseInfo buildRoomBaseInfo(Room room, Map<Long, RoomGroup> roomGroupMap, Map<Long, User> friendRoomMap) {
+        RoomBaseInfo roomBaseInfo = new RoomBaseInfo();
+        roomBaseInfo.setRoomId(room.getId());
+        roomBaseInfo.setType(room.getType());
+        roomBaseInfo.setHotFlag(room.getHotFlag());
+        roomBaseInfo.setLastMsgId(room.getLastMsgId());
+        roomBaseInfo.setActiveTime(room.getActiveTime());
+        if (RoomTypeEnum.of(room.getType()) == RoomTypeEnum.GROUP) {
+            RoomGroup roomGroup = roomGroupMap.get(room.getId());
+            roomBaseInfo.setName(roomGroup.getName());
+            roomBaseInfo.setAvatar(roomGroup.getAvatar());
+        } else if (RoomTypeEnum.of(room.getType()) == RoomTypeEnum.FRIEND) {
+            User user = friendRoomMap.get(room.getId());
+            roomBaseInfo.setName(user.getName());
+            roomBaseInfo.setAvatar(user.getAvatar());
+        }
+        return roomBaseInfo;
+    }
+
+    private Map<Long, User> getFriendRoomMap(List<Long> roomIds, Long uid) {
+        if (CollectionUtil.isEmpty(roomIds)) {
+            return new HashMap<>();
+        }
+        Map<Long, RoomFriend> roomFriendMap = roomFriendCache.getBatch(roomIds);
+        Set<Long> friendUidSet = ChatAdapter.getFriendUidSet(roomFriendMap.values(), uid);
+        Map<Long, User> userBatch = userInfoCache.getBatch(new ArrayList<>(friendUidSet));
+        return roomFriendMap.values()
+                .stream()
+                .collect(Collectors.toMap(RoomFriend::getRoomId, roomFriend -> {
+                    Long friendUid = ChatAdapter.getFriendUid(roomFriend, uid);
+                    return userBatch.get(friendUid);
+                }));
+    }
+
+    /**
+     * 获取未读数
+     */
+    private Map<Long, Integer> getUnReadCountMap(Long uid, List<Long> roomIds, Map<Long, Room> roomMap) {
+        if (Objects.isNull(uid) || CollectionUtil.isEmpty(roomIds)) {
+            return new HashMap<>();
+        }
+        //普通会话优先用redis里的计数，一次取完
+        List<Long> countRoomIds = roomIds.stream()
+                .filter(roomId -> Objects.nonNull(roomMap.get(roomId)) && !roomMap.get(roomId).isHotRoom())
+                .collect(Collectors.toList());
+        Map<Long, Integer> unReadCountMap = countRoomIds.isEmpty() ? new HashMap<>() : unreadCountCache.getBatch(uid, countRoomIds);
+        List<Long> missRoomIds = roomIds.stream().filter(roomId -> !unReadCountMap.containsKey(roomId)).collect(Collectors.toList());
+        if (missRoomIds.isEmpty()) {
+            return unReadCountMap;
+        }
+        //热门群聊和没有计数的会话一条sql回库里count，普通会话顺带把计数补上
+        Set<Long> countRoomIdSet = new HashSet<>(countRoomIds);
+        Map<Long, Date> pendingReadTime = contactReadWriter.getPending(uid, missRoomIds);
+        List<Contact> contacts = contactDao.getByRoomIds(missRoomIds, uid);
+        contacts.forEach(contact -> contact.setReadTime(pendingReadTime.getOrDefault(contact.getRoomId(), contact.getReadTime())));
+        List<UnreadCountDTO> counts = messageDao.countUnreadBatch(contacts);
+        counts.forEach(count -> unReadCountMap.put(count.getRoomId(), count.getUnreadCount()));
+        //房间表里的最新消息已经提交过，水位线至少到它
+        Map<Long, Long> lastMsgIdMap = new HashMap<>();
+        roomMap.forEach((roomId, room) -> {
+            if (Objects.nonNull(room.getLastMsgId())) {
+                lastMsgIdMap.put(roomId, room.getLastMsgId());
+            }
+        });
+        unreadCountCache.init(uid, counts.stream().filter(count -> countRoomIdSet.contains(count.getRoomId())).collect(Collectors.toList()), lastMsgIdMap);
+        return unReadCountMap;
+    }
+
+    private <T> CompletableFuture<T> supplyAsync(Stage stage, Supplier<T> supplier) {
+        return CompletableFuture.supplyAsync(() -> timed(stage, supplier), contactLoadExecutor);
+    }
+
+    private <T> T timed(Stage stage, Supplier<T> supplier) {
+        long start = System.currentTimeMillis();
+        try {
+            return supplier.get();
+        } finally {
+            contactLoadMetrics.record(stage, System.currentTimeMillis() - start);
+        }
+    }
+
+    /**
+     * 等所有分支结束，分支里的业务异常原样抛给调用方
+     */
+    private void join(CompletableFuture<Void> future) {
+        try {
+            future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
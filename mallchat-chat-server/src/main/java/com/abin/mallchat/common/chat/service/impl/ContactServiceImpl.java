@@ -7,6 +7,7 @@ import com.abin.mallchat.common.chat.domain.entity.Contact;
 import com.abin.mallchat.common.chat.domain.entity.Message;
 import com.abin.mallchat.common.chat.service.ContactService;
 import com.abin.mallchat.common.chat.service.adapter.ChatAdapter;
+import com.abin.mallchat.common.chat.service.helper.MsgReadCounter;
 import com.abin.mallchat.common.common.utils.AssertUtil;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -14,6 +15,7 @@ import org.springframework.stereotype.Service;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -29,6 +31,8 @@ public class ContactServiceImpl implements ContactService {
     private ContactDao contactDao;
     @Autowired
     private MessageDao messageDao;
+    @Autowired
+    private ContactReadWriter contactReadWriter;
 
     @Override
     public Contact createContact(Long uid, Long roomId) {
@@ -55,11 +59,15 @@ public class ContactServiceImpl implements ContactService {
         Map<Long, List<Message>> roomGroup = messages.stream().collect(Collectors.groupingBy(Message::getRoomId));
         AssertUtil.equal(roomGroup.size(), 1, "只能查相同房间下的消息");
         Long roomId = roomGroup.keySet().iterator().next();
-        Integer totalCount = contactDao.getTotalCount(roomId);
+        //房间的已读时间只查一次，叠加上还没落库的，每条消息二分出已读数
+        Set<Long> senderUids = messages.stream().map(Message::getFromUid).collect(Collectors.toSet());
+        List<Contact> contacts = contactReadWriter.applyPending(roomId, contactDao.getReadTimeList(roomId));
+        MsgReadCounter readCounter = new MsgReadCounter(contacts, senderUids);
+        int totalCount = readCounter.getTotalCount();
         return messages.stream().map(message -> {
             MsgReadInfoDTO readInfoDTO = new MsgReadInfoDTO();
             readInfoDTO.setMsgId(message.getId());
-            Integer readCount = contactDao.getReadCount(message);
+            int readCount = readCounter.getReadCount(message);
             readInfoDTO.setReadCount(readCount);
             readInfoDTO.setUnReadCount(totalCount - readCount - 1);
             return readInfoDTO;
@@ -0,0 +1,158 @@
+package com.abin.mallchat.common.chat.service.impl;
+
+import cn.hutool.core.util.StrUtil;
+import com.abin.mallchat.common.chat.dao.MessageDao;
+import com.abin.mallchat.common.chat.domain.entity.Message;
+import com.abin.mallchat.common.common.config.ThreadPoolConfig;
+import com.abin.mallchat.common.common.domain.vo.request.CursorPageBaseReq;
+import com.abin.mallchat.common.common.domain.vo.response.CursorPageBaseResp;
+import com.abin.mallchat.common.common.service.cache.NearCacheManager;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Description: 房间历史消息翻页。
+ * 客户端看历史消息基本是一页接一页往上翻，返回一页后顺手把下一页异步查好，放在本地短时缓存里，下次带着游标来直接拿。
+ * 预取的页只用一次，撤回和拉黑时通过本地缓存的失效广播清掉所有节点的，广播丢了最多也只会旧几秒
+ * Author: <a href="https://github.com/zongzibinbin">abin</a>
+ * Date: 2023-10-18
+ */
+@Slf4j
+@Component
+public class MsgHistoryReader {
+    /**
+     * 预取结果的存活时间，超过还没来翻页就丢掉
+     */
+    private static final long PREFETCH_SECONDS = 10;
+    private static final long PREFETCH_MAX_SIZE = 10000;
+    /**
+     * 失效广播里的名字
+     */
+    private static final String EVICT_NAME = "msgHistoryPrefetch";
+    /**
+     * 失效广播里表示全部清掉的标记
+     */
+    private static final String EVICT_ALL = "*";
+
+    private final Cache<String, CompletableFuture<CursorPageBaseResp<Message>>> prefetched = Caffeine.newBuilder()
+            .expireAfterWrite(PREFETCH_SECONDS, TimeUnit.SECONDS)
+            .maximumSize(PREFETCH_MAX_SIZE)
+            .build();
+
+    @Autowired
+    private MessageDao messageDao;
+    @Autowired
+    @Qualifier(ThreadPoolConfig.MSG_PREFETCH_EXECUTOR)
+    private ThreadPoolTaskExecutor msgPrefetchExecutor;
+    @Autowired
+    private NearCacheManager nearCacheManager;
+
+    @PostConstruct
+    public void init() {
+        nearCacheManager.registerEvictor(EVICT_NAME, this::evictLocal);
+    }
+
+    public CursorPageBaseResp<Message> getCursorPage(Long roomId, CursorPageBaseReq request, Long lastMsgId) {
+        CursorPageBaseResp<Message> page = getPrefetched(roomId, request, lastMsgId);
+        if (Objects.isNull(page)) {
+            page = messageDao.getCursorPage(roomId, request, lastMsgId);
+        }
+        if (!page.getIsLast()) {
+            prefetchNext(roomId, request.getPageSize(), page.getCursor(), lastMsgId);
+        }
+        return page;
+    }
+
+    /**
+     * 别的地方出了一页（比如首页走了最近消息缓存），也从它的游标开始预取下一页
+     */
+    public void prefetchNext(Long roomId, Integer pageSize, String cursor, Long lastMsgId) {
+        prefetch(roomId, new CursorPageBaseReq(pageSize, cursor), lastMsgId);
+    }
+
+    /**
+     * 房间消息有变化（撤回），清掉已经预取的页
+     */
+    public void evictRoom(Long roomId) {
+        evict(Collections.singletonList(String.valueOf(roomId)));
+    }
+
+    /**
+     * 跨房间的变化（拉黑后删掉用户所有消息），全部清掉
+     */
+    public void evictAll() {
+        evict(Collections.singletonList(EVICT_ALL));
+    }
+
+    /**
+     * 本节点马上清，其他节点等广播
+     */
+    private void evict(List<String> roomIds) {
+        evictLocal(roomIds);
+        nearCacheManager.broadcastEvict(EVICT_NAME, roomIds);
+    }
+
+    /**
+     * 只清本地预取的页
+     */
+    private void evictLocal(List<String> roomIds) {
+        if (roomIds.contains(EVICT_ALL)) {
+            prefetched.invalidateAll();
+            return;
+        }
+        for (String roomId : roomIds) {
+            String prefix = roomId + ":";
+            prefetched.asMap().keySet().removeIf(key -> key.startsWith(prefix));
+        }
+    }
+
+    private CursorPageBaseResp<Message> getPrefetched(Long roomId, CursorPageBaseReq request, Long lastMsgId) {
+        if (StrUtil.isBlank(request.getCursor())) {
+            return null;
+        }
+        CompletableFuture<CursorPageBaseResp<Message>> future = prefetched.asMap().remove(getKey(roomId, request, lastMsgId));
+        if (Objects.isNull(future)) {
+            return null;
+        }
+        try {
+            //预取还没查完就等它，不再重复查一遍
+            return future.join();
+        } catch (Exception e) {
+            log.warn("msg page prefetch failed, roomId:{}", roomId, e);
+            return null;
+        }
+    }
+
+    private void prefetch(Long roomId, CursorPageBaseReq next, Long lastMsgId) {
+        String key = getKey(roomId, next, lastMsgId);
+        if (prefetched.asMap().containsKey(key)) {
+            return;
+        }
+        try {
+            prefetched.put(key, CompletableFuture.supplyAsync(() -> messageDao.getCursorPage(roomId, next, lastMsgId), msgPrefetchExecutor));
+        } catch (RejectedExecutionException e) {
+            //线程池满了就不预取，下一页照常查库
+            log.debug("msg page prefetch rejected, roomId:{}", roomId);
+        }
+    }
+
+    /**
+     * 被踢出群的人lastMsgId不同，看到的页也不同，要算进key里
+     */
+    private static String getKey(Long roomId, CursorPageBaseReq request, Long lastMsgId) {
+        return roomId + ":" + request.getCursor() + ":" + request.getPageSize() + ":" + lastMsgId;
+    }
+}
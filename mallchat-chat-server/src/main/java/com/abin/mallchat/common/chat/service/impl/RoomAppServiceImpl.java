@@ -4,13 +4,10 @@ import cn.hutool.core.collection.CollectionUtil;
 import cn.hutool.core.lang.Pair;
 import com.abin.mallchat.common.chat.dao.ContactDao;
 import com.abin.mallchat.common.chat.dao.GroupMemberDao;
-import com.abin.mallchat.common.chat.dao.MessageDao;
-import com.abin.mallchat.common.chat.domain.dto.RoomBaseInfo;
 import com.abin.mallchat.common.chat.domain.entity.*;
 import com.abin.mallchat.common.chat.domain.enums.GroupRoleAPPEnum;
 import com.abin.mallchat.common.chat.domain.enums.GroupRoleEnum;
 import com.abin.mallchat.common.chat.domain.enums.HotFlagEnum;
-import com.abin.mallchat.common.chat.domain.enums.RoomTypeEnum;
 import com.abin.mallchat.common.chat.domain.vo.request.*;
 import com.abin.mallchat.common.chat.domain.vo.response.ChatMemberListResp;
 import com.abin.mallchat.common.chat.domain.vo.response.ChatRoomResp;
@@ -18,12 +15,9 @@ import com.abin.mallchat.common.chat.domain.vo.response.MemberResp;
 import com.abin.mallchat.common.chat.service.ChatService;
 import com.abin.mallchat.common.chat.service.RoomAppService;
 import com.abin.mallchat.common.chat.service.RoomService;
-import com.abin.mallchat.common.chat.service.adapter.ChatAdapter;
 import com.abin.mallchat.common.chat.service.adapter.MemberAdapter;
 import com.abin.mallchat.common.chat.service.adapter.RoomAdapter;
 import com.abin.mallchat.common.chat.service.cache.*;
-import com.abin.mallchat.common.chat.service.strategy.msg.AbstractMsgHandler;
-import com.abin.mallchat.common.chat.service.strategy.msg.MsgHandlerFactory;
 import com.abin.mallchat.common.common.annotation.RedissonLock;
 import com.abin.mallchat.common.common.domain.vo.request.CursorPageBaseReq;
 import com.abin.mallchat.common.common.domain.vo.response.CursorPageBaseResp;
@@ -68,12 +62,8 @@ public class RoomAppServiceImpl implements RoomAppService {
     @Autowired
     private RoomGroupCache roomGroupCache;
     @Autowired
-    private RoomFriendCache roomFriendCache;
-    @Autowired
     private UserInfoCache userInfoCache;
     @Autowired
-    private MessageDao messageDao;
-    @Autowired
     private HotRoomCache hotRoomCache;
     @Autowired
     private UserCache userCache;
@@ -93,6 +83,8 @@ public class RoomAppServiceImpl implements RoomAppService {
     private GroupMemberCache groupMemberCache;
     @Autowired
     private PushService pushService;
+    @Autowired
+    private ContactRespLoader contactRespLoader;
 
     @Override
     public CursorPageBaseResp<ChatRoomResp> getContactPage(CursorPageBaseReq request, Long uid) {
@@ -305,93 +297,8 @@ public class RoomAppServiceImpl implements RoomAppService {
 
     @NotNull
     private List<ChatRoomResp> buildContactResp(Long uid, List<Long> roomIds) {
-        // 表情和头像
-        Map<Long, RoomBaseInfo> roomBaseInfoMap = getRoomBaseInfoMap(roomIds, uid);
-        // 最后一条消息
-        List<Long> msgIds = roomBaseInfoMap.values().stream().map(RoomBaseInfo::getLastMsgId).collect(Collectors.toList());
-        List<Message> messages = CollectionUtil.isEmpty(msgIds) ? new ArrayList<>() : messageDao.listByIds(msgIds);
-        Map<Long, Message> msgMap = messages.stream().collect(Collectors.toMap(Message::getId, Function.identity()));
-        Map<Long, User> lastMsgUidMap = userInfoCache.getBatch(messages.stream().map(Message::getFromUid).collect(Collectors.toList()));
-        // 消息未读数
-        Map<Long, Integer> unReadCountMap = getUnReadCountMap(uid, roomIds);
-        return roomBaseInfoMap.values().stream().map(room -> {
-                    ChatRoomResp resp = new ChatRoomResp();
-                    RoomBaseInfo roomBaseInfo = roomBaseInfoMap.get(room.getRoomId());
-                    resp.setAvatar(roomBaseInfo.getAvatar());
-                    resp.setRoomId(room.getRoomId());
-                    resp.setActiveTime(room.getActiveTime());
-                    resp.setHot_Flag(roomBaseInfo.getHotFlag());
-                    resp.setType(roomBaseInfo.getType());
-                    resp.setName(roomBaseInfo.getName());
-                    Message message = msgMap.get(room.getLastMsgId());
-                    if (Objects.nonNull(message)) {
-                        AbstractMsgHandler strategyNoNull = MsgHandlerFactory.getStrategyNoNull(message.getType());
-                        resp.setText(lastMsgUidMap.get(message.getFromUid()).getName() + ":" + strategyNoNull.showContactMsg(message));
-                    }
-                    resp.setUnreadCount(unReadCountMap.getOrDefault(room.getRoomId(), 0));
-                    return resp;
-                }).sorted(Comparator.comparing(ChatRoomResp::getActiveTime).reversed())
-                .collect(Collectors.toList());
-    }
-
-    /**
-     * 获取未读数
-     */
-    private Map<Long, Integer> getUnReadCountMap(Long uid, List<Long> roomIds) {
-        if (Objects.isNull(uid)) {
-            return new HashMap<>();
-        }
-        List<Contact> contacts = contactDao.getByRoomIds(roomIds, uid);
-        return contacts.parallelStream()
-                .map(contact -> Pair.of(contact.getRoomId(), messageDao.getUnReadCount(contact.getRoomId(), contact.getReadTime())))
-                .collect(Collectors.toMap(Pair::getKey, Pair::getValue));
-    }
-
-    private Map<Long, User> getFriendRoomMap(List<Long> roomIds, Long uid) {
-        if (CollectionUtil.isEmpty(roomIds)) {
-            return new HashMap<>();
-        }
-        Map<Long, RoomFriend> roomFriendMap = roomFriendCache.getBatch(roomIds);
-        Set<Long> friendUidSet = ChatAdapter.getFriendUidSet(roomFriendMap.values(), uid);
-        Map<Long, User> userBatch = userInfoCache.getBatch(new ArrayList<>(friendUidSet));
-        return roomFriendMap.values()
-                .stream()
-                .collect(Collectors.toMap(RoomFriend::getRoomId, roomFriend -> {
-                    Long friendUid = ChatAdapter.getFriendUid(roomFriend, uid);
-                    return userBatch.get(friendUid);
-                }));
-    }
-
-    private Map<Long, RoomBaseInfo> getRoomBaseInfoMap(List<Long> roomIds, Long uid) {
-        Map<Long, Room> roomMap = roomCache.getBatch(roomIds);
-        // 房间根据好友和群组类型分组
-        Map<Integer, List<Long>> groupRoomIdMap = roomMap.values().stream().collect(Collectors.groupingBy(Room::getType,
-                Collectors.mapping(Room::getId, Collectors.toList())));
-        // 获取群组信息
-        List<Long> groupRoomId = groupRoomIdMap.get(RoomTypeEnum.GROUP.getType());
-        Map<Long, RoomGroup> roomInfoBatch = roomGroupCache.getBatch(groupRoomId);
-        // 获取好友信息
-        List<Long> friendRoomId = groupRoomIdMap.get(RoomTypeEnum.FRIEND.getType());
-        Map<Long, User> friendRoomMap = getFriendRoomMap(friendRoomId, uid);
-
-        return roomMap.values().stream().map(room -> {
-            RoomBaseInfo roomBaseInfo = new RoomBaseInfo();
-            roomBaseInfo.setRoomId(room.getId());
-            roomBaseInfo.setType(room.getType());
-            roomBaseInfo.setHotFlag(room.getHotFlag());
-            roomBaseInfo.setLastMsgId(room.getLastMsgId());
-            roomBaseInfo.setActiveTime(room.getActiveTime());
-            if (RoomTypeEnum.of(room.getType()) == RoomTypeEnum.GROUP) {
-                RoomGroup roomGroup = roomInfoBatch.get(room.getId());
-                roomBaseInfo.setName(roomGroup.getName());
-                roomBaseInfo.setAvatar(roomGroup.getAvatar());
-            } else if (RoomTypeEnum.of(room.getType()) == RoomTypeEnum.FRIEND) {
-                User user = friendRoomMap.get(room.getId());
-                roomBaseInfo.setName(user.getName());
-                roomBaseInfo.setAvatar(user.getAvatar());
-            }
-            return roomBaseInfo;
-        }).collect(Collectors.toMap(RoomBaseInfo::getRoomId, Function.identity()));
+        // 名称头像、最后一条消息、未读数等几路并发组装
+        return contactRespLoader.load(uid, roomIds);
     }
 
     private void fillRoomActive(Long uid, Map<Long, Room> roomMap) {
@@ -0,0 +1,159 @@
+package com.abin.mallchat.common.chat.service.impl;
+
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Description: 链接预览统计，开启spring.jmx.enabled后可通过jmx查看
+ * Author: <a href="https://github.com/zongzibinbin">abin</a>
+ * Date: 2023-10-18
+ */
+@Component
+@ManagedResource(objectName = "mallchat:name=urlUnfurlMetrics")
+public class UrlUnfurlMetrics {
+    /**
+     * 耗时分布的桶上界(ms)，最后一个桶放超过上界的
+     */
+    private static final long[] LATENCY_BUCKETS = {100, 250, 500, 1000, 2000};
+
+    /**
+     * 拿到预览的链接数
+     */
+    private final LongAdder success = new LongAdder();
+    /**
+     * 抓取失败或者页面解析不出内容的链接数
+     */
+    private final LongAdder failed = new LongAdder();
+    /**
+     * 超过等待时间被放弃的链接数
+     */
+    private final LongAdder timeout = new LongAdder();
+    /**
+     * 线程池满被拒绝的任务数
+     */
+    private final LongAdder rejected = new LongAdder();
+    /**
+     * 本地缓存命中数
+     */
+    private final LongAdder localHit = new LongAdder();
+    /**
+     * redis缓存命中数
+     */
+    private final LongAdder remoteHit = new LongAdder();
+    /**
+     * 同域名并发已满、等待超时放弃抓取的链接数
+     */
+    private final LongAdder hostLimited = new LongAdder();
+    private final LongAdder totalCostMillis = new LongAdder();
+    private final LongAccumulator maxCostMillis = new LongAccumulator(Math::max, 0);
+    private final LongAdder[] latency = new LongAdder[LATENCY_BUCKETS.length + 1];
+
+    public UrlUnfurlMetrics() {
+        for (int i = 0; i < latency.length; i++) {
+            latency[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * 记录一次在超时前完成的抓取
+     */
+    public void record(long costMillis, boolean hit) {
+        if (hit) {
+            success.increment();
+        } else {
+            failed.increment();
+        }
+        totalCostMillis.add(costMillis);
+        maxCostMillis.accumulate(costMillis);
+        int i = 0;
+        while (i < LATENCY_BUCKETS.length && costMillis > LATENCY_BUCKETS[i]) {
+            i++;
+        }
+        latency[i].increment();
+    }
+
+    public void timeout() {
+        timeout.increment();
+    }
+
+    public void rejected() {
+        rejected.increment();
+    }
+
+    public void localHit() {
+        localHit.increment();
+    }
+
+    public void remoteHit() {
+        remoteHit.increment();
+    }
+
+    public void hostLimited() {
+        hostLimited.increment();
+    }
+
+    @ManagedAttribute
+    public long getSuccess() {
+        return success.sum();
+    }
+
+    @ManagedAttribute
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    @ManagedAttribute
+    public long getTimeout() {
+        return timeout.sum();
+    }
+
+    @ManagedAttribute
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    @ManagedAttribute
+    public long getLocalHit() {
+        return localHit.sum();
+    }
+
+    @ManagedAttribute
+    public long getRemoteHit() {
+        return remoteHit.sum();
+    }
+
+    @ManagedAttribute
+    public long getHostLimited() {
+        return hostLimited.sum();
+    }
+
+    @ManagedAttribute
+    public long getAvgCostMillis() {
+        long count = success.sum() + failed.sum();
+        return count == 0 ? 0 : totalCostMillis.sum() / count;
+    }
+
+    @ManagedAttribute
+    public long getMaxCostMillis() {
+        return maxCostMillis.get();
+    }
+
+    /**
+     * 抓取耗时分布，key为桶上界
+     */
+    @ManagedAttribute
+    public Map<String, Long> getLatency() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (int i = 0; i < LATENCY_BUCKETS.length; i++) {
+            result.put("<=" + LATENCY_BUCKETS[i] + "ms", latency[i].sum());
+        }
+        result.put(">" + LATENCY_BUCKETS[LATENCY_BUCKETS.length - 1] + "ms", latency[LATENCY_BUCKETS.length].sum());
+        return result;
+    }
+}
@@ -0,0 +1,202 @@
+package com.abin.mallchat.common.chat.service.impl;
+
+import cn.hutool.core.thread.NamedThreadFactory;
+import com.abin.mallchat.common.chat.dao.MessageDao;
+import com.abin.mallchat.common.chat.dao.RoomFriendDao;
+import com.abin.mallchat.common.chat.domain.entity.Message;
+import com.abin.mallchat.common.chat.domain.entity.Room;
+import com.abin.mallchat.common.chat.domain.entity.RoomFriend;
+import com.abin.mallchat.common.chat.domain.enums.MessageTypeEnum;
+import com.abin.mallchat.common.chat.domain.enums.RoomTypeEnum;
+import com.abin.mallchat.common.chat.service.cache.GroupMemberCache;
+import com.abin.mallchat.common.chat.service.cache.MsgCache;
+import com.abin.mallchat.common.chat.service.cache.RecentMsgCache;
+import com.abin.mallchat.common.chat.service.cache.RoomCache;
+import com.abin.mallchat.common.chat.service.cache.UrlPreviewCache;
+import com.abin.mallchat.common.common.config.ThreadPoolConfig;
+import com.abin.mallchat.common.common.config.UrlUnfurlProperties;
+import com.abin.mallchat.common.common.factory.MyThreadFactory;
+import com.abin.mallchat.common.common.utils.FutureUtils;
+import com.abin.mallchat.common.common.utils.discover.PrioritizedUrlDiscover;
+import com.abin.mallchat.common.common.utils.discover.domain.UrlInfo;
+import com.abin.mallchat.common.user.domain.enums.WSBaseResp;
+import com.abin.mallchat.common.user.domain.vo.response.ws.WSMsgUrlPreview;
+import com.abin.mallchat.common.user.service.adapter.WSAdapter;
+import com.abin.mallchat.common.user.service.impl.PushService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.data.util.Pair;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Description: 消息链接预览。
+ * 抓取外部网页动辄上秒，放在发消息的事务里会一直占着数据库连接。这里等消息推送出去后再异步抓取，
+ * 每个链接都有等待上限，抓取本身也按同一个截止时间断开，超时的抓取不会一直占着线程。
+ * 抓到后只回写消息扩展字段里的urlContentMap，再给房间补推一条预览。抓取结果的缓存见UrlPreviewCache
+ * Author: <a href="https://github.com/zongzibinbin">abin</a>
+ * Date: 2023-10-18
+ */
+@Slf4j
+@Service
+public class UrlUnfurlService {
+    private static final PrioritizedUrlDiscover URL_TITLE_DISCOVER = new PrioritizedUrlDiscover();
+
+    @Autowired
+    @Qualifier(ThreadPoolConfig.URL_UNFURL_EXECUTOR)
+    private ThreadPoolTaskExecutor urlUnfurlExecutor;
+    @Autowired
+    private UrlUnfurlProperties urlUnfurlProperties;
+    @Autowired
+    private UrlUnfurlMetrics urlUnfurlMetrics;
+    @Autowired
+    private MessageDao messageDao;
+    @Autowired
+    private MsgCache msgCache;
+    @Autowired
+    private RoomCache roomCache;
+    @Autowired
+    private GroupMemberCache groupMemberCache;
+    @Autowired
+    private RoomFriendDao roomFriendDao;
+    @Autowired
+    private PushService pushService;
+    @Autowired
+    private UrlPreviewCache urlPreviewCache;
+    @Autowired
+    private RecentMsgCache recentMsgCache;
+
+    /**
+     * 只负责超时兜底，不执行抓取
+     */
+    private ScheduledExecutorService timeoutScheduler;
+
+    @PostConstruct
+    public void start() {
+        timeoutScheduler = Executors.newSingleThreadScheduledExecutor(new MyThreadFactory(new NamedThreadFactory("url-unfurl-timeout-", true)));
+    }
+
+    @PreDestroy
+    public void stop() {
+        timeoutScheduler.shutdown();
+    }
+
+    /**
+     * 提交预览任务，立即返回
+     */
+    public void unfurlAsync(Long msgId) {
+        if (!urlUnfurlProperties.isEnabled()) {
+            return;
+        }
+        try {
+            urlUnfurlExecutor.execute(() -> unfurl(msgId));
+        } catch (RejectedExecutionException e) {
+            urlUnfurlMetrics.rejected();
+            log.warn("链接预览线程池已满，放弃预览 msgId:{}", msgId);
+        }
+    }
+
+    private void unfurl(Long msgId) {
+        Message message = messageDao.getById(msgId);
+        if (Objects.isNull(message) || !Objects.equals(message.getType(), MessageTypeEnum.TEXT.getType())) {
+            return;
+        }
+        List<String> urlList = URL_TITLE_DISCOVER.findUrls(message.getContent()).stream()
+                .limit(urlUnfurlProperties.getMaxUrlsPerMsg())
+                .collect(Collectors.toList());
+        if (urlList.isEmpty()) {
+            return;
+        }
+        List<CompletableFuture<Pair<String, UrlInfo>>> futures = urlList.stream().map(this::fetch).collect(Collectors.toList());
+        //最后一个链接可能在超时线程上完成，回写和推送切回线程池执行
+        FutureUtils.sequenceNonNull(futures)
+                .thenAcceptAsync(list -> {
+                    Map<String, UrlInfo> urlContentMap = list.stream().collect(Collectors.toMap(Pair::getFirst, Pair::getSecond, (a, b) -> a));
+                    patch(message, urlContentMap);
+                }, urlUnfurlExecutor)
+                .exceptionally(e -> {
+                    log.error("链接预览回写失败 msgId:{}", msgId, e);
+                    return null;
+                });
+    }
+
+    /**
+     * 抓取单个链接，超时、失败、被拒绝都返回null
+     */
+    private CompletableFuture<Pair<String, UrlInfo>> fetch(String url) {
+        CompletableFuture<Pair<String, UrlInfo>> result = new CompletableFuture<>();
+        long start = System.currentTimeMillis();
+        long deadline = start + urlUnfurlProperties.getTimeoutMillis();
+        try {
+            urlUnfurlExecutor.execute(() -> {
+                if (result.isDone()) {//排队时已经超时了
+                    return;
+                }
+                UrlInfo urlInfo = null;
+                try {
+                    urlInfo = urlPreviewCache.get(url, deadline);
+                } catch (Exception e) {
+                    log.warn("链接预览抓取失败 url:{}", url, e);
+                }
+                if (result.complete(Objects.isNull(urlInfo) ? null : Pair.of(url, urlInfo))) {
+                    urlUnfurlMetrics.record(System.currentTimeMillis() - start, Objects.nonNull(urlInfo));
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            urlUnfurlMetrics.rejected();
+            result.complete(null);
+            return result;
+        }
+        timeoutScheduler.schedule(() -> {
+            if (result.complete(null)) {
+                urlUnfurlMetrics.timeout();
+            }
+        }, urlUnfurlProperties.getTimeoutMillis(), TimeUnit.MILLISECONDS);
+        return result;
+    }
+
+    private void patch(Message message, Map<String, UrlInfo> urlContentMap) {
+        if (urlContentMap.isEmpty()) {
+            return;
+        }
+        if (!messageDao.setUrlContentMap(message.getId(), urlContentMap)) {//期间被撤回了
+            return;
+        }
+        msgCache.evictMsg(message.getId());
+        recentMsgCache.refresh(message.getId());
+        pushToRoom(message.getRoomId(), WSAdapter.buildMsgUrlPreview(message.getId(), message.getRoomId(), urlContentMap));
+    }
+
+    /**
+     * 推送范围和新消息一致
+     */
+    private void pushToRoom(Long roomId, WSBaseResp<WSMsgUrlPreview> resp) {
+        Room room = roomCache.get(roomId);
+        if (room.isHotRoom()) {
+            pushService.sendPushMsg(resp);
+            return;
+        }
+        List<Long> memberUidList;
+        if (Objects.equals(room.getType(), RoomTypeEnum.GROUP.getType())) {
+            memberUidList = groupMemberCache.getMemberUidList(roomId);
+        } else {
+            RoomFriend roomFriend = roomFriendDao.getByRoomId(roomId);
+            memberUidList = Arrays.asList(roomFriend.getUid1(), roomFriend.getUid2());
+        }
+        pushService.sendPushMsg(resp, memberUidList);
+    }
+}
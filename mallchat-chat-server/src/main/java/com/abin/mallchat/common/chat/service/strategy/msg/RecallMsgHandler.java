@@ -6,6 +6,7 @@ import com.abin.mallchat.common.chat.domain.entity.Message;
 import com.abin.mallchat.common.chat.domain.entity.msg.MessageExtra;
 import com.abin.mallchat.common.chat.domain.entity.msg.MsgRecall;
 import com.abin.mallchat.common.chat.domain.enums.MessageTypeEnum;
+import com.abin.mallchat.common.chat.service.cache.LastMsgDigestCache;
 import com.abin.mallchat.common.chat.service.cache.MsgCache;
 import com.abin.mallchat.common.common.event.MessageRecallEvent;
 import com.abin.mallchat.common.user.domain.entity.User;
@@ -31,6 +32,8 @@ public class RecallMsgHandler extends AbstractMsgHandler<Object> {
     @Autowired
     private MsgCache msgCache;
     @Autowired
+    private LastMsgDigestCache lastMsgDigestCache;
+    @Autowired
     private ApplicationEventPublisher applicationEventPublisher;
 
     @Override
@@ -66,6 +69,9 @@ public class RecallMsgHandler extends AbstractMsgHandler<Object> {
         update.setType(MessageTypeEnum.RECALL.getType());
         update.setExtra(extra);
         messageDao.updateById(update);
+        //撤回的是房间最后一条消息时，会话列表跟着变成撤回提示
+        message.setType(MessageTypeEnum.RECALL.getType());
+        lastMsgDigestCache.recall(message, userCache.getUserInfo(message.getFromUid()));
         applicationEventPublisher.publishEvent(new MessageRecallEvent(this, new ChatMsgRecallDTO(message.getId(), message.getRoomId(), recallUid)));
 
     }
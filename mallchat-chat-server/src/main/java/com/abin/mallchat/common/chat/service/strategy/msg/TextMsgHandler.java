@@ -12,8 +12,6 @@ import com.abin.mallchat.common.chat.service.adapter.MessageAdapter;
 import com.abin.mallchat.common.chat.service.cache.MsgCache;
 import com.abin.mallchat.common.common.domain.enums.YesOrNoEnum;
 import com.abin.mallchat.common.common.utils.AssertUtil;
-import com.abin.mallchat.common.common.utils.discover.PrioritizedUrlDiscover;
-import com.abin.mallchat.common.common.utils.discover.domain.UrlInfo;
 import com.abin.mallchat.common.common.utils.sensitiveWord.SensitiveWordBs;
 import com.abin.mallchat.common.user.domain.entity.User;
 import com.abin.mallchat.common.user.domain.enums.RoleEnum;
@@ -49,8 +47,6 @@ public class TextMsgHandler extends AbstractMsgHandler<TextMsgReq> {
     @Autowired
     private SensitiveWordBs sensitiveWordBs;
 
-    private static final PrioritizedUrlDiscover URL_TITLE_DISCOVER = new PrioritizedUrlDiscover();
-
     @Override
     MessageTypeEnum getMsgTypeEnum() {
         return MessageTypeEnum.TEXT;
@@ -92,9 +88,7 @@ public class TextMsgHandler extends AbstractMsgHandler<TextMsgReq> {
             update.setReplyMsgId(body.getReplyMsgId());
 
         }
-        //判断消息url跳转
-        Map<String, UrlInfo> urlContentMap = URL_TITLE_DISCOVER.getUrlContentMap(body.getContent());
-        extra.setUrlContentMap(urlContentMap);
+        //链接预览在消息提交后异步抓取回写，见UrlUnfurlService
         //艾特功能
         if (CollectionUtil.isNotEmpty(body.getAtUidList())) {
             extra.setAtUidList(body.getAtUidList());
@@ -0,0 +1,41 @@
+package com.abin.mallchat.common.common.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Description: 会话写入配置，包括新消息刷新成员会话和已读时间落库
+ * Author: <a href="https://github.com/zongzibinbin">abin</a>
+ * Date: 2023-10-18
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "mallchat.contact-inbox")
+public class ContactInboxProperties {
+
+    /**
+     * 一条insert最多带的成员数，大群拆成多条
+     */
+    private int chunkSize = 500;
+
+    /**
+     * 同时执行的写入数，每个写入占一个数据库连接
+     */
+    private int parallelism = 4;
+
+    /**
+     * 合并窗口，窗口内同一个房间的多条消息只写一次最新的，0表示每条消息同步写入
+     */
+    private long mergeWindowMillis = 50;
+
+    /**
+     * 已读时间先记在redis，每隔这么久批量刷到库里
+     */
+    private long readFlushMillis = 1000;
+
+    /**
+     * 合并写入的房间登记超过这么久还没写完，由补偿任务按房间表重新刷，也是补偿任务的执行间隔
+     */
+    private long redriveAfterMillis = 30000;
+}
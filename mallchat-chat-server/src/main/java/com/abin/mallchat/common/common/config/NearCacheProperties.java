@@ -0,0 +1,36 @@
+package com.abin.mallchat.common.common.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Description: 批量缓存框架的本地一级缓存配置
+ * Author: <a href="https://github.com/zongzibinbin">abin</a>
+ * Date: 2023-10-18
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "mallchat.near-cache")
+public class NearCacheProperties {
+
+    /**
+     * 是否在redis前面加一层本地缓存
+     */
+    private boolean enabled = true;
+
+    /**
+     * 本地缓存写入后的存活时间，失效广播丢了的时候最多旧这么久
+     */
+    private long expireSeconds = 30;
+
+    /**
+     * 每个缓存本地最多保留的条数
+     */
+    private long maximumSize = 10000;
+
+    /**
+     * 失效广播的合并窗口，窗口内的删除合并成一条广播，其他节点最多多旧这么久，小于等于0不合并
+     */
+    private long broadcastWindowMillis = 50;
+}
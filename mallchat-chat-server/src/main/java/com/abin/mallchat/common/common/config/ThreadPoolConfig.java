@@ -7,6 +7,7 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Primary;
 import org.springframework.scheduling.annotation.AsyncConfigurer;
 import org.springframework.scheduling.annotation.EnableAsync;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
 import java.util.concurrent.Executor;
@@ -31,6 +32,27 @@ public class ThreadPoolConfig implements AsyncConfigurer, SecureInvokeConfigurer
 
 
     public static final String AICHAT_EXECUTOR = "aichatExecutor";
+    /**
+     * 消息链接预览线程池，抓取外部网页都是阻塞io
+     */
+    public static final String URL_UNFURL_EXECUTOR = "urlUnfurlExecutor";
+    /**
+     * 会话列表组装线程池，房间、群、好友、最后消息、未读数几路并发查
+     */
+    public static final String CONTACT_LOAD_EXECUTOR = "contactLoadExecutor";
+    /**
+     * 历史消息预取下一页线程池
+     */
+    public static final String MSG_PREFETCH_EXECUTOR = "msgPrefetchExecutor";
+    /**
+     * 大群会话分片写入线程池，每个线程占一个数据库连接
+     */
+    public static final String CONTACT_INBOX_EXECUTOR = "contactInboxExecutor";
+    /**
+     * 会话合并写入的定时器，窗口到期flush和补偿任务都在这里跑。
+     * 它是容器里唯一的TaskScheduler，@Scheduled的任务也会用它
+     */
+    public static final String CONTACT_INBOX_SCHEDULER = "contactInboxScheduler";
 
     @Override
     public Executor getAsyncExecutor() {
@@ -61,9 +83,9 @@ public class ThreadPoolConfig implements AsyncConfigurer, SecureInvokeConfigurer
         ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
         executor.setCorePoolSize(16);
         executor.setMaxPoolSize(16);
-        executor.setQueueCapacity(1000);//支持同时推送1000人
+        executor.setQueueCapacity(1000);//一次扇出只占一个任务
         executor.setThreadNamePrefix("websocket-executor-");
-        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.DiscardPolicy());//满了直接丢弃，默认为不重要消息推送
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());//满了抛出，由推送方捕获后计入丢弃数
         executor.setThreadFactory(new MyThreadFactory(executor));
         executor.initialize();
         return executor;
@@ -80,4 +102,70 @@ public class ThreadPoolConfig implements AsyncConfigurer, SecureInvokeConfigurer
         executor.setThreadFactory(new MyThreadFactory(executor));
         return executor;
     }
+
+    @Bean(URL_UNFURL_EXECUTOR)
+    public ThreadPoolTaskExecutor urlUnfurlExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(16);
+        executor.setMaxPoolSize(16);
+        executor.setQueueCapacity(256);
+        executor.setThreadNamePrefix("url-unfurl-executor-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());//满了抛出，由提交方计数后放弃这次预览，不能拖慢发消息
+        executor.setThreadFactory(new MyThreadFactory(executor));
+        executor.initialize();
+        return executor;
+    }
+
+    @Bean(CONTACT_LOAD_EXECUTOR)
+    public ThreadPoolTaskExecutor contactLoadExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(16);
+        executor.setMaxPoolSize(16);
+        executor.setQueueCapacity(500);
+        executor.setThreadNamePrefix("contact-load-executor-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());//满了退化成请求线程串行查，不能让会话列表失败
+        executor.setThreadFactory(new MyThreadFactory(executor));
+        executor.initialize();
+        return executor;
+    }
+
+    @Bean(MSG_PREFETCH_EXECUTOR)
+    public ThreadPoolTaskExecutor msgPrefetchExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(4);
+        executor.setMaxPoolSize(4);
+        executor.setQueueCapacity(100);
+        executor.setThreadNamePrefix("msg-prefetch-executor-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());//满了抛出，由提交方放弃这次预取
+        executor.setThreadFactory(new MyThreadFactory(executor));
+        executor.initialize();
+        return executor;
+    }
+
+    @Bean(CONTACT_INBOX_EXECUTOR)
+    public ThreadPoolTaskExecutor contactInboxExecutor(ContactInboxProperties contactInboxProperties) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(contactInboxProperties.getParallelism());
+        executor.setMaxPoolSize(contactInboxProperties.getParallelism());
+        executor.setQueueCapacity(1024);
+        executor.setThreadNamePrefix("contact-inbox-executor-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());//满了调用方自己写，顺带限流
+        executor.setWaitForTasksToCompleteOnShutdown(true);//停机时把排队的分片写完
+        executor.setAwaitTerminationSeconds(30);
+        executor.setThreadFactory(new MyThreadFactory(executor));
+        executor.initialize();
+        return executor;
+    }
+
+    @Bean(CONTACT_INBOX_SCHEDULER)
+    public ThreadPoolTaskScheduler contactInboxScheduler() {
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(2);
+        scheduler.setThreadNamePrefix("contact-inbox-scheduler-");
+        scheduler.setWaitForTasksToCompleteOnShutdown(true);
+        scheduler.setAwaitTerminationSeconds(30);
+        scheduler.setThreadFactory(new MyThreadFactory(scheduler));
+        scheduler.initialize();
+        return scheduler;
+    }
 }
@@ -0,0 +1,56 @@
+package com.abin.mallchat.common.common.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Description: 消息链接预览配置
+ * Author: <a href="https://github.com/zongzibinbin">abin</a>
+ * Date: 2023-10-18
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "mallchat.url-unfurl")
+public class UrlUnfurlProperties {
+
+    /**
+     * 是否解析消息里的链接
+     */
+    private boolean enabled = true;
+
+    /**
+     * 单个链接从提交到拿到结果的最长等待时间，超时的链接不展示预览
+     */
+    private long timeoutMillis = 3000;
+
+    /**
+     * 一条消息最多解析的链接数，多出来的忽略
+     */
+    private int maxUrlsPerMsg = 5;
+
+    /**
+     * 预览结果在redis里的缓存时间
+     */
+    private long cacheSeconds = 24 * 60 * 60;
+
+    /**
+     * 抓取失败的链接在redis里的缓存时间，期间不再重复抓取
+     */
+    private long negativeCacheSeconds = 60;
+
+    /**
+     * 本地缓存最多保存的链接数
+     */
+    private int localCacheSize = 10000;
+
+    /**
+     * 本地缓存时间，失败结果取这个和negativeCacheSeconds中较小的
+     */
+    private long localCacheSeconds = 10 * 60;
+
+    /**
+     * 同一个域名同时抓取的最大数
+     */
+    private int perHostConcurrency = 4;
+}
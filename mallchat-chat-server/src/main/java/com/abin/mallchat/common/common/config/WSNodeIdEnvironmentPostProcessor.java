@@ -0,0 +1,36 @@
+package com.abin.mallchat.common.common.config;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.env.EnvironmentPostProcessor;
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.core.env.MapPropertySource;
+
+import java.util.Collections;
+
+/**
+ * Description: 校验 mallchat.websocket.node-id。
+ * 节点id会被推送消费者的消费组和tag通过占位符引用，所以必须在容器启动前就放进environment。
+ * 消费组会在broker上持久化，节点id一变就多出一个废弃的消费组，所以不再按ip生成：
+ * 开启定向推送时必须配置固定的节点id；不开启时所有节点共用同一个id，也就是同一个广播消费组。
+ * Author: <a href="https://github.com/zongzibinbin">abin</a>
+ * Date: 2023-10-18
+ */
+public class WSNodeIdEnvironmentPostProcessor implements EnvironmentPostProcessor {
+    public static final String NODE_ID_KEY = "mallchat.websocket.node-id";
+    private static final String PUSH_ROUTING_KEY = "mallchat.websocket.push-routing";
+    /**
+     * 不开启定向推送时所有节点共用的节点id
+     */
+    public static final String SHARED_NODE_ID = "shared";
+
+    @Override
+    public void postProcessEnvironment(ConfigurableEnvironment environment, SpringApplication application) {
+        if (environment.containsProperty(NODE_ID_KEY)) {
+            return;
+        }
+        if (environment.getProperty(PUSH_ROUTING_KEY, Boolean.class, false)) {
+            throw new IllegalStateException("开启" + PUSH_ROUTING_KEY + "时必须配置固定的" + NODE_ID_KEY);
+        }
+        environment.getPropertySources().addLast(new MapPropertySource("wsNodeId", Collections.singletonMap(NODE_ID_KEY, SHARED_NODE_ID)));
+    }
+}
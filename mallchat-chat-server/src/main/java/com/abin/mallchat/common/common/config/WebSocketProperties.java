@@ -0,0 +1,154 @@
+package com.abin.mallchat.common.common.config;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.Getter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Description: websocket网关配置
+ * Author: <a href="https://github.com/zongzibinbin">abin</a>
+ * Date: 2023-10-18
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "mallchat.websocket")
+public class WebSocketProperties {
+
+    /**
+     * 监听端口
+     */
+    private int port = 8090;
+
+    /**
+     * linux下优先使用epoll，不可用时回退到nio
+     */
+    private boolean nativeTransport = true;
+
+    /**
+     * 全连接队列长度
+     */
+    private int backlog = 1024;
+
+    /**
+     * 是否开启SO_REUSEPORT，仅epoll生效，开启后同一端口会绑定acceptorThreads次
+     */
+    private boolean reusePort = false;
+
+    /**
+     * accept线程数，不开启reusePort时只有一个线程在accept
+     */
+    private int acceptorThreads = 1;
+
+    /**
+     * io线程数，0表示cpu核数
+     */
+    private int workerThreads = 0;
+
+    /**
+     * 关闭nagle算法，推送消息不攒包
+     */
+    private boolean tcpNoDelay = true;
+
+    /**
+     * channel使用的内存分配器
+     */
+    private AllocatorType allocator = AllocatorType.POOLED;
+
+    /**
+     * 握手请求聚合的最大字节数
+     */
+    private int maxContentLength = 8192;
+
+    /**
+     * 是否给accept打日志，连接风暴时日志本身就是瓶颈，默认关闭
+     */
+    private boolean acceptLog = false;
+
+    /**
+     * 是否协商permessage-deflate压缩，默认关闭，按实际连接数压测过内存再打开
+     */
+    private boolean compressionEnabled = false;
+
+    /**
+     * 超过这个字节数的帧才压缩
+     */
+    private int compressionThreshold = 1024;
+
+    /**
+     * deflate压缩级别 0-9
+     */
+    private int compressionLevel = 6;
+
+    /**
+     * 推送模式
+     */
+    private PushMode pushMode = PushMode.EVENT_LOOP;
+
+    /**
+     * 写缓冲低水位，积压降到这以下channel恢复可写
+     */
+    private int writeBufferLowWaterMark = 32 * 1024;
+
+    /**
+     * 写缓冲高水位，积压超过这个值channel变为不可写
+     */
+    private int writeBufferHighWaterMark = 64 * 1024;
+
+    /**
+     * channel持续不可写超过这个时间就断开
+     */
+    private long unwritableTimeoutSeconds = 30;
+
+    /**
+     * 上下线通知的合并窗口，窗口内的变动合并成一条推送，0表示不合并
+     */
+    private long presenceWindowMillis = 500;
+
+    /**
+     * 集群内唯一且重启不变的节点标识，用作推送的tag和消费组后缀，只能包含字母、数字、-、_。
+     * 开启pushRouting时必须配置，不开启时所有节点共用一个，见 WSNodeIdEnvironmentPostProcessor
+     */
+    private String nodeId;
+
+    /**
+     * 是否按uid所在节点定向推送，关闭后退化为全部节点广播，开启时必须配置nodeId
+     */
+    private boolean pushRouting = false;
+
+    /**
+     * 节点心跳间隔，超过3个心跳周期没刷新就认为节点已下线
+     */
+    private long nodeHeartbeatSeconds = 10;
+
+    /**
+     * uid路由的过期时间，节点宕机后残留的路由靠它兜底清理
+     */
+    private long routeExpireSeconds = 30 * 60;
+
+    /**
+     * 全量刷新本节点uid路由的间隔，需要明显小于routeExpireSeconds
+     */
+    private long routeRefreshSeconds = 5 * 60;
+
+    @AllArgsConstructor
+    @Getter
+    public enum PushMode {
+        EVENT_LOOP("按channel所在的netty事件循环分组，每个事件循环一个批量任务"),
+        EXECUTOR("整批推送提交到websocketExecutor线程池"),
+        ;
+
+        private final String desc;
+    }
+
+    @AllArgsConstructor
+    @Getter
+    public enum AllocatorType {
+        POOLED("池化内存"),
+        UNPOOLED("非池化内存"),
+        ;
+
+        private final String desc;
+    }
+}
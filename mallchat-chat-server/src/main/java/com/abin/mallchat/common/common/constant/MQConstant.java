@@ -16,6 +16,14 @@ public interface MQConstant {
      */
     String PUSH_TOPIC = "websocket_push";
     String PUSH_GROUP = "websocket_push_group";
+    /**
+     * 全员推送的tag，所有节点都订阅
+     */
+    String PUSH_TAG_ALL = "all";
+    /**
+     * 定向推送的tag前缀，后面拼节点id，每个节点只订阅自己的
+     */
+    String PUSH_TAG_NODE_PREFIX = "node_";
 
     /**
      * (授权完成后)登录信息mq
@@ -28,4 +36,10 @@ public interface MQConstant {
      */
     String SCAN_MSG_TOPIC = "user_scan_send_msg";
     String SCAN_MSG_GROUP = "user_scan_send_msg_group";
+
+    /**
+     * 本地缓存失效广播，所有节点都消费
+     */
+    String CACHE_EVICT_TOPIC = "cache_evict";
+    String CACHE_EVICT_GROUP = "cache_evict_group";
 }
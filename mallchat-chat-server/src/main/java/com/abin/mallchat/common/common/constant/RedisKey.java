@@ -69,6 +69,71 @@ public class RedisKey {
      */
     public static final String USER_GLM2_TIME_LAST = "userGLM2UseTime:uid_%d";
 
+    /**
+     * 房间内消息序号
+     */
+    public static final String ROOM_SEQ_STRING = "roomSeq:roomId_%d";
+
+    /**
+     * 消息已经分配到的序号，重复投递时沿用
+     */
+    public static final String MSG_SEQ_STRING = "msgSeq:msgId_%d";
+
+    /**
+     * uid连接所在的ws节点
+     */
+    public static final String WS_ROUTE_SET = "wsRoute:uid_%d";
+
+    /**
+     * ws节点心跳
+     */
+    public static final String WS_NODE_STRING = "wsNode:%s";
+
+    /**
+     * 用户各个会话的未读数，field为roomId
+     */
+    public static final String USER_UNREAD_HASH = "userUnread:uid_%d";
+
+    /**
+     * 房间内还没落库的已读时间，field为uid
+     */
+    public static final String CONTACT_READ_PENDING_HASH = "contactRead:roomId_%d";
+
+    /**
+     * 有待落库已读时间的房间
+     */
+    public static final String CONTACT_READ_ROOM_SET = "contactReadRooms";
+
+    /**
+     * 有新消息还没刷到成员会话的房间，score为登记时间
+     */
+    public static final String CONTACT_INBOX_PENDING_ZSET = "contactInboxPending";
+
+    /**
+     * 链接预览，key为规范化后链接的md5
+     */
+    public static final String URL_PREVIEW_STRING = "urlPreview:%s";
+
+    /**
+     * 房间最后一条消息的摘要，会话列表展示用
+     */
+    public static final String LAST_MSG_DIGEST_STRING = "lastMsgDigest:roomId_%d";
+
+    /**
+     * 房间最近消息的id，新的在前，只保留固定条数
+     */
+    public static final String RECENT_MSG_LIST = "recentMsg:ids:roomId_%d";
+
+    /**
+     * 房间最近消息的内容和标记，field为msgId
+     */
+    public static final String RECENT_MSG_HASH = "recentMsg:body:roomId_%d";
+
+    /**
+     * 所有房间的最近消息
+     */
+    public static final String RECENT_MSG_PATTERN = "recentMsg:*";
+
     public static String getKey(String key, Object... objects) {
         return BASE_KEY + String.format(key, objects);
     }
@@ -0,0 +1,27 @@
+package com.abin.mallchat.common.common.consumer;
+
+import com.abin.mallchat.common.common.constant.MQConstant;
+import com.abin.mallchat.common.common.domain.dto.CacheEvictDTO;
+import com.abin.mallchat.common.common.service.cache.NearCacheManager;
+import org.apache.rocketmq.spring.annotation.MessageModel;
+import org.apache.rocketmq.spring.annotation.RocketMQMessageListener;
+import org.apache.rocketmq.spring.core.RocketMQListener;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Description: 本地缓存失效广播，每个节点清掉自己的本地缓存
+ * Author: <a href="https://github.com/zongzibinbin">abin</a>
+ * Date: 2023-10-18
+ */
+@RocketMQMessageListener(consumerGroup = MQConstant.CACHE_EVICT_GROUP, topic = MQConstant.CACHE_EVICT_TOPIC, messageModel = MessageModel.BROADCASTING)
+@Component
+public class CacheEvictConsumer implements RocketMQListener<CacheEvictDTO> {
+    @Autowired
+    private NearCacheManager nearCacheManager;
+
+    @Override
+    public void onMessage(CacheEvictDTO dto) {
+        nearCacheManager.onEvict(dto);
+    }
+}
@@ -0,0 +1,27 @@
+package com.abin.mallchat.common.common.domain.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Description: 本地缓存失效广播
+ * Author: <a href="https://github.com/zongzibinbin">abin</a>
+ * Date: 2023-10-18
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class CacheEvictDTO implements Serializable {
+    /**
+     * 缓存名
+     */
+    private String cacheName;
+    /**
+     * 失效的redis key
+     */
+    private List<String> keys;
+}
@@ -6,9 +6,11 @@ import org.springframework.context.ApplicationEvent;
 @Getter
 public class MessageSendEvent extends ApplicationEvent {
     private Long msgId;
+    private Long roomId;
 
-    public MessageSendEvent(Object source, Long msgId) {
+    public MessageSendEvent(Object source, Long msgId, Long roomId) {
         super(source);
         this.msgId = msgId;
+        this.roomId = roomId;
     }
 }
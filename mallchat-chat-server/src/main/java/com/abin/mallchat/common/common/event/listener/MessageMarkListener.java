@@ -6,6 +6,7 @@ import com.abin.mallchat.common.chat.domain.dto.ChatMessageMarkDTO;
 import com.abin.mallchat.common.chat.domain.entity.Message;
 import com.abin.mallchat.common.chat.domain.enums.MessageMarkTypeEnum;
 import com.abin.mallchat.common.chat.domain.enums.MessageTypeEnum;
+import com.abin.mallchat.common.chat.service.cache.RecentMsgCache;
 import com.abin.mallchat.common.common.domain.enums.IdempotentEnum;
 import com.abin.mallchat.common.common.event.MessageMarkEvent;
 import com.abin.mallchat.common.user.domain.enums.ItemEnum;
@@ -36,6 +37,8 @@ public class MessageMarkListener {
     private IUserBackpackService iUserBackpackService;
     @Autowired
     private PushService pushService;
+    @Autowired
+    private RecentMsgCache recentMsgCache;
 
     @Async
     @TransactionalEventListener(classes = MessageMarkEvent.class, fallbackExecution = true)
@@ -56,6 +59,12 @@ public class MessageMarkListener {
         }
     }
 
+    @Async
+    @TransactionalEventListener(classes = MessageMarkEvent.class, fallbackExecution = true)
+    public void refreshRecentMsg(MessageMarkEvent event) {
+        recentMsgCache.refresh(event.getDto().getMsgId());
+    }
+
     @Async
     @TransactionalEventListener(classes = MessageMarkEvent.class, fallbackExecution = true)
     public void notifyAll(MessageMarkEvent event) {//后续可做合并查询，目前异步影响不大
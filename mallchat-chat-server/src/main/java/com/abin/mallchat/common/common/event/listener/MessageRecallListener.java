@@ -3,6 +3,8 @@ package com.abin.mallchat.common.common.event.listener;
 import com.abin.mallchat.common.chat.domain.dto.ChatMsgRecallDTO;
 import com.abin.mallchat.common.chat.service.ChatService;
 import com.abin.mallchat.common.chat.service.cache.MsgCache;
+import com.abin.mallchat.common.chat.service.cache.RecentMsgCache;
+import com.abin.mallchat.common.chat.service.impl.MsgHistoryReader;
 import com.abin.mallchat.common.common.event.MessageRecallEvent;
 import com.abin.mallchat.common.user.service.WebSocketService;
 import com.abin.mallchat.common.user.service.adapter.WSAdapter;
@@ -29,12 +31,18 @@ public class MessageRecallListener {
     private MsgCache msgCache;
     @Autowired
     private PushService pushService;
+    @Autowired
+    private MsgHistoryReader msgHistoryReader;
+    @Autowired
+    private RecentMsgCache recentMsgCache;
 
     @Async
     @TransactionalEventListener(classes = MessageRecallEvent.class, fallbackExecution = true)
     public void evictMsg(MessageRecallEvent event) {
         ChatMsgRecallDTO recallDTO = event.getRecallDTO();
         msgCache.evictMsg(recallDTO.getMsgId());
+        msgHistoryReader.evictRoom(recallDTO.getRoomId());
+        recentMsgCache.refresh(recallDTO.getMsgId());
     }
 
     @Async
@@ -69,7 +69,8 @@ public class MessageSendListener {
     @TransactionalEventListener(phase = TransactionPhase.BEFORE_COMMIT, classes = MessageSendEvent.class, fallbackExecution = true)
     public void messageRoute(MessageSendEvent event) {
         Long msgId = event.getMsgId();
-        mqProducer.sendSecureMsg(MQConstant.SEND_MSG_TOPIC, new MsgSendMessageDTO(msgId), msgId);
+        //同一个房间的消息进同一个队列顺序消费，房间内序号才能按发送顺序连续分配
+        mqProducer.sendSecureMsg(MQConstant.SEND_MSG_TOPIC, new MsgSendMessageDTO(msgId), msgId, String.valueOf(event.getRoomId()));
     }
 
     @TransactionalEventListener(classes = MessageSendEvent.class, fallbackExecution = true)
@@ -1,6 +1,8 @@
 package com.abin.mallchat.common.common.event.listener;
 
 import com.abin.mallchat.common.chat.dao.MessageDao;
+import com.abin.mallchat.common.chat.service.cache.RecentMsgCache;
+import com.abin.mallchat.common.chat.service.impl.MsgHistoryReader;
 import com.abin.mallchat.common.common.event.UserBlackEvent;
 import com.abin.mallchat.common.user.domain.enums.WSBaseResp;
 import com.abin.mallchat.common.user.domain.enums.WSRespTypeEnum;
@@ -27,6 +29,10 @@ public class UserBlackListener {
     private WebSocketService webSocketService;
     @Autowired
     private UserCache userCache;
+    @Autowired
+    private MsgHistoryReader msgHistoryReader;
+    @Autowired
+    private RecentMsgCache recentMsgCache;
 
     @Async
     @EventListener(classes = UserBlackEvent.class)
@@ -39,6 +45,8 @@ public class UserBlackListener {
     @EventListener(classes = UserBlackEvent.class)
     public void deleteMsg(UserBlackEvent event) {
         messageDao.invalidByUid(event.getUser().getId());
+        msgHistoryReader.evictAll();
+        recentMsgCache.evictAll();
     }
 
     @Async
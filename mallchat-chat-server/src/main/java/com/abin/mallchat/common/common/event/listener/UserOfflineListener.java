@@ -7,6 +7,7 @@ import com.abin.mallchat.common.user.domain.enums.ChatActiveStatusEnum;
 import com.abin.mallchat.common.user.service.WebSocketService;
 import com.abin.mallchat.common.user.service.adapter.WSAdapter;
 import com.abin.mallchat.common.user.service.cache.UserCache;
+import com.abin.mallchat.common.user.service.impl.PresenceAggregator;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.event.EventListener;
@@ -29,14 +30,16 @@ public class UserOfflineListener {
     private UserCache userCache;
     @Autowired
     private WSAdapter wsAdapter;
+    @Autowired
+    private PresenceAggregator presenceAggregator;
 
     @Async
     @EventListener(classes = UserOfflineEvent.class)
     public void saveRedisAndPush(UserOfflineEvent event) {
         User user = event.getUser();
         userCache.offline(user.getId(), user.getLastOptTime());
-        //推送给所有在线用户，该用户下线
-        webSocketService.sendToAllOnline(wsAdapter.buildOfflineNotifyResp(event.getUser()), event.getUser().getId());
+        //推送给所有在线用户，该用户下线，短时间内的上下线合并推送
+        presenceAggregator.offline(user);
     }
 
     @Async
@@ -8,7 +8,7 @@ import com.abin.mallchat.common.user.service.IpService;
 import com.abin.mallchat.common.user.service.WebSocketService;
 import com.abin.mallchat.common.user.service.adapter.WSAdapter;
 import com.abin.mallchat.common.user.service.cache.UserCache;
-import com.abin.mallchat.common.user.service.impl.PushService;
+import com.abin.mallchat.common.user.service.impl.PresenceAggregator;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.event.EventListener;
@@ -34,15 +34,15 @@ public class UserOnlineListener {
     @Autowired
     private IpService ipService;
     @Autowired
-    private PushService pushService;
+    private PresenceAggregator presenceAggregator;
 
     @Async
     @EventListener(classes = UserOnlineEvent.class)
     public void saveRedisAndPush(UserOnlineEvent event) {
         User user = event.getUser();
         userCache.online(user.getId(), user.getLastOptTime());
-        //推送给所有在线用户，该用户登录成功
-        pushService.sendPushMsg(wsAdapter.buildOnlineNotifyResp(event.getUser()));
+        //推送给所有在线用户，该用户登录成功，短时间内的上下线合并推送
+        presenceAggregator.online(user);
     }
 
     @Async
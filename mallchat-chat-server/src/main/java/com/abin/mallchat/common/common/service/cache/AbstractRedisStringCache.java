@@ -2,24 +2,74 @@ package com.abin.mallchat.common.common.service.cache;
 
 import cn.hutool.core.collection.CollectionUtil;
 import com.abin.mallchat.common.common.utils.RedisUtils;
-import org.springframework.data.util.Pair;
+import com.github.benmanes.caffeine.cache.Cache;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.util.ClassUtils;
 
+import javax.annotation.PostConstruct;
 import java.lang.reflect.ParameterizedType;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.stream.Collectors;
 
 /**
- * Description: redis string类型的批量缓存框架
+ * Description: redis string类型的批量缓存框架。
+ * redis前面还有一层本地缓存，删除时广播给所有节点一起失效，本地存的是编码后的值，每次命中解码出新对象，调用方改了也不会影响缓存。
+ * redis没有时同一个key本节点只回源一次，可选跨节点租约；查不到的key写空标记，防止不存在的id一直打到库上。
+ * 值默认存json，可以通过createCodec换成二进制或者压缩编码
  * Author: <a href="https://github.com/zongzibinbin">abin</a>
  * Date: 2023-06-10
  */
+@Slf4j
 public abstract class AbstractRedisStringCache<IN, OUT> implements BatchCache<IN, OUT> {
 
+    /**
+     * 查不到的空标记，不是合法json，开头也不是二进制编码的格式字节，不会和正常值冲突
+     */
+    private static final byte[] NULL_VALUE = "<null>".getBytes(StandardCharsets.UTF_8);
+    private static final String LEASE_SUFFIX = ":lease";
+    private static final long LEASE_POLL_MILLIS = 20;
+    /**
+     * 失效版本号的分段数，必须是2的幂
+     */
+    private static final int EPOCH_STRIPES = 256;
+
     private Class<OUT> outClass;
+    private final CacheCodec<OUT> codec;
+
+    @Autowired
+    private NearCacheManager nearCacheManager;
+    /**
+     * 本地一级缓存，key为redis key，没开启时为null
+     */
+    private Cache<String, byte[]> nearCache;
+    private String cacheName;
+    /**
+     * key按hash分段，每次本地失效把所在段加一。查redis和回源期间所在段有失效的key，结果不写进本地缓存，防止把旧值放回去；
+     * 分段后删一个key只影响同段的回填，不会让所有在途的查询都白查
+     */
+    private final AtomicLongArray evictEpochs = new AtomicLongArray(EPOCH_STRIPES);
+    /**
+     * 本节点正在回源的key
+     */
+    private final Map<String, CompletableFuture<OUT>> inflight = new ConcurrentHashMap<>();
 
     protected AbstractRedisStringCache() {
         ParameterizedType genericSuperclass = (ParameterizedType) this.getClass().getGenericSuperclass();
         this.outClass = (Class<OUT>) genericSuperclass.getActualTypeArguments()[1];
+        this.codec = createCodec(outClass);
+    }
+
+    @PostConstruct
+    private void initNearCache() {
+        cacheName = getCacheName();
+        nearCache = nearCacheManager.register(cacheName, this);
     }
 
     protected abstract String getKey(IN req);
@@ -28,6 +78,34 @@ public abstract class AbstractRedisStringCache<IN, OUT> implements BatchCache<IN
 
     protected abstract Map<IN, OUT> load(List<IN> req);
 
+    /**
+     * 值的编码方式，默认json。构造时调用，实现里不要用子类自己的字段
+     */
+    protected CacheCodec<OUT> createCodec(Class<OUT> outClass) {
+        return new JsonCacheCodec<>(outClass);
+    }
+
+    /**
+     * 查不到的key空标记的过期时间，小于等于0不缓存空值
+     */
+    protected long getNullExpireSeconds() {
+        return 60;
+    }
+
+    /**
+     * 跨节点回源租约时间，大于0时同一个key多个节点只有一个去查库，默认不开启
+     */
+    protected long getLeaseMillis() {
+        return 0;
+    }
+
+    /**
+     * 缓存名，失效广播和命中统计用
+     */
+    protected String getCacheName() {
+        return ClassUtils.getUserClass(getClass()).getSimpleName();
+    }
+
     @Override
     public OUT get(IN req) {
         return getBatch(Collections.singletonList(req)).get(req);
@@ -40,39 +118,198 @@ public abstract class AbstractRedisStringCache<IN, OUT> implements BatchCache<IN
         }
         //去重
         req = req.stream().distinct().collect(Collectors.toList());
+        Map<IN, OUT> resultMap = new HashMap<>();
+        //先查本地
+        List<IN> remoteReqs = new ArrayList<>();
+        for (IN in : req) {
+            byte[] bytes = Objects.isNull(nearCache) ? null : nearCache.getIfPresent(getKey(in));
+            if (Objects.nonNull(bytes)) {
+                resultMap.put(in, codec.decode(bytes));
+            } else {
+                remoteReqs.add(in);
+            }
+        }
+        if (remoteReqs.isEmpty()) {
+            record(req.size(), 0, 0);
+            return resultMap;
+        }
         //组装key
-        List<String> keys = req.stream().map(this::getKey).collect(Collectors.toList());
+        List<String> keys = remoteReqs.stream().map(this::getKey).collect(Collectors.toList());
+        long[] epochs = keys.stream().mapToLong(key -> evictEpochs.get(stripe(key))).toArray();
         //批量get
-        List<OUT> valueList = RedisUtils.mget(keys, outClass);
-        //差集计算
+        List<byte[]> valueList = RedisUtils.mgetBytes(keys);
+        //差集计算，解不出来的（编码换过）也重新加载
         List<IN> loadReqs = new ArrayList<>();
-        for (int i = 0; i < valueList.size(); i++) {
-            if (Objects.isNull(valueList.get(i))) {
-                loadReqs.add(req.get(i));
+        boolean[] loaded = new boolean[remoteReqs.size()];
+        for (int i = 0; i < remoteReqs.size(); i++) {
+            if (!decodeInto(remoteReqs.get(i), valueList.get(i), resultMap)) {
+                loadReqs.add(remoteReqs.get(i));
+                loaded[i] = true;
             }
         }
-        Map<IN, OUT> load = new HashMap<>();
         //不足的重新加载进redis
         if (CollectionUtil.isNotEmpty(loadReqs)) {
-            //批量load
-            load = load(loadReqs);
-            Map<String, OUT> loadMap = load.entrySet().stream()
-                    .map(a -> Pair.of(getKey(a.getKey()), a.getValue()))
-                    .collect(Collectors.toMap(Pair::getFirst, Pair::getSecond));
-            RedisUtils.mset(loadMap, getExpireSeconds());
+            resultMap.putAll(singleFlightLoad(loadReqs));
         }
 
-        //组装最后的结果
+        //期间所在段没有失效的才回填本地，redis里拿到的直接存原值，回源的再编码一次
+        if (Objects.nonNull(nearCache)) {
+            Map<String, byte[]> nearMap = new HashMap<>();
+            for (int i = 0; i < remoteReqs.size(); i++) {
+                OUT out = resultMap.get(remoteReqs.get(i));
+                if (Objects.nonNull(out) && evictEpochs.get(stripe(keys.get(i))) == epochs[i]) {
+                    nearMap.put(keys.get(i), loaded[i] ? codec.encode(out) : valueList.get(i));
+                }
+            }
+            nearCache.putAll(nearMap);
+        }
+        record(req.size() - remoteReqs.size(), remoteReqs.size() - loadReqs.size(), loadReqs.size());
+        return resultMap;
+    }
+
+    /**
+     * 同一个key本节点同时只有一个线程回源，其他线程等它的结果
+     */
+    private Map<IN, OUT> singleFlightLoad(List<IN> reqs) {
+        List<IN> ownReqs = new ArrayList<>();
+        Map<IN, CompletableFuture<OUT>> ownFutures = new HashMap<>();
+        Map<IN, CompletableFuture<OUT>> waitFutures = new HashMap<>();
+        for (IN in : reqs) {
+            CompletableFuture<OUT> future = new CompletableFuture<>();
+            CompletableFuture<OUT> exist = inflight.putIfAbsent(getKey(in), future);
+            if (Objects.isNull(exist)) {
+                ownReqs.add(in);
+                ownFutures.put(in, future);
+            } else {
+                waitFutures.put(in, exist);
+            }
+        }
         Map<IN, OUT> resultMap = new HashMap<>();
-        for (int i = 0; i < req.size(); i++) {
-            IN in = req.get(i);
-            OUT out = Optional.ofNullable(valueList.get(i))
-                    .orElse(load.get(in));
-            resultMap.put(in, out);
+        //先把自己负责的查完再等别人，不会互相等
+        if (!ownReqs.isEmpty()) {
+            try {
+                resultMap.putAll(leaseLoad(ownReqs));
+                ownFutures.forEach((in, future) -> future.complete(resultMap.get(in)));
+            } catch (RuntimeException e) {
+                ownFutures.values().forEach(future -> future.completeExceptionally(e));
+                throw e;
+            } finally {
+                ownFutures.forEach((in, future) -> inflight.remove(getKey(in), future));
+            }
+        }
+        waitFutures.forEach((in, future) -> resultMap.put(in, join(future)));
+        return resultMap;
+    }
+
+    /**
+     * 开启租约时，多个节点同一个key只有抢到租约的去查库，没抢到的轮询redis等结果，等不到再自己查
+     */
+    private Map<IN, OUT> leaseLoad(List<IN> reqs) {
+        long leaseMillis = getLeaseMillis();
+        if (leaseMillis <= 0) {
+            return loadAndStore(reqs);
+        }
+        List<String> leaseKeys = reqs.stream().map(in -> getKey(in) + LEASE_SUFFIX).collect(Collectors.toList());
+        List<Boolean> acquired = RedisUtils.setIfAbsentBatch(leaseKeys, "1", leaseMillis);
+        List<IN> leaseReqs = new ArrayList<>();
+        List<String> heldLeaseKeys = new ArrayList<>();
+        List<IN> waitReqs = new ArrayList<>();
+        for (int i = 0; i < reqs.size(); i++) {
+            if (acquired.get(i)) {
+                leaseReqs.add(reqs.get(i));
+                heldLeaseKeys.add(leaseKeys.get(i));
+            } else {
+                waitReqs.add(reqs.get(i));
+            }
+        }
+        Map<IN, OUT> resultMap = new HashMap<>();
+        if (!leaseReqs.isEmpty()) {
+            try {
+                resultMap.putAll(loadAndStore(leaseReqs));
+            } finally {
+                RedisUtils.del(heldLeaseKeys);
+            }
+        }
+        long deadline = System.currentTimeMillis() + leaseMillis;
+        while (!waitReqs.isEmpty() && System.currentTimeMillis() < deadline) {
+            sleep(LEASE_POLL_MILLIS);
+            List<byte[]> values = RedisUtils.mgetBytes(waitReqs.stream().map(this::getKey).collect(Collectors.toList()));
+            List<IN> stillWait = new ArrayList<>();
+            for (int i = 0; i < waitReqs.size(); i++) {
+                if (!decodeInto(waitReqs.get(i), values.get(i), resultMap)) {
+                    stillWait.add(waitReqs.get(i));
+                }
+            }
+            waitReqs = stillWait;
+        }
+        //租约持有者挂了或者太慢，自己查
+        if (!waitReqs.isEmpty()) {
+            resultMap.putAll(loadAndStore(waitReqs));
         }
         return resultMap;
     }
 
+    /**
+     * 回源并写回redis，查不到的写一个空标记，短时间内不再查库
+     */
+    private Map<IN, OUT> loadAndStore(List<IN> reqs) {
+        Map<IN, OUT> load = load(reqs);
+        Map<String, byte[]> loadMap = new HashMap<>();
+        Map<String, byte[]> nullMap = new HashMap<>();
+        for (IN in : reqs) {
+            OUT out = load.get(in);
+            if (Objects.nonNull(out)) {
+                loadMap.put(getKey(in), codec.encode(out));
+            } else if (getNullExpireSeconds() > 0) {
+                nullMap.put(getKey(in), NULL_VALUE);
+            }
+        }
+        RedisUtils.msetBytes(loadMap, getExpireSeconds());
+        RedisUtils.msetBytes(nullMap, getNullExpireSeconds());
+        return load;
+    }
+
+    /**
+     * 解码redis里的值放进结果，空标记放null
+     *
+     * @return false 没有值或者解不出来，需要回源
+     */
+    private boolean decodeInto(IN in, byte[] value, Map<IN, OUT> resultMap) {
+        if (Objects.isNull(value)) {
+            return false;
+        }
+        if (Arrays.equals(NULL_VALUE, value)) {
+            resultMap.put(in, null);
+            return true;
+        }
+        try {
+            resultMap.put(in, codec.decode(value));
+            return true;
+        } catch (RuntimeException e) {
+            log.warn("cache value decode failed, key:{}", getKey(in), e);
+            return false;
+        }
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     @Override
     public void delete(IN req) {
         deleteBatch(Collections.singletonList(req));
@@ -82,5 +319,54 @@ public abstract class AbstractRedisStringCache<IN, OUT> implements BatchCache<IN
     public void deleteBatch(List<IN> req) {
         List<String> keys = req.stream().map(this::getKey).collect(Collectors.toList());
         RedisUtils.del(keys);
+        evictNearCache(keys);
+    }
+
+    /**
+     * 直接写入新值，不再删掉等下次回源。其他节点的本地缓存同样广播失效，下次从redis拿新值
+     */
+    public void put(IN req, OUT value) {
+        putBatch(Collections.singletonMap(req, value));
+    }
+
+    public void putBatch(Map<IN, OUT> values) {
+        Map<String, byte[]> redisMap = new HashMap<>();
+        values.forEach((in, out) -> redisMap.put(getKey(in), codec.encode(out)));
+        RedisUtils.msetBytes(redisMap, getExpireSeconds());
+        evictNearCache(new ArrayList<>(redisMap.keySet()));
+    }
+
+    /**
+     * 本节点马上失效，其他节点等广播，没开本地缓存的不用广播
+     */
+    void evictNearCache(List<String> keys) {
+        evictLocal(keys);
+        if (Objects.nonNull(nearCache)) {
+            nearCacheManager.broadcastEvict(cacheName, keys);
+        }
+    }
+
+    /**
+     * 只清本地缓存
+     */
+    void evictLocal(List<String> keys) {
+        keys.forEach(key -> evictEpochs.incrementAndGet(stripe(key)));
+        //删除前发起的回源结果可能是旧的，后来的请求不再复用
+        keys.forEach(inflight::remove);
+        if (Objects.nonNull(nearCache)) {
+            nearCache.invalidateAll(keys);
+            nearCacheManager.getMetrics().evicted(cacheName, keys.size());
+        }
+    }
+
+    private static int stripe(String key) {
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & (EPOCH_STRIPES - 1);
+    }
+
+    private void record(int localHit, int remoteHit, int load) {
+        if (Objects.nonNull(nearCacheManager)) {
+            nearCacheManager.getMetrics().record(cacheName, localHit, remoteHit, load);
+        }
     }
 }
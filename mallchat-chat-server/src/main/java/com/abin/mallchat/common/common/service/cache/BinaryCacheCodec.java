@@ -0,0 +1,376 @@
+package com.abin.mallchat.common.common.service.cache;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.util.CharsetUtil;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.*;
+
+/**
+ * Description: 紧凑二进制编码。
+ * 按字段名排序后依次写字段值，不写字段名，整数和时间用zigzag变长，字符串长度前缀+utf8，嵌套对象递归展开。
+ * 开头一个格式字节加4字节结构指纹，类的字段增删改后指纹对不上，解码抛异常，缓存当作没命中重新回源覆盖。
+ * 只支持基本类型及包装类、String、Date、List和由它们组成的普通对象，创建时检查，不支持的字段直接报错
+ * Author: <a href="https://github.com/zongzibinbin">abin</a>
+ * Date: 2023-10-18
+ */
+public class BinaryCacheCodec<T> implements CacheCodec<T> {
+    /**
+     * 第一个字节，和json的'{'、空标记的'<'都区分开
+     */
+    static final byte FORMAT_BINARY = 1;
+    private static final int INITIAL_CAPACITY = 256;
+
+    private enum Kind {
+        LONG, INT, BOOLEAN, DOUBLE, FLOAT, STRING, DATE, LIST, OBJECT
+    }
+
+    private final Schema schema;
+    private final int fingerprint;
+
+    public BinaryCacheCodec(Class<T> clazz) {
+        this.schema = new Schema(clazz, new HashSet<>());
+        this.fingerprint = schema.describe().hashCode();
+    }
+
+    @Override
+    public byte[] encode(T value) {
+        ByteBuf buf = Unpooled.buffer(INITIAL_CAPACITY);
+        buf.writeByte(FORMAT_BINARY);
+        buf.writeInt(fingerprint);
+        writeObject(buf, schema, value);
+        return ByteBufUtil.getBytes(buf);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T decode(byte[] bytes) {
+        ByteBuf buf = Unpooled.wrappedBuffer(bytes);
+        if (buf.readByte() != FORMAT_BINARY || buf.readInt() != fingerprint) {
+            throw new IllegalArgumentException("binary cache value format mismatch");
+        }
+        return (T) readObject(buf, schema);
+    }
+
+    private static void writeObject(ByteBuf buf, Schema schema, Object value) {
+        if (Objects.isNull(value)) {
+            buf.writeByte(0);
+            return;
+        }
+        buf.writeByte(1);
+        try {
+            for (FieldSchema field : schema.fields) {
+                writeValue(buf, field.type, field.field.get(value));
+            }
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Object readObject(ByteBuf buf, Schema schema) {
+        if (buf.readByte() == 0) {
+            return null;
+        }
+        try {
+            Object value = schema.constructor.newInstance();
+            for (FieldSchema field : schema.fields) {
+                Object fieldValue = readValue(buf, field.type);
+                //基本类型字段不会写null，这里的null只会出现在包装类型上
+                if (Objects.nonNull(fieldValue) || !field.field.getType().isPrimitive()) {
+                    field.field.set(value, fieldValue);
+                }
+            }
+            return value;
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void writeValue(ByteBuf buf, ValueType type, Object value) {
+        switch (type.kind) {
+            case LONG:
+            case INT:
+                writeLong(buf, Objects.isNull(value) ? null : ((Number) value).longValue());
+                break;
+            case BOOLEAN:
+                buf.writeByte(Objects.isNull(value) ? 0 : (Boolean) value ? 2 : 1);
+                break;
+            case DOUBLE:
+                buf.writeByte(Objects.isNull(value) ? 0 : 1);
+                if (Objects.nonNull(value)) {
+                    buf.writeDouble((Double) value);
+                }
+                break;
+            case FLOAT:
+                buf.writeByte(Objects.isNull(value) ? 0 : 1);
+                if (Objects.nonNull(value)) {
+                    buf.writeFloat((Float) value);
+                }
+                break;
+            case STRING:
+                writeString(buf, (String) value);
+                break;
+            case DATE:
+                writeLong(buf, Objects.isNull(value) ? null : ((Date) value).getTime());
+                break;
+            case LIST:
+                writeList(buf, type.element, (List<?>) value);
+                break;
+            default:
+                writeObject(buf, type.nested, value);
+        }
+    }
+
+    private static Object readValue(ByteBuf buf, ValueType type) {
+        switch (type.kind) {
+            case LONG:
+                return readLong(buf);
+            case INT: {
+                Long value = readLong(buf);
+                return Objects.isNull(value) ? null : toIntType(type.rawType, value);
+            }
+            case BOOLEAN: {
+                byte value = buf.readByte();
+                return value == 0 ? null : value == 2;
+            }
+            case DOUBLE:
+                return buf.readByte() == 0 ? null : buf.readDouble();
+            case FLOAT:
+                return buf.readByte() == 0 ? null : buf.readFloat();
+            case STRING:
+                return readString(buf);
+            case DATE: {
+                Long time = readLong(buf);
+                return Objects.isNull(time) ? null : new Date(time);
+            }
+            case LIST:
+                return readList(buf, type.element);
+            default:
+                return readObject(buf, type.nested);
+        }
+    }
+
+    private static void writeList(ByteBuf buf, ValueType element, List<?> list) {
+        writeVarLong(buf, Objects.isNull(list) ? 0 : list.size() + 1L);
+        if (Objects.nonNull(list)) {
+            for (Object item : list) {
+                writeValue(buf, element, item);
+            }
+        }
+    }
+
+    private static List<Object> readList(ByteBuf buf, ValueType element) {
+        int size = (int) (readVarLong(buf) - 1);
+        if (size < 0) {
+            return null;
+        }
+        List<Object> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            list.add(readValue(buf, element));
+        }
+        return list;
+    }
+
+    private static Object toIntType(Class<?> type, long value) {
+        if (type == Short.class || type == short.class) {
+            return (short) value;
+        }
+        if (type == Byte.class || type == byte.class) {
+            return (byte) value;
+        }
+        return (int) value;
+    }
+
+    private static void writeString(ByteBuf buf, String value) {
+        if (Objects.isNull(value)) {
+            buf.writeByte(0);
+            return;
+        }
+        int length = ByteBufUtil.utf8Bytes(value);
+        writeVarLong(buf, length + 1L);
+        ByteBufUtil.reserveAndWriteUtf8(buf, value, length);
+    }
+
+    private static String readString(ByteBuf buf) {
+        long raw = readVarLong(buf);
+        if (raw == 0) {
+            return null;
+        }
+        return buf.readCharSequence((int) (raw - 1), CharsetUtil.UTF_8).toString();
+    }
+
+    /**
+     * 0留给null，所以Long.MIN_VALUE这一个值无法表示，业务里的id、时间戳、计数都用不到
+     */
+    private static void writeLong(ByteBuf buf, Long value) {
+        if (Objects.isNull(value)) {
+            buf.writeByte(0);
+            return;
+        }
+        long v = value;
+        writeVarLong(buf, ((v << 1) ^ (v >> 63)) + 1);
+    }
+
+    private static Long readLong(ByteBuf buf) {
+        long raw = readVarLong(buf);
+        if (raw == 0) {
+            return null;
+        }
+        long zigzag = raw - 1;
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+
+    private static void writeVarLong(ByteBuf buf, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buf.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buf.writeByte((int) value);
+    }
+
+    private static long readVarLong(ByteBuf buf) {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buf.readByte();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IllegalArgumentException("varint too long");
+    }
+
+    /**
+     * 一个值的类型，List要带上元素类型，普通对象要带上字段布局
+     */
+    private static class ValueType {
+        private final Kind kind;
+        private final Class<?> rawType;
+        private final ValueType element;
+        private final Schema nested;
+
+        ValueType(Type genericType, Set<Class<?>> building) {
+            this.rawType = genericType instanceof ParameterizedType
+                    ? (Class<?>) ((ParameterizedType) genericType).getRawType()
+                    : (Class<?>) genericType;
+            this.kind = kindOf(rawType);
+            if (kind == Kind.LIST) {
+                if (!(genericType instanceof ParameterizedType)) {
+                    throw new IllegalArgumentException("binary cache codec needs a typed list");
+                }
+                Type elementType = ((ParameterizedType) genericType).getActualTypeArguments()[0];
+                if (!(elementType instanceof Class) || ((Class<?>) elementType).isPrimitive()) {
+                    throw new IllegalArgumentException("binary cache codec unsupported list element: " + elementType);
+                }
+                this.element = new ValueType(elementType, building);
+            } else {
+                this.element = null;
+            }
+            this.nested = kind == Kind.OBJECT ? new Schema(rawType, building) : null;
+        }
+
+        String describe() {
+            if (Objects.nonNull(element)) {
+                return kind + "<" + element.describe() + ">";
+            }
+            return Objects.nonNull(nested) ? kind + nested.describe() : kind.name();
+        }
+
+        private static Kind kindOf(Class<?> type) {
+            if (type == Long.class || type == long.class) {
+                return Kind.LONG;
+            }
+            if (type == Integer.class || type == int.class || type == Short.class || type == short.class
+                    || type == Byte.class || type == byte.class) {
+                return Kind.INT;
+            }
+            if (type == Boolean.class || type == boolean.class) {
+                return Kind.BOOLEAN;
+            }
+            if (type == Double.class || type == double.class) {
+                return Kind.DOUBLE;
+            }
+            if (type == Float.class || type == float.class) {
+                return Kind.FLOAT;
+            }
+            if (type == String.class) {
+                return Kind.STRING;
+            }
+            if (type == Date.class) {
+                return Kind.DATE;
+            }
+            if (type == List.class || type == Collection.class || type == ArrayList.class) {
+                return Kind.LIST;
+            }
+            if (type.isPrimitive() || type.isArray() || type.isEnum() || type.isInterface()
+                    || type.getName().startsWith("java.")) {
+                throw new IllegalArgumentException("binary cache codec unsupported type: " + type.getName());
+            }
+            return Kind.OBJECT;
+        }
+    }
+
+    /**
+     * 一个类的字段布局，按字段名排序，父类字段也算在内
+     */
+    private static class Schema {
+        private final Class<?> clazz;
+        private final Constructor<?> constructor;
+        private final List<FieldSchema> fields = new ArrayList<>();
+
+        Schema(Class<?> clazz, Set<Class<?>> building) {
+            if (!building.add(clazz)) {
+                throw new IllegalArgumentException("binary cache codec unsupported recursive type: " + clazz.getName());
+            }
+            this.clazz = clazz;
+            try {
+                this.constructor = clazz.getDeclaredConstructor();
+                this.constructor.setAccessible(true);
+            } catch (NoSuchMethodException e) {
+                throw new IllegalArgumentException("binary cache codec needs a no-arg constructor: " + clazz.getName(), e);
+            }
+            List<Field> declared = new ArrayList<>();
+            for (Class<?> c = clazz; c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+                    if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers) && !field.isSynthetic()) {
+                        declared.add(field);
+                    }
+                }
+            }
+            declared.sort(Comparator.comparing(Field::getName));
+            for (Field field : declared) {
+                field.setAccessible(true);
+                fields.add(new FieldSchema(field, new ValueType(field.getGenericType(), building)));
+            }
+            building.remove(clazz);
+        }
+
+        /**
+         * 字段名和类型拼起来算指纹
+         */
+        String describe() {
+            StringBuilder sb = new StringBuilder(clazz.getName()).append('{');
+            for (FieldSchema field : fields) {
+                sb.append(field.field.getName()).append(':').append(field.type.describe()).append(',');
+            }
+            return sb.append('}').toString();
+        }
+    }
+
+    private static class FieldSchema {
+        private final Field field;
+        private final ValueType type;
+
+        FieldSchema(Field field, ValueType type) {
+            this.field = field;
+            this.type = type;
+        }
+    }
+}
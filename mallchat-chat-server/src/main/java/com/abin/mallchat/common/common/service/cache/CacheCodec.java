@@ -0,0 +1,18 @@
+package com.abin.mallchat.common.common.service.cache;
+
+/**
+ * Description: 批量缓存写进redis的值的编码方式，缓存通过AbstractRedisStringCache.createCodec声明，默认json
+ * Author: <a href="https://github.com/zongzibinbin">abin</a>
+ * Date: 2023-10-18
+ */
+public interface CacheCodec<T> {
+    /**
+     * 编码成redis里存的字节
+     */
+    byte[] encode(T value);
+
+    /**
+     * 解码，格式对不上时抛异常，调用方当作没命中重新回源
+     */
+    T decode(byte[] bytes);
+}
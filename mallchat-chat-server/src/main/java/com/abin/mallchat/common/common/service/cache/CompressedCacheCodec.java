@@ -0,0 +1,54 @@
+package com.abin.mallchat.common.common.service.cache;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.compression.Snappy;
+
+/**
+ * Description: 在别的编码外面套一层压缩，编码结果超过阈值才压，小值压缩收益不够抵开销。
+ * 用netty自带的纯java snappy实现，和lz4同一类的快速压缩，不用额外引依赖。
+ * 压过的值第一个字节是FORMAT_SNAPPY，没压的原样存，读的时候看第一个字节区分
+ * Author: <a href="https://github.com/zongzibinbin">abin</a>
+ * Date: 2023-10-18
+ */
+public class CompressedCacheCodec<T> implements CacheCodec<T> {
+    static final byte FORMAT_SNAPPY = 2;
+    public static final int DEFAULT_THRESHOLD = 128;
+
+    private final CacheCodec<T> delegate;
+    private final int threshold;
+
+    public CompressedCacheCodec(CacheCodec<T> delegate) {
+        this(delegate, DEFAULT_THRESHOLD);
+    }
+
+    public CompressedCacheCodec(CacheCodec<T> delegate, int threshold) {
+        this.delegate = delegate;
+        this.threshold = threshold;
+    }
+
+    @Override
+    public byte[] encode(T value) {
+        byte[] raw = delegate.encode(value);
+        if (raw.length < threshold) {
+            return raw;
+        }
+        ByteBuf out = Unpooled.buffer(raw.length);
+        out.writeByte(FORMAT_SNAPPY);
+        new Snappy().encode(Unpooled.wrappedBuffer(raw), out, raw.length);
+        //压完没变小就存原值
+        return out.readableBytes() < raw.length ? ByteBufUtil.getBytes(out) : raw;
+    }
+
+    @Override
+    public T decode(byte[] bytes) {
+        if (bytes.length == 0 || bytes[0] != FORMAT_SNAPPY) {
+            return delegate.decode(bytes);
+        }
+        ByteBuf in = Unpooled.wrappedBuffer(bytes, 1, bytes.length - 1);
+        ByteBuf out = Unpooled.buffer(bytes.length * 2);
+        new Snappy().decode(in, out);
+        return delegate.decode(ByteBufUtil.getBytes(out));
+    }
+}
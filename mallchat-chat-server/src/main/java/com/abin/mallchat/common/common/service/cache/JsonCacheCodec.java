@@ -0,0 +1,28 @@
+package com.abin.mallchat.common.common.service.cache;
+
+import com.abin.mallchat.utils.JsonUtils;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Description: json编码，和原来RedisUtils.objToStr写进去的值完全一样，可读性好，默认用这个
+ * Author: <a href="https://github.com/zongzibinbin">abin</a>
+ * Date: 2023-10-18
+ */
+public class JsonCacheCodec<T> implements CacheCodec<T> {
+    private final Class<T> clazz;
+
+    public JsonCacheCodec(Class<T> clazz) {
+        this.clazz = clazz;
+    }
+
+    @Override
+    public byte[] encode(T value) {
+        return JsonUtils.toStr(value).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public T decode(byte[] bytes) {
+        return JsonUtils.toObj(new String(bytes, StandardCharsets.UTF_8), clazz);
+    }
+}
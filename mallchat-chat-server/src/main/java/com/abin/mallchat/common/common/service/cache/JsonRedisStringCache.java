@@ -0,0 +1,31 @@
+package com.abin.mallchat.common.common.service.cache;
+
+import com.abin.mallchat.common.common.utils.RedisUtils;
+
+import java.util.Collections;
+
+/**
+ * Description: 固定用json编码的批量缓存，redis脚本能直接读值里的字段，支持按版本写入。
+ * 编码方式不能再改，需要按版本写入的缓存继承这个类，用错编码在编译期就报错
+ * Author: <a href="https://github.com/zongzibinbin">abin</a>
+ * Date: 2023-10-18
+ */
+public abstract class JsonRedisStringCache<IN, OUT> extends AbstractRedisStringCache<IN, OUT> {
+
+    @Override
+    protected final CacheCodec<OUT> createCodec(Class<OUT> outClass) {
+        return new JsonCacheCodec<>(outClass);
+    }
+
+    /**
+     * 按值里的版本字段写入，redis里已有更新或者相同的版本时放弃，乱序的旧值不会覆盖新值
+     *
+     * @return true 写入成功
+     */
+    public boolean putIfNewer(IN req, OUT value, String versionField, long version) {
+        String key = getKey(req);
+        boolean success = RedisUtils.setIfNewer(key, value, versionField, version, getExpireSeconds());
+        evictNearCache(Collections.singletonList(key));
+        return success;
+    }
+}
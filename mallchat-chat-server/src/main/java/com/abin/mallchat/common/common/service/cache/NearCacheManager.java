@@ -0,0 +1,152 @@
+package com.abin.mallchat.common.common.service.cache;
+
+import cn.hutool.core.collection.CollUtil;
+import cn.hutool.core.thread.NamedThreadFactory;
+import com.abin.mallchat.common.common.config.NearCacheProperties;
+import com.abin.mallchat.common.common.constant.MQConstant;
+import com.abin.mallchat.common.common.domain.dto.CacheEvictDTO;
+import com.abin.mallchat.common.common.factory.MyThreadFactory;
+import com.abin.mallchat.transaction.service.MQProducer;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Description: 批量缓存的本地一级缓存管理。
+ * 每个缓存按名字登记在这里，任何节点删缓存时通过mq广播，所有节点收到后清掉自己本地的那几个key。
+ * 其他节点本地的短时缓存（比如历史消息预取）也可以登记一个清理方法，共用这条广播。
+ * 删除频繁时一个窗口内的key按缓存名攒起来合并成一条广播，本节点不等窗口马上清。
+ * 广播丢了也只会旧到本地缓存过期
+ * Author: <a href="https://github.com/zongzibinbin">abin</a>
+ * Date: 2023-10-18
+ */
+@Slf4j
+@Component
+public class NearCacheManager {
+    /**
+     * 单条广播最多携带的key数，超过就拆成多条，避免单条消息过大
+     */
+    private static final int MAX_BATCH_SIZE = 1000;
+
+    private final Map<String, Consumer<List<String>>> evictors = new ConcurrentHashMap<>();
+    /**
+     * 窗口内待广播的key，按缓存名分开
+     */
+    private final ConcurrentHashMap<String, Set<String>> pending = new ConcurrentHashMap<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private ScheduledExecutorService scheduler;
+
+    @Autowired
+    private NearCacheProperties nearCacheProperties;
+    @Autowired
+    private NearCacheMetrics nearCacheMetrics;
+    @Autowired
+    private MQProducer mqProducer;
+
+    @PostConstruct
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(new MyThreadFactory(new NamedThreadFactory("near-cache-evict-", true)));
+    }
+
+    @PreDestroy
+    public void stop() {
+        scheduler.shutdown();
+        flush();
+    }
+
+    /**
+     * 登记缓存，开启本地缓存时返回它的一级缓存，没开返回null。
+     * 一级缓存里存编码后的值，命中时解码出新对象，调用方改了也不会影响别人
+     */
+    public Cache<String, byte[]> register(String cacheName, AbstractRedisStringCache<?, ?> cache) {
+        evictors.put(cacheName, cache::evictLocal);
+        if (!nearCacheProperties.isEnabled()) {
+            return null;
+        }
+        return Caffeine.newBuilder()
+                .expireAfterWrite(nearCacheProperties.getExpireSeconds(), TimeUnit.SECONDS)
+                .maximumSize(nearCacheProperties.getMaximumSize())
+                .build();
+    }
+
+    /**
+     * 登记一个本地缓存的清理方法，收到同名的失效广播时调用
+     */
+    public void registerEvictor(String name, Consumer<List<String>> evictor) {
+        evictors.put(name, evictor);
+    }
+
+    public NearCacheMetrics getMetrics() {
+        return nearCacheMetrics;
+    }
+
+    /**
+     * 通知所有节点（包括自己）清掉这些key，开启合并时等窗口结束一起发
+     */
+    public void broadcastEvict(String cacheName, List<String> keys) {
+        long window = nearCacheProperties.getBroadcastWindowMillis();
+        if (window <= 0) {
+            send(cacheName, keys);
+            return;
+        }
+        //和flush的remove在同一个key上互斥，取走之后不会再有人往旧集合里加
+        pending.compute(cacheName, (name, set) -> {
+            Set<String> merged = Objects.isNull(set) ? new LinkedHashSet<>() : set;
+            merged.addAll(keys);
+            return merged;
+        });
+        //窗口内只有第一个删除负责调度flush
+        if (flushScheduled.compareAndSet(false, true)) {
+            scheduler.schedule(this::flush, window, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flush() {
+        //先放开调度标记再取数据，flush期间新进来的key会开启下一个窗口，不会漏
+        flushScheduled.set(false);
+        for (String cacheName : pending.keySet()) {
+            Set<String> keys = pending.remove(cacheName);
+            if (Objects.isNull(keys)) {
+                continue;
+            }
+            for (List<String> batch : CollUtil.split(new ArrayList<>(keys), MAX_BATCH_SIZE)) {
+                send(cacheName, batch);
+            }
+        }
+    }
+
+    private void send(String cacheName, List<String> keys) {
+        try {
+            mqProducer.sendMsg(MQConstant.CACHE_EVICT_TOPIC, new CacheEvictDTO(cacheName, keys));
+        } catch (Exception e) {
+            log.warn("near cache evict broadcast failed, cache:{}, keys:{}", cacheName, keys, e);
+        }
+    }
+
+    /**
+     * 收到失效广播
+     */
+    public void onEvict(CacheEvictDTO dto) {
+        Consumer<List<String>> evictor = evictors.get(dto.getCacheName());
+        if (Objects.nonNull(evictor)) {
+            evictor.accept(dto.getKeys());
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.abin.mallchat.common.common.service.cache;
+
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Description: 批量缓存各级命中统计，按缓存名分开，开启spring.jmx.enabled后可通过jmx查看
+ * Author: <a href="https://github.com/zongzibinbin">abin</a>
+ * Date: 2023-10-18
+ */
+@Component
+@ManagedResource(objectName = "mallchat:name=nearCacheMetrics")
+public class NearCacheMetrics {
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+
+    /**
+     * 记录一次批量查询，各级分别命中了多少个key
+     */
+    public void record(String cacheName, int localHit, int remoteHit, int load) {
+        Counter counter = counters.computeIfAbsent(cacheName, k -> new Counter());
+        counter.localHit.add(localHit);
+        counter.remoteHit.add(remoteHit);
+        counter.load.add(load);
+    }
+
+    public void evicted(String cacheName, int count) {
+        counters.computeIfAbsent(cacheName, k -> new Counter()).evicted.add(count);
+    }
+
+    /**
+     * 本地缓存命中率
+     */
+    @ManagedAttribute
+    public Map<String, Double> getLocalHitRatio() {
+        return collect(c -> ratio(c.localHit.sum(), c.localHit.sum() + c.remoteHit.sum() + c.load.sum()));
+    }
+
+    /**
+     * 本地没命中的key里，redis命中的比例
+     */
+    @ManagedAttribute
+    public Map<String, Double> getRemoteHitRatio() {
+        return collect(c -> ratio(c.remoteHit.sum(), c.remoteHit.sum() + c.load.sum()));
+    }
+
+    @ManagedAttribute
+    public Map<String, Long> getLocalHit() {
+        return collect(c -> c.localHit.sum());
+    }
+
+    @ManagedAttribute
+    public Map<String, Long> getRemoteHit() {
+        return collect(c -> c.remoteHit.sum());
+    }
+
+    /**
+     * 两级都没命中、回源加载的key数
+     */
+    @ManagedAttribute
+    public Map<String, Long> getLoad() {
+        return collect(c -> c.load.sum());
+    }
+
+    /**
+     * 本地失效的key数，包括收到其他节点的广播
+     */
+    @ManagedAttribute
+    public Map<String, Long> getEvicted() {
+        return collect(c -> c.evicted.sum());
+    }
+
+    private <T> Map<String, T> collect(Function<Counter, T> mapper) {
+        Map<String, T> result = new TreeMap<>();
+        counters.forEach((name, counter) -> result.put(name, mapper.apply(counter)));
+        return result;
+    }
+
+    private static double ratio(long hit, long total) {
+        return total == 0 ? 0 : (double) hit / total;
+    }
+
+    private static class Counter {
+        private final LongAdder localHit = new LongAdder();
+        private final LongAdder remoteHit = new LongAdder();
+        private final LongAdder load = new LongAdder();
+        private final LongAdder evicted = new LongAdder();
+    }
+}
@@ -1,19 +1,28 @@
 package com.abin.mallchat.common.common.utils;
 
+import cn.hutool.core.lang.Pair;
 import cn.hutool.extra.spring.SpringUtil;
 import com.abin.mallchat.utils.JsonUtils;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.redis.connection.RedisConnection;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisPipelineException;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.connection.ReturnType;
 import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisConnectionUtils;
 import org.springframework.data.redis.core.ScanOptions;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.ZSetOperations.TypedTuple;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.core.types.Expiration;
 
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
@@ -36,6 +45,132 @@ public class RedisUtils {
                     "  return tonumber(redis.call('INCR',key)) \n" +
                     "end ";
 
+    /**
+     * 按id分配自增序号，同一个id重复分配返回第一次的结果。计数器不存在时返回0，由调用方带上初始值再调一次
+     */
+    private static final String LUA_ASSIGN_SEQ =
+            "local assigned=redis.call('GET',KEYS[2]) \n" +
+                    "if assigned then \n" +
+                    "  return tonumber(assigned) \n" +
+                    "end \n" +
+                    "if redis.call('EXISTS',KEYS[1])==0 then \n" +
+                    "  if ARGV[1]=='' then \n" +
+                    "    return 0 \n" +
+                    "  end \n" +
+                    "  redis.call('SET',KEYS[1],ARGV[1]) \n" +
+                    "end \n" +
+                    "local seq=redis.call('INCR',KEYS[1]) \n" +
+                    "redis.call('SET',KEYS[2],seq,'EX',ARGV[2]) \n" +
+                    "return seq ";
+
+    private static final RedisScript<Long> LUA_HINCR_IF_ABOVE_MARK = new DefaultRedisScript<>("if redis.call('HEXISTS',KEYS[1],ARGV[1])==0 then \n" +
+            "  return 0 \n" +
+            "end \n" +
+            "local mark=redis.call('HGET',KEYS[1],ARGV[2]) \n" +
+            "if mark and tonumber(mark)>=tonumber(ARGV[3]) then \n" +
+            "  return 0 \n" +
+            "end \n" +
+            "return redis.call('HINCRBY',KEYS[1],ARGV[1],ARGV[4]) ", Long.class);
+
+    private static final RedisScript<Long> LUA_HSET_IF_ABSENT_WITH_MARK = new DefaultRedisScript<>("if redis.call('HSETNX',KEYS[1],ARGV[1],ARGV[2])==1 then \n" +
+            "  redis.call('HSET',KEYS[1],ARGV[3],ARGV[4]) \n" +
+            "end \n" +
+            "redis.call('EXPIRE',KEYS[1],ARGV[5]) \n" +
+            "return 1 ", Long.class);
+
+    private static final String LUA_HDEL_IF_EQUALS =
+            "local removed=0 \n" +
+                    "for i=1,#ARGV,2 do \n" +
+                    "  if redis.call('HGET',KEYS[1],ARGV[i])==ARGV[i+1] then \n" +
+                    "    removed=removed+redis.call('HDEL',KEYS[1],ARGV[i]) \n" +
+                    "  end \n" +
+                    "end \n" +
+                    "return removed ";
+
+    private static final String LUA_ZREM_IF_SCORE =
+            "if tonumber(redis.call('ZSCORE',KEYS[1],ARGV[1]))==tonumber(ARGV[2]) then \n" +
+                    "  return redis.call('ZREM',KEYS[1],ARGV[1]) \n" +
+                    "end \n" +
+                    "return 0 ";
+
+    /**
+     * 已经在队列里的id，旧内容没有序号（message.seq）时覆盖，有序号的忽略
+     */
+    private static final String LUA_RING_PUSH =
+            "if redis.call('EXISTS',KEYS[1])==0 then \n" +
+                    "  return 0 \n" +
+                    "end \n" +
+                    "local old=redis.call('HGET',KEYS[2],ARGV[1]) \n" +
+                    "if old then \n" +
+                    "  local ok,obj=pcall(cjson.decode,old) \n" +
+                    "  local msg=ok and type(obj)=='table' and obj['message'] \n" +
+                    "  if type(msg)=='table' and msg['seq'] and msg['seq']~=cjson.null then \n" +
+                    "    return 0 \n" +
+                    "  end \n" +
+                    "  redis.call('HSET',KEYS[2],ARGV[1],ARGV[2]) \n" +
+                    "  return 1 \n" +
+                    "end \n" +
+                    "redis.call('LPUSH',KEYS[1],ARGV[1]) \n" +
+                    "redis.call('HSET',KEYS[2],ARGV[1],ARGV[2]) \n" +
+                    "while redis.call('LLEN',KEYS[1])>tonumber(ARGV[3]) do \n" +
+                    "  redis.call('HDEL',KEYS[2],redis.call('RPOP',KEYS[1])) \n" +
+                    "end \n" +
+                    "redis.call('EXPIRE',KEYS[1],ARGV[4]) \n" +
+                    "redis.call('EXPIRE',KEYS[2],ARGV[4]) \n" +
+                    "return 1 ";
+
+    private static final String LUA_RING_INIT =
+            "if redis.call('EXISTS',KEYS[1])==1 then \n" +
+                    "  return 0 \n" +
+                    "end \n" +
+                    "for i=2,#ARGV,2 do \n" +
+                    "  redis.call('RPUSH',KEYS[1],ARGV[i]) \n" +
+                    "  redis.call('HSET',KEYS[2],ARGV[i],ARGV[i+1]) \n" +
+                    "end \n" +
+                    "redis.call('EXPIRE',KEYS[1],ARGV[1]) \n" +
+                    "redis.call('EXPIRE',KEYS[2],ARGV[1]) \n" +
+                    "return 1 ";
+
+    private static final String LUA_RING_RANGE =
+            "local ids=redis.call('LRANGE',KEYS[1],0,tonumber(ARGV[1])-1) \n" +
+                    "if #ids==0 then \n" +
+                    "  return {} \n" +
+                    "end \n" +
+                    "return redis.call('HMGET',KEYS[2],unpack(ids)) ";
+
+    private static final String LUA_HSET_IF_FIELD_EXISTS =
+            "if redis.call('HEXISTS',KEYS[1],ARGV[1])==1 then \n" +
+                    "  redis.call('HSET',KEYS[1],ARGV[1],ARGV[2]) \n" +
+                    "  return 1 \n" +
+                    "end \n" +
+                    "return 0 ";
+
+    /**
+     * 只有严格更新的版本才写入，版本相同也放弃。旧值不是json或者没有版本字段时当作没有版本，直接覆盖
+     */
+    private static final String LUA_SET_IF_NEWER =
+            "local old=redis.call('GET',KEYS[1]) \n" +
+                    "if old then \n" +
+                    "  local ok,obj=pcall(cjson.decode,old) \n" +
+                    "  local v=ok and type(obj)=='table' and tonumber(obj[ARGV[1]]) \n" +
+                    "  if v and v>=tonumber(ARGV[2]) then \n" +
+                    "    return 0 \n" +
+                    "  end \n" +
+                    "end \n" +
+                    "redis.call('SET',KEYS[1],ARGV[3],'EX',ARGV[4]) \n" +
+                    "return 1 ";
+    private static final RedisScript<Long> SET_IF_NEWER_SCRIPT = new DefaultRedisScript<>(LUA_SET_IF_NEWER, Long.class);
+
+    /**
+     * 计数器自增并把结果记到assignKey上，assignKey已经有值时直接返回它，不再自增。
+     * 计数器不存在时：init为null返回0，否则先初始化为init再自增。计数器不过期，分配记录time秒后过期
+     */
+    public static Long assignSeq(String counterKey, String assignKey, Long init, long time) {
+        RedisScript<Long> redisScript = new DefaultRedisScript<>(LUA_ASSIGN_SEQ, Long.class);
+        return stringRedisTemplate.execute(redisScript, Arrays.asList(counterKey, assignKey),
+                Objects.isNull(init) ? "" : String.valueOf(init), String.valueOf(time));
+    }
+
     public static Long inc(String key, int time, TimeUnit unit) {
         RedisScript<Long> redisScript = new DefaultRedisScript<>(LUA_INCR_EXPIRE, Long.class);
         return stringRedisTemplate.execute(redisScript, Collections.singletonList(key), String.valueOf(unit.toSeconds(time)));
@@ -263,11 +398,18 @@ public class RedisUtils {
     }
 
     public static <T> List<T> mget(Collection<String> keys, Class<T> tClass) {
+        return mgetStr(keys).stream().map(o -> toBeanOrNull(o, tClass)).collect(Collectors.toList());
+    }
+
+    /**
+     * 批量获取原始字符串，返回顺序和keys一致，不存在的为null
+     */
+    public static List<String> mgetStr(Collection<String> keys) {
         List<String> list = stringRedisTemplate.opsForValue().multiGet(keys);
         if (Objects.isNull(list)) {
             return new ArrayList<>();
         }
-        return list.stream().map(o -> toBeanOrNull(o, tClass)).collect(Collectors.toList());
+        return list;
     }
 
     static <T> T toBeanOrNull(String json, Class<T> tClass) {
@@ -278,12 +420,82 @@ public class RedisUtils {
         return JsonUtils.toStr(o);
     }
 
+    /**
+     * 批量写入并设置过期时间，一次pipeline往返。
+     * 每个key的过期时间加上最多十分之一的随机抖动，一起回填的key不会在同一时刻集体过期
+     *
+     * @param time 时间(秒) 小于等于0不设置过期
+     */
     public static <T> void mset(Map<String, T> map, long time) {
-        Map<String, String> collect = map.entrySet().stream().collect(Collectors.toMap(Map.Entry::getKey, (e) -> objToStr(e.getValue())));
-        stringRedisTemplate.opsForValue().multiSet(collect);
-        map.forEach((key, value) -> {
-            expire(key, time);
+        msetStr(map.entrySet().stream().collect(Collectors.toMap(Map.Entry::getKey, (e) -> objToStr(e.getValue()))), time);
+    }
+
+    /**
+     * 同mset，值原样写入
+     */
+    public static void msetStr(Map<String, String> map, long time) {
+        if (map.isEmpty()) {
+            return;
+        }
+        if (time <= 0) {
+            stringRedisTemplate.opsForValue().multiSet(map);
+            return;
+        }
+        msetBytes(map.entrySet().stream().collect(Collectors.toMap(Map.Entry::getKey, e -> e.getValue().getBytes(StandardCharsets.UTF_8))), time);
+    }
+
+    /**
+     * 同mset，值是已经编码好的字节，一次pipeline往返
+     *
+     * @param time 时间(秒) 小于等于0不设置过期
+     */
+    public static void msetBytes(Map<String, byte[]> map, long time) {
+        if (map.isEmpty()) {
+            return;
+        }
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            map.forEach((key, value) -> {
+                if (time > 0) {
+                    connection.setEx(key.getBytes(StandardCharsets.UTF_8), jitter(time), value);
+                } else {
+                    connection.set(key.getBytes(StandardCharsets.UTF_8), value);
+                }
+            });
+            return null;
+        });
+    }
+
+    /**
+     * 批量获取原始字节，返回顺序和keys一致，不存在的为null
+     */
+    public static List<byte[]> mgetBytes(Collection<String> keys) {
+        List<byte[]> list = stringRedisTemplate.execute((RedisCallback<List<byte[]>>) connection ->
+                connection.mGet(keys.stream().map(key -> key.getBytes(StandardCharsets.UTF_8)).toArray(byte[][]::new)));
+        if (Objects.isNull(list)) {
+            return new ArrayList<>();
+        }
+        return list;
+    }
+
+    /**
+     * 批量SET NX PX，一次pipeline往返，返回顺序和keys一致，true为抢到
+     */
+    public static List<Boolean> setIfAbsentBatch(List<String> keys, String value, long millis) {
+        List<Object> result = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+            for (String key : keys) {
+                connection.set(key.getBytes(StandardCharsets.UTF_8), valueBytes, Expiration.milliseconds(millis), RedisStringCommands.SetOption.ifAbsent());
+            }
+            return null;
         });
+        return result.stream().map(o -> Boolean.TRUE.equals(o)).collect(Collectors.toList());
+    }
+
+    /**
+     * 过期时间加上[0, time/10]的随机秒数
+     */
+    private static long jitter(long time) {
+        return time + ThreadLocalRandom.current().nextLong(time / 10 + 1);
     }
 
 
@@ -434,6 +646,249 @@ public class RedisUtils {
         }
     }
 
+    /**
+     * 一次取hash表里的多个项，返回顺序和items一致，不存在的为null
+     */
+    public static List<String> hmultiGet(String key, List<String> items) {
+        HashOperations<String, String, String> hashOperations = stringRedisTemplate.opsForHash();
+        return hashOperations.multiGet(key, items);
+    }
+
+    /**
+     * 多个hash表的同一项批量自增，一次pipeline往返。
+     * 只对已经存在的项生效，不存在的不会被创建；item+markSuffix项里记着水位线的，value不超过水位线的不加
+     */
+    public static void hincrIfAboveMarkBatch(Collection<String> keys, String item, String markSuffix, long value, long delta) {
+        byte[] itemBytes = item.getBytes(StandardCharsets.UTF_8);
+        byte[] markItemBytes = (item + markSuffix).getBytes(StandardCharsets.UTF_8);
+        byte[] valueBytes = String.valueOf(value).getBytes(StandardCharsets.UTF_8);
+        byte[] deltaBytes = String.valueOf(delta).getBytes(StandardCharsets.UTF_8);
+        List<byte[][]> calls = keys.stream()
+                .map(key -> new byte[][]{key.getBytes(StandardCharsets.UTF_8), itemBytes, markItemBytes, valueBytes, deltaBytes})
+                .collect(Collectors.toList());
+        executePipelinedScript(LUA_HINCR_IF_ABOVE_MARK, 1, calls);
+    }
+
+    /**
+     * 同一个hash表批量写入不存在的项，写入成功的同时在item+markSuffix项记下水位线，已经存在的项和水位线都不动，一次pipeline往返
+     *
+     * @param values item -> (值, 水位线)
+     */
+    public static void hsetIfAbsentWithMarkBatch(String key, Map<String, Pair<String, Long>> values, String markSuffix, long time) {
+        if (values.isEmpty()) {
+            return;
+        }
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        byte[] timeBytes = String.valueOf(time).getBytes(StandardCharsets.UTF_8);
+        List<byte[][]> calls = new ArrayList<>(values.size());
+        values.forEach((item, value) -> calls.add(new byte[][]{keyBytes,
+                item.getBytes(StandardCharsets.UTF_8),
+                value.getKey().getBytes(StandardCharsets.UTF_8),
+                (item + markSuffix).getBytes(StandardCharsets.UTF_8),
+                String.valueOf(value.getValue()).getBytes(StandardCharsets.UTF_8),
+                timeBytes}));
+        executePipelinedScript(LUA_HSET_IF_ABSENT_WITH_MARK, 1, calls);
+    }
+
+    /**
+     * 多个hash表批量删除同一项，一次pipeline往返
+     */
+    public static void hdelBatch(Collection<String> keys, String item) {
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            byte[] itemBytes = item.getBytes(StandardCharsets.UTF_8);
+            for (String key : keys) {
+                connection.hDel(key.getBytes(StandardCharsets.UTF_8), itemBytes);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 写入hash表项，同时把member放进一个索引set，一次pipeline往返，值都原样写入
+     */
+    public static void hsetAndIndex(String key, String item, String value, String setKey, String member) {
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.hSet(key.getBytes(StandardCharsets.UTF_8), item.getBytes(StandardCharsets.UTF_8), value.getBytes(StandardCharsets.UTF_8));
+            connection.sAdd(setKey.getBytes(StandardCharsets.UTF_8), member.getBytes(StandardCharsets.UTF_8));
+            return null;
+        });
+    }
+
+    /**
+     * 批量获取多个hash表的同一项，一次pipeline往返，返回顺序和keys一致，不存在的为null
+     */
+    public static List<String> hgetBatch(List<String> keys, String item) {
+        List<Object> result = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            byte[] itemBytes = item.getBytes(StandardCharsets.UTF_8);
+            for (String key : keys) {
+                connection.hGet(key.getBytes(StandardCharsets.UTF_8), itemBytes);
+            }
+            return null;
+        });
+        return result.stream().map(o -> (String) o).collect(Collectors.toList());
+    }
+
+    /**
+     * 只删除值没有变过的hash表项，值在这期间被改过的保留，返回删除的项数
+     */
+    public static Long hdelIfEquals(String key, Map<String, String> items) {
+        List<String> args = new ArrayList<>(items.size() * 2);
+        items.forEach((item, value) -> {
+            args.add(item);
+            args.add(value);
+        });
+        RedisScript<Long> redisScript = new DefaultRedisScript<>(LUA_HDEL_IF_EQUALS, Long.class);
+        return stringRedisTemplate.execute(redisScript, Collections.singletonList(key), args.toArray());
+    }
+
+    /**
+     * 按值里的版本字段写入，已有的值版本更新或者相同时放弃，防止乱序的旧值覆盖新值。
+     * 同一个版本的内容会变的（比如撤回），要给变化后的内容一个更大的版本
+     *
+     * @param versionField 值序列化成json后用来比较的数字字段
+     * @return true 写入成功
+     */
+    public static boolean setIfNewer(String key, Object value, String versionField, long version, long time) {
+        Long result = stringRedisTemplate.execute(SET_IF_NEWER_SCRIPT, Collections.singletonList(key),
+                versionField, String.valueOf(version), objToStr(value), String.valueOf(time));
+        return Objects.equals(result, 1L);
+    }
+
+    /**
+     * setIfNewer的批量版，一次pipeline往返，过期时间同样带随机抖动
+     *
+     * @param values key -> (版本号, 值)
+     */
+    public static void setIfNewerBatch(Map<String, Pair<Long, ?>> values, String versionField, long time) {
+        if (values.isEmpty()) {
+            return;
+        }
+        byte[] fieldBytes = versionField.getBytes(StandardCharsets.UTF_8);
+        List<byte[][]> calls = new ArrayList<>(values.size());
+        values.forEach((key, value) -> calls.add(new byte[][]{
+                key.getBytes(StandardCharsets.UTF_8),
+                fieldBytes,
+                String.valueOf(value.getKey()).getBytes(StandardCharsets.UTF_8),
+                objToStr(value.getValue()).getBytes(StandardCharsets.UTF_8),
+                String.valueOf(jitter(time)).getBytes(StandardCharsets.UTF_8)}));
+        executePipelinedScript(SET_IF_NEWER_SCRIPT, 1, calls);
+    }
+
+    /**
+     * pipeline里批量执行同一个脚本，按sha调用，不用每条都带上脚本正文。
+     * redis里还没有这个脚本（第一次用、重启、SCRIPT FLUSH）时对应的那几条会NOSCRIPT、没有执行，
+     * 加载一次后只重发这几条，已经执行过的不会再执行一遍，自增这类不能重复的脚本也能用
+     *
+     * @param calls 每条调用的keys和args，keys在前
+     */
+    private static void executePipelinedScript(RedisScript<?> script, int numKeys, List<byte[][]> calls) {
+        List<byte[][]> noScriptCalls = evalShaPipelined(script.getSha1(), numKeys, calls);
+        if (noScriptCalls.isEmpty()) {
+            return;
+        }
+        stringRedisTemplate.execute((RedisCallback<String>) connection ->
+                connection.scriptLoad(script.getScriptAsString().getBytes(StandardCharsets.UTF_8)));
+        if (!evalShaPipelined(script.getSha1(), numKeys, noScriptCalls).isEmpty()) {
+            throw new IllegalStateException("redis script still missing after load, sha:" + script.getSha1());
+        }
+    }
+
+    /**
+     * @return 因为NOSCRIPT没有执行的调用，其他错误直接抛出
+     */
+    private static List<byte[][]> evalShaPipelined(String sha, int numKeys, List<byte[][]> calls) {
+        try {
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (byte[][] keysAndArgs : calls) {
+                    connection.evalSha(sha, ReturnType.INTEGER, numKeys, keysAndArgs);
+                }
+                return null;
+            });
+            return Collections.emptyList();
+        } catch (RedisPipelineException e) {
+            List<Object> results = e.getPipelineResult();
+            //对不上每条的结果就不知道哪些执行过，不能重发
+            if (results.size() != calls.size()) {
+                throw e;
+            }
+            List<byte[][]> noScriptCalls = new ArrayList<>();
+            for (int i = 0; i < calls.size(); i++) {
+                Object result = results.get(i);
+                if (!(result instanceof Throwable)) {
+                    continue;
+                }
+                if (!isNoScript((Throwable) result)) {
+                    throw e;
+                }
+                noScriptCalls.add(calls.get(i));
+            }
+            return noScriptCalls;
+        }
+    }
+
+    private static boolean isNoScript(Throwable e) {
+        for (Throwable cause = e; Objects.nonNull(cause); cause = cause.getCause()) {
+            if (Objects.nonNull(cause.getMessage()) && cause.getMessage().contains("NOSCRIPT")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 固定长度的环形队列，id放list（新的在前），内容放hash。
+     * 队列还没初始化的不写，等读的时候从库里整体初始化；同一个id重复写入会忽略，只有旧内容缺序号时原地覆盖；
+     * 超过容量的从尾部淘汰，连同内容一起删
+     *
+     * @return true 写入成功
+     */
+    public static boolean ringPush(String listKey, String hashKey, String id, Object value, int capacity, long time) {
+        RedisScript<Long> redisScript = new DefaultRedisScript<>(LUA_RING_PUSH, Long.class);
+        Long result = stringRedisTemplate.execute(redisScript, Arrays.asList(listKey, hashKey),
+                id, objToStr(value), String.valueOf(capacity), String.valueOf(time));
+        return Objects.equals(result, 1L);
+    }
+
+    /**
+     * 整体初始化环形队列，已经存在的不覆盖
+     *
+     * @param entries 按队列顺序（新的在前）排好的id和内容
+     */
+    public static <T> boolean ringInit(String listKey, String hashKey, LinkedHashMap<String, T> entries, long time) {
+        List<String> args = new ArrayList<>(entries.size() * 2 + 1);
+        args.add(String.valueOf(time));
+        entries.forEach((id, value) -> {
+            args.add(id);
+            args.add(objToStr(value));
+        });
+        RedisScript<Long> redisScript = new DefaultRedisScript<>(LUA_RING_INIT, Long.class);
+        Long result = stringRedisTemplate.execute(redisScript, Arrays.asList(listKey, hashKey), args.toArray());
+        return Objects.equals(result, 1L);
+    }
+
+    /**
+     * 取环形队列前count条的内容，队列不存在返回空列表
+     */
+    public static <T> List<T> ringRange(String listKey, String hashKey, int count, Class<T> tClass) {
+        RedisScript<List> redisScript = new DefaultRedisScript<>(LUA_RING_RANGE, List.class);
+        List<?> result = stringRedisTemplate.execute(redisScript, Arrays.asList(listKey, hashKey), String.valueOf(count));
+        if (Objects.isNull(result)) {
+            return new ArrayList<>();
+        }
+        return result.stream().map(o -> toBeanOrNull((String) o, tClass)).filter(Objects::nonNull).collect(Collectors.toList());
+    }
+
+    /**
+     * hash表中已经有这一项时才更新
+     *
+     * @return true 更新成功
+     */
+    public static boolean hsetIfFieldExists(String key, String item, Object value) {
+        RedisScript<Long> redisScript = new DefaultRedisScript<>(LUA_HSET_IF_FIELD_EXISTS, Long.class);
+        Long result = stringRedisTemplate.execute(redisScript, Collections.singletonList(key), item, objToStr(value));
+        return Objects.equals(result, 1L);
+    }
+
     /**
      * 删除hash表中的值
      *
@@ -532,6 +987,13 @@ public class RedisUtils {
         }
     }
 
+    /**
+     * 随机取set里最多count个不重复的成员，不移除
+     */
+    public static Set<String> sRandomMembers(String key, long count) {
+        return stringRedisTemplate.opsForSet().distinctRandomMembers(key, count);
+    }
+
     /**
      * 将set数据放入缓存
      *
@@ -588,6 +1050,52 @@ public class RedisUtils {
         }
     }
 
+    /**
+     * 把同一个值批量放入多个set并设置过期时间，一次pipeline往返
+     *
+     * @param keys  键
+     * @param value 值，原样写入不做json序列化
+     * @param time  时间(秒)
+     */
+    public static void sSetBatch(Collection<String> keys, String value, long time) {
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+            for (String key : keys) {
+                byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+                connection.sAdd(keyBytes, valueBytes);
+                connection.expire(keyBytes, time);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 从多个set里批量移除同一个值，一次pipeline往返
+     */
+    public static void sRemoveBatch(Collection<String> keys, String value) {
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+            for (String key : keys) {
+                connection.sRem(key.getBytes(StandardCharsets.UTF_8), valueBytes);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 批量获取多个set的全部成员，一次pipeline往返，返回顺序和keys一致
+     */
+    @SuppressWarnings("unchecked")
+    public static List<Set<String>> sGetBatch(List<String> keys) {
+        List<Object> result = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String key : keys) {
+                connection.sMembers(key.getBytes(StandardCharsets.UTF_8));
+            }
+            return null;
+        });
+        return result.stream().map(o -> (Set<String>) o).collect(Collectors.toList());
+    }
+
     // ===============================list=================================
 
     /**
@@ -824,6 +1332,17 @@ public class RedisUtils {
         return stringRedisTemplate.opsForZSet().remove(key, value);
     }
 
+    /**
+     * 只有score没变过时才删除，期间被重新登记过的保留
+     *
+     * @return true 删除成功
+     */
+    public static boolean zRemoveIfScore(String key, String value, long score) {
+        RedisScript<Long> redisScript = new DefaultRedisScript<>(LUA_ZREM_IF_SCORE, Long.class);
+        Long result = stringRedisTemplate.execute(redisScript, Collections.singletonList(key), value, String.valueOf(score));
+        return Objects.equals(result, 1L);
+    }
+
     /**
      * 增加元素的score值，并返回增加后的值
      *
@@ -11,8 +11,15 @@ import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.springframework.data.util.Pair;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -27,6 +34,12 @@ import java.util.stream.Collectors;
  */
 @Slf4j
 public abstract class AbstractUrlDiscover implements UrlDiscover {
+    /**
+     * 抓取页面最多读取的字节数
+     */
+    public static final int HEAD_MAX_BYTES = 64 * 1024;
+    private static final int TIMEOUT_MILLIS = 2000;
+    private static final byte[] HEAD_END = "</head>".getBytes(StandardCharsets.US_ASCII);
     //链接识别的正则
     private static final Pattern PATTERN = Pattern.compile("((http|https)://)?(www.)?([\\w_-]+(?:(?:\\.[\\w_-]+)+))([\\w.,@?^=%&:/~+#-]*[\\w@?^=%&/~+#-])?");
 
@@ -38,7 +51,7 @@ public abstract class AbstractUrlDiscover implements UrlDiscover {
         if (StrUtil.isBlank(content)) {
             return new HashMap<>();
         }
-        List<String> matchList = ReUtil.findAll(PATTERN, content, 0);
+        List<String> matchList = findUrls(content);
 
         //并行请求
         List<CompletableFuture<Pair<String, UrlInfo>>> futures = matchList.stream().map(match -> CompletableFuture.supplyAsync(() -> {
@@ -50,10 +63,26 @@ public abstract class AbstractUrlDiscover implements UrlDiscover {
         return future.join().stream().collect(Collectors.toMap(Pair::getFirst, Pair::getSecond, (a, b) -> a));
     }
 
+    /**
+     * 找出文本里的所有链接，按出现顺序去重
+     */
+    public List<String> findUrls(String content) {
+        if (StrUtil.isBlank(content)) {
+            return new ArrayList<>();
+        }
+        return ReUtil.findAll(PATTERN, content, 0).stream().distinct().collect(Collectors.toList());
+    }
+
     @Nullable
     @Override
     public UrlInfo getContent(String url) {
-        Document document = getUrlDocument(assemble(url));
+        return getContent(url, TIMEOUT_MILLIS);
+    }
+
+    @Nullable
+    @Override
+    public UrlInfo getContent(String url, int timeoutMillis) {
+        Document document = getUrlDocument(assemble(url), timeoutMillis);
         if (Objects.isNull(document)) {
             return null;
         }
@@ -74,17 +103,58 @@ public abstract class AbstractUrlDiscover implements UrlDiscover {
         return url;
     }
 
-    protected Document getUrlDocument(String matchUrl) {
+    /**
+     * 预览需要的title、meta都在head里，只读到head结束或者读满HEAD_MAX_BYTES就断开，不下载整个页面。
+     * jsoup的超时是单次阻塞的上限，读head时再按截止时间兜底，慢速吐字节的站点也不会占着线程超过timeoutMillis太多
+     */
+    protected Document getUrlDocument(String matchUrl, int timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
         try {
-            Connection connect = Jsoup.connect(matchUrl);
-            connect.timeout(2000);
-            return connect.get();
+            Connection.Response response = Jsoup.connect(matchUrl)
+                    .timeout(timeoutMillis)
+                    .maxBodySize(HEAD_MAX_BYTES)
+                    .execute();
+            byte[] head = readHead(response.bodyStream(), deadline);
+            return Jsoup.parse(new ByteArrayInputStream(head), response.charset(), matchUrl);
         } catch (Exception e) {
-            log.error("find error:url:{}", matchUrl, e);
+            log.warn("find error:url:{}, {}", matchUrl, e.toString());
         }
         return null;
     }
 
+    private static byte[] readHead(InputStream in, long deadline) throws IOException {
+        try (InputStream body = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(8192);
+            byte[] buffer = new byte[4096];
+            int read;
+            while (out.size() < HEAD_MAX_BYTES && (read = body.read(buffer, 0, Math.min(buffer.length, HEAD_MAX_BYTES - out.size()))) != -1) {
+                //往回多看几个字节，防止</head>被切在两次读之间
+                int from = Math.max(0, out.size() - HEAD_END.length);
+                out.write(buffer, 0, read);
+                if (containsHeadEnd(out.toByteArray(), from)) {
+                    break;
+                }
+                if (System.currentTimeMillis() >= deadline) {
+                    throw new SocketTimeoutException("read head timeout");
+                }
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static boolean containsHeadEnd(byte[] bytes, int from) {
+        for (int i = from; i <= bytes.length - HEAD_END.length; i++) {
+            int j = 0;
+            while (j < HEAD_END.length && Character.toLowerCase(bytes[i + j]) == HEAD_END[j]) {
+                j++;
+            }
+            if (j == HEAD_END.length) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * 判断链接是否有效
      * 输入链接
@@ -100,6 +170,8 @@ public abstract class AbstractUrlDiscover implements UrlDiscover {
         try {
             url = new URL(href);
             HttpURLConnection httpURLConnection = (HttpURLConnection) url.openConnection();
+            httpURLConnection.setConnectTimeout(TIMEOUT_MILLIS);
+            httpURLConnection.setReadTimeout(TIMEOUT_MILLIS);
             state = httpURLConnection.getResponseCode();
             fileType = httpURLConnection.getHeaderField("Content-Disposition");
             //如果成功200，缓存304，移动302都算有效链接，并且不是下载链接
@@ -22,7 +22,7 @@ public class CommonUrlDiscover extends AbstractUrlDiscover {
         String keywords = document.head().select("meta[name=keywords]").attr("content");
         String content = StrUtil.isNotBlank(description) ? description : keywords;
         //只保留一句话的描述
-        return StrUtil.isNotBlank(content) ? content.substring(0, content.indexOf("。")) : content;
+        return StrUtil.isNotBlank(content) ? StrUtil.subBefore(content, "。", false) : content;
     }
 
     @Nullable
@@ -20,6 +20,12 @@ public interface UrlDiscover {
     @Nullable
     UrlInfo getContent(String url);
 
+    /**
+     * 抓取单个链接，连接、读取加起来不超过timeoutMillis
+     */
+    @Nullable
+    UrlInfo getContent(String url, int timeoutMillis);
+
     @Nullable
     String getTitle(Document document);
 
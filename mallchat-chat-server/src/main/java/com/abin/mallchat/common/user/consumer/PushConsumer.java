@@ -11,11 +11,16 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 /**
- * Description:
+ * Description: 每个节点只订阅全员推送和发给自己的定向推送。
+ * broker按消费组的订阅关系过滤tag，订阅不同的节点不能共用消费组，所以消费组也带上节点id。
+ * 节点id必须是配置的固定值，不开启定向推送时所有节点共用一个消费组，见 WSNodeIdEnvironmentPostProcessor
  * Author: <a href="https://github.com/zongzibinbin">abin</a>
  * Date: 2023-08-12
  */
-@RocketMQMessageListener(topic = MQConstant.PUSH_TOPIC, consumerGroup = MQConstant.PUSH_GROUP, messageModel = MessageModel.BROADCASTING)
+@RocketMQMessageListener(topic = MQConstant.PUSH_TOPIC,
+        consumerGroup = MQConstant.PUSH_GROUP + "_${mallchat.websocket.node-id}",
+        selectorExpression = MQConstant.PUSH_TAG_ALL + " || " + MQConstant.PUSH_TAG_NODE_PREFIX + "${mallchat.websocket.node-id}",
+        messageModel = MessageModel.BROADCASTING)
 @Component
 public class PushConsumer implements RocketMQListener<PushMessageDTO> {
     @Autowired
@@ -26,9 +31,7 @@ public class PushConsumer implements RocketMQListener<PushMessageDTO> {
         WSPushTypeEnum wsPushTypeEnum = WSPushTypeEnum.of(message.getPushType());
         switch (wsPushTypeEnum) {
             case USER:
-                message.getUidList().forEach(uid -> {
-                    webSocketService.sendToUid(message.getWsBaseMsg(), uid);
-                });
+                webSocketService.sendToUidList(message.getWsBaseMsg(), message.getUidList());
                 break;
             case ALL:
                 webSocketService.sendToAllOnline(message.getWsBaseMsg(), null);
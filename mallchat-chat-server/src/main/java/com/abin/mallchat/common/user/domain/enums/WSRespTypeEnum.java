@@ -28,6 +28,8 @@ public enum WSRespTypeEnum {
     RECALL(9, "消息撤回", WSMsgRecall.class),
     APPLY(10, "好友申请", WSFriendApply.class),
     MEMBER_CHANGE(11, "成员变动", WSMemberChange.class),
+    URL_PREVIEW(12, "消息链接预览", WSMsgUrlPreview.class),
+    PRESENCE_RESYNC(13, "上下线通知有丢失，前端需要重新拉取成员在线状态", null),
     ;
 
     private final Integer type;
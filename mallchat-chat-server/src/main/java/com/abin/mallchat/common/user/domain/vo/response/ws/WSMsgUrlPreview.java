@@ -0,0 +1,30 @@
+package com.abin.mallchat.common.user.domain.vo.response.ws;
+
+import com.abin.mallchat.common.common.utils.discover.domain.UrlInfo;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Map;
+
+/**
+ * Description: 消息链接预览解析完成后的补充推送。
+ * 在消息本身推送之后才开始抓取，推送各自走mq不保证先后，客户端还没有这条消息时直接丢弃即可，
+ * 预览已经先写进了消息，之后拉取消息时会带上
+ * Author: <a href="https://github.com/zongzibinbin">abin</a>
+ * Date: 2023-10-18
+ */
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class WSMsgUrlPreview {
+    @ApiModelProperty("消息id")
+    private Long msgId;
+    @ApiModelProperty("会话id")
+    private Long roomId;
+    @ApiModelProperty("链接对应的预览信息")
+    private Map<String, UrlInfo> urlContentMap;
+}
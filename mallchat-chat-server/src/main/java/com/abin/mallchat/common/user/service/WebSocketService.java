@@ -4,6 +4,8 @@ import com.abin.mallchat.common.user.domain.enums.WSBaseResp;
 import com.abin.mallchat.common.user.domain.vo.request.ws.WSAuthorize;
 import io.netty.channel.Channel;
 
+import java.util.List;
+
 public interface WebSocketService {
     /**
      * 处理用户登录请求，需要返回一张带code的二维码
@@ -63,4 +65,12 @@ public interface WebSocketService {
 
     void sendToUid(WSBaseResp<?> wsBaseResp, Long uid);
 
+    /**
+     * 推动消息给一批用户，整批只序列化一次
+     *
+     * @param wsBaseResp 发送的消息体
+     * @param uidList    接收的用户
+     */
+    void sendToUidList(WSBaseResp<?> wsBaseResp, List<Long> uidList);
+
 }
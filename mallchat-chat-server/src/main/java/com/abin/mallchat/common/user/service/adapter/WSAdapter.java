@@ -6,6 +6,7 @@ import com.abin.mallchat.common.chat.domain.dto.ChatMsgRecallDTO;
 import com.abin.mallchat.common.chat.domain.vo.response.ChatMemberStatisticResp;
 import com.abin.mallchat.common.chat.domain.vo.response.ChatMessageResp;
 import com.abin.mallchat.common.chat.service.ChatService;
+import com.abin.mallchat.common.common.utils.discover.domain.UrlInfo;
 import com.abin.mallchat.common.user.domain.entity.User;
 import com.abin.mallchat.common.user.domain.enums.ChatActiveStatusEnum;
 import com.abin.mallchat.common.user.domain.enums.WSBaseResp;
@@ -17,6 +18,8 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Description: ws消息适配器
@@ -65,20 +68,21 @@ public class WSAdapter {
     }
 
     public WSBaseResp<WSOnlineOfflineNotify> buildOnlineNotifyResp(User user) {
-        WSBaseResp<WSOnlineOfflineNotify> wsBaseResp = new WSBaseResp<>();
-        wsBaseResp.setType(WSRespTypeEnum.ONLINE_OFFLINE_NOTIFY.getType());
-        WSOnlineOfflineNotify onlineOfflineNotify = new WSOnlineOfflineNotify();
-        onlineOfflineNotify.setChangeList(Collections.singletonList(buildOnlineInfo(user)));
-        assembleNum(onlineOfflineNotify);
-        wsBaseResp.setData(onlineOfflineNotify);
-        return wsBaseResp;
+        return buildOnlineOfflineNotifyResp(Collections.singletonList(buildOnlineInfo(user)));
     }
 
     public WSBaseResp<WSOnlineOfflineNotify> buildOfflineNotifyResp(User user) {
+        return buildOnlineOfflineNotifyResp(Collections.singletonList(buildOfflineInfo(user)));
+    }
+
+    /**
+     * 一批用户的上下线变动合并成一条通知，在线人数取当前值
+     */
+    public WSBaseResp<WSOnlineOfflineNotify> buildOnlineOfflineNotifyResp(List<ChatMemberResp> changeList) {
         WSBaseResp<WSOnlineOfflineNotify> wsBaseResp = new WSBaseResp<>();
         wsBaseResp.setType(WSRespTypeEnum.ONLINE_OFFLINE_NOTIFY.getType());
         WSOnlineOfflineNotify onlineOfflineNotify = new WSOnlineOfflineNotify();
-        onlineOfflineNotify.setChangeList(Collections.singletonList(buildOfflineInfo(user)));
+        onlineOfflineNotify.setChangeList(changeList);
         assembleNum(onlineOfflineNotify);
         wsBaseResp.setData(onlineOfflineNotify);
         return wsBaseResp;
@@ -89,7 +93,7 @@ public class WSAdapter {
         onlineOfflineNotify.setOnlineNum(memberStatistic.getOnlineNum());
     }
 
-    private static ChatMemberResp buildOnlineInfo(User user) {
+    public static ChatMemberResp buildOnlineInfo(User user) {
         ChatMemberResp info = new ChatMemberResp();
         BeanUtil.copyProperties(user, info);
         info.setUid(user.getId());
@@ -98,7 +102,7 @@ public class WSAdapter {
         return info;
     }
 
-    private static ChatMemberResp buildOfflineInfo(User user) {
+    public static ChatMemberResp buildOfflineInfo(User user) {
         ChatMemberResp info = new ChatMemberResp();
         BeanUtil.copyProperties(user, info);
         info.setUid(user.getId());
@@ -107,6 +111,12 @@ public class WSAdapter {
         return info;
     }
 
+    public static WSBaseResp<?> buildPresenceResyncResp() {
+        WSBaseResp<?> wsBaseResp = new WSBaseResp<>();
+        wsBaseResp.setType(WSRespTypeEnum.PRESENCE_RESYNC.getType());
+        return wsBaseResp;
+    }
+
     public static WSBaseResp<WSLoginSuccess> buildInvalidateTokenResp() {
         WSBaseResp<WSLoginSuccess> wsBaseResp = new WSBaseResp<>();
         wsBaseResp.setType(WSRespTypeEnum.INVALIDATE_TOKEN.getType());
@@ -138,4 +148,11 @@ public class WSAdapter {
         wsBaseResp.setData(resp);
         return wsBaseResp;
     }
+
+    public static WSBaseResp<WSMsgUrlPreview> buildMsgUrlPreview(Long msgId, Long roomId, Map<String, UrlInfo> urlContentMap) {
+        WSBaseResp<WSMsgUrlPreview> wsBaseResp = new WSBaseResp<>();
+        wsBaseResp.setType(WSRespTypeEnum.URL_PREVIEW.getType());
+        wsBaseResp.setData(new WSMsgUrlPreview(msgId, roomId, urlContentMap));
+        return wsBaseResp;
+    }
 }
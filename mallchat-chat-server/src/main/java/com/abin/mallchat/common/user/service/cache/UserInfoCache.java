@@ -2,6 +2,9 @@ package com.abin.mallchat.common.user.service.cache;
 
 import com.abin.mallchat.common.common.constant.RedisKey;
 import com.abin.mallchat.common.common.service.cache.AbstractRedisStringCache;
+import com.abin.mallchat.common.common.service.cache.BinaryCacheCodec;
+import com.abin.mallchat.common.common.service.cache.CacheCodec;
+import com.abin.mallchat.common.common.service.cache.CompressedCacheCodec;
 import com.abin.mallchat.common.user.dao.UserDao;
 import com.abin.mallchat.common.user.domain.entity.User;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -32,6 +35,14 @@ public class UserInfoCache extends AbstractRedisStringCache<Long, User> {
         return 5 * 60L;
     }
 
+    /**
+     * 用户信息读得最多，ip信息里的两份地址详情基本一样，二进制编码再压缩，redis里占用小得多
+     */
+    @Override
+    protected CacheCodec<User> createCodec(Class<User> outClass) {
+        return new CompressedCacheCodec<>(new BinaryCacheCodec<>(outClass));
+    }
+
     @Override
     protected Map<Long, User> load(List<Long> uidList) {
         List<User> needLoadUserList = userDao.listByIds(uidList);
@@ -2,6 +2,8 @@ package com.abin.mallchat.common.user.service.cache;
 
 import com.abin.mallchat.common.common.constant.RedisKey;
 import com.abin.mallchat.common.common.service.cache.AbstractRedisStringCache;
+import com.abin.mallchat.common.common.service.cache.BinaryCacheCodec;
+import com.abin.mallchat.common.common.service.cache.CacheCodec;
 import com.abin.mallchat.common.user.dao.UserBackpackDao;
 import com.abin.mallchat.common.user.domain.dto.SummeryInfoDTO;
 import com.abin.mallchat.common.user.domain.entity.*;
@@ -37,6 +39,14 @@ public class UserSummaryCache extends AbstractRedisStringCache<Long, SummeryInfo
         return 10 * 60L;
     }
 
+    /**
+     * 用户聚合信息量大，存二进制编码，去掉json字段名
+     */
+    @Override
+    protected CacheCodec<SummeryInfoDTO> createCodec(Class<SummeryInfoDTO> outClass) {
+        return new BinaryCacheCodec<>(outClass);
+    }
+
     @Override
     protected Map<Long, SummeryInfoDTO> load(List<Long> uidList) {//后续可优化徽章信息也异步加载
         //用户基本信息
@@ -0,0 +1,106 @@
+package com.abin.mallchat.common.user.service.impl;
+
+import cn.hutool.core.collection.CollUtil;
+import cn.hutool.core.thread.NamedThreadFactory;
+import com.abin.mallchat.common.common.config.WebSocketProperties;
+import com.abin.mallchat.common.common.factory.MyThreadFactory;
+import com.abin.mallchat.common.user.domain.entity.User;
+import com.abin.mallchat.common.user.domain.vo.response.ws.ChatMemberResp;
+import com.abin.mallchat.common.user.service.adapter.WSAdapter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Description: 上下线通知合并。
+ * 发版或者网络抖动后大量用户同时重连，每个上下线都全员推送一次会产生N²个帧，
+ * 这里把一个窗口内的变动攒起来，同一个用户只保留最后的状态，窗口结束时合并成一条通知推送。
+ * Author: <a href="https://github.com/zongzibinbin">abin</a>
+ * Date: 2023-10-18
+ */
+@Slf4j
+@Component
+public class PresenceAggregator {
+    /**
+     * 单条通知最多携带的变动数，超过就拆成多条，避免单帧过大
+     */
+    private static final int MAX_BATCH_SIZE = 1000;
+
+    @Autowired
+    private WSAdapter wsAdapter;
+    @Autowired
+    private PushService pushService;
+    @Autowired
+    private WebSocketProperties webSocketProperties;
+
+    private final ConcurrentHashMap<Long, ChatMemberResp> pending = new ConcurrentHashMap<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(new MyThreadFactory(new NamedThreadFactory("presence-", true)));
+    }
+
+    @PreDestroy
+    public void stop() {
+        scheduler.shutdown();
+    }
+
+    public void online(User user) {
+        submit(WSAdapter.buildOnlineInfo(user));
+    }
+
+    public void offline(User user) {
+        submit(WSAdapter.buildOfflineInfo(user));
+    }
+
+    private void submit(ChatMemberResp change) {
+        long window = webSocketProperties.getPresenceWindowMillis();
+        if (window <= 0) {
+            push(CollUtil.newArrayList(change));
+            return;
+        }
+        pending.put(change.getUid(), change);
+        //窗口内只有第一个变动负责调度flush
+        if (flushScheduled.compareAndSet(false, true)) {
+            scheduler.schedule(this::flush, window, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flush() {
+        //先放开调度标记再取数据，flush期间新进来的变动会开启下一个窗口，不会漏
+        flushScheduled.set(false);
+        List<ChatMemberResp> changeList = new ArrayList<>(pending.size());
+        for (Long uid : pending.keySet()) {
+            ChatMemberResp change = pending.remove(uid);
+            if (change != null) {
+                changeList.add(change);
+            }
+        }
+        if (changeList.isEmpty()) {
+            return;
+        }
+        try {
+            for (List<ChatMemberResp> batch : CollUtil.split(changeList, MAX_BATCH_SIZE)) {
+                push(batch);
+            }
+        } catch (Exception e) {
+            log.error("上下线通知推送失败，丢弃{}条变动", changeList.size(), e);
+        }
+    }
+
+    private void push(List<ChatMemberResp> changeList) {
+        pushService.sendPushMsg(wsAdapter.buildOnlineOfflineNotifyResp(changeList));
+    }
+}
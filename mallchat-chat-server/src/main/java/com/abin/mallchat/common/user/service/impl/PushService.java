@@ -1,33 +1,64 @@
 package com.abin.mallchat.common.user.service.impl;
 
+import com.abin.mallchat.common.common.config.WebSocketProperties;
 import com.abin.mallchat.common.common.constant.MQConstant;
 import com.abin.mallchat.common.common.domain.dto.PushMessageDTO;
 import com.abin.mallchat.common.user.domain.enums.WSBaseResp;
+import com.abin.mallchat.common.websocket.WSRouteRegistry;
 import com.abin.mallchat.transaction.service.MQProducer;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Description:
  * Author: <a href="https://github.com/zongzibinbin">abin</a>
  * Date: 2023-08-12
  */
+@Slf4j
 @Service
 public class PushService {
     @Autowired
     private MQProducer mqProducer;
+    @Autowired
+    private WSRouteRegistry wsRouteRegistry;
+    @Autowired
+    private WebSocketProperties webSocketProperties;
 
+    /**
+     * 按uid连接所在的节点拆成多条，每个节点只收到连在自己身上的uid。
+     * 路由查询失败时退化为全部节点广播，由各节点自己过滤本地连接
+     */
     public void sendPushMsg(WSBaseResp<?> msg, List<Long> uidList) {
-        mqProducer.sendMsg(MQConstant.PUSH_TOPIC, new PushMessageDTO(uidList, msg));
+        if (!webSocketProperties.isPushRouting()) {
+            mqProducer.sendMsg(destination(MQConstant.PUSH_TAG_ALL), new PushMessageDTO(uidList, msg));
+            return;
+        }
+        Map<String, List<Long>> nodeUidMap;
+        try {
+            nodeUidMap = wsRouteRegistry.groupByNode(uidList);
+        } catch (Exception e) {
+            log.error("ws路由查询失败，退化为广播推送", e);
+            mqProducer.sendMsg(destination(MQConstant.PUSH_TAG_ALL), new PushMessageDTO(uidList, msg));
+            return;
+        }
+        nodeUidMap.forEach((nodeId, uids) ->
+                mqProducer.sendMsg(destination(MQConstant.PUSH_TAG_NODE_PREFIX + nodeId), new PushMessageDTO(uids, msg)));
     }
 
     public void sendPushMsg(WSBaseResp<?> msg, Long uid) {
-        mqProducer.sendMsg(MQConstant.PUSH_TOPIC, new PushMessageDTO(uid, msg));
+        sendPushMsg(msg, Collections.singletonList(uid));
     }
 
     public void sendPushMsg(WSBaseResp<?> msg) {
-        mqProducer.sendMsg(MQConstant.PUSH_TOPIC, new PushMessageDTO(msg));
+        mqProducer.sendMsg(destination(MQConstant.PUSH_TAG_ALL), new PushMessageDTO(msg));
+    }
+
+    private static String destination(String tag) {
+        return MQConstant.PUSH_TOPIC + ":" + tag;
     }
 }
@@ -2,8 +2,8 @@ package com.abin.mallchat.common.user.service.impl;
 
 import cn.hutool.core.collection.CollectionUtil;
 import cn.hutool.core.util.ObjectUtil;
-import cn.hutool.json.JSONUtil;
 import com.abin.mallchat.common.common.config.ThreadPoolConfig;
+import com.abin.mallchat.common.common.config.WebSocketProperties;
 import com.abin.mallchat.common.common.constant.RedisKey;
 import com.abin.mallchat.common.common.event.UserOfflineEvent;
 import com.abin.mallchat.common.common.event.UserOnlineEvent;
@@ -20,11 +20,17 @@ import com.abin.mallchat.common.user.service.WebSocketService;
 import com.abin.mallchat.common.user.service.adapter.WSAdapter;
 import com.abin.mallchat.common.user.service.cache.UserCache;
 import com.abin.mallchat.common.websocket.NettyUtil;
+import com.abin.mallchat.common.websocket.WSBackpressureHandler;
+import com.abin.mallchat.common.websocket.WSChannelRegistry;
+import com.abin.mallchat.common.websocket.WSCodec;
+import com.abin.mallchat.common.websocket.WSPushMetrics;
+import com.abin.mallchat.common.websocket.WSRouteRegistry;
 import com.abin.mallchat.transaction.service.MQProducer;
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
-import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.channel.EventLoop;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import me.chanjar.weixin.mp.api.WxMpService;
@@ -32,16 +38,16 @@ import me.chanjar.weixin.mp.bean.result.WxMpQrCodeTicket;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.task.TaskRejectedException;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Component;
 
 import java.time.Duration;
-import java.util.Date;
-import java.util.Objects;
-import java.util.Optional;
+import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 /**
  * Description: websocket处理类
@@ -65,10 +71,6 @@ public class WebSocketServiceImpl implements WebSocketService {
      * 所有已连接的websocket连接列表和一些额外参数
      */
     private static final ConcurrentHashMap<Channel, WSChannelExtraDTO> ONLINE_WS_MAP = new ConcurrentHashMap<>();
-    /**
-     * 所有在线的用户和对应的socket
-     */
-    private static final ConcurrentHashMap<Long, CopyOnWriteArrayList<Channel>> ONLINE_UID_MAP = new ConcurrentHashMap<>();
 
     public static ConcurrentHashMap<Channel, WSChannelExtraDTO> getOnlineMap() {
         return ONLINE_WS_MAP;
@@ -95,6 +97,16 @@ public class WebSocketServiceImpl implements WebSocketService {
     private IRoleService iRoleService;
     @Autowired
     private MQProducer mqProducer;
+    @Autowired
+    private WebSocketProperties webSocketProperties;
+    @Autowired
+    private WSPushMetrics wsPushMetrics;
+    @Autowired
+    private WSBackpressureHandler wsBackpressureHandler;
+    @Autowired
+    private WSRouteRegistry wsRouteRegistry;
+    @Autowired
+    private WSChannelRegistry wsChannelRegistry;
 
     /**
      * 处理用户登录请求，需要返回一张带code的二维码
@@ -144,13 +156,8 @@ public class WebSocketServiceImpl implements WebSocketService {
         WSChannelExtraDTO wsChannelExtraDTO = ONLINE_WS_MAP.get(channel);
         Optional<Long> uidOptional = Optional.ofNullable(wsChannelExtraDTO)
                 .map(WSChannelExtraDTO::getUid);
-        boolean offlineAll = offline(channel, uidOptional);
-        if (uidOptional.isPresent() && offlineAll) {//已登录用户断连,并且全下线成功
-            User user = new User();
-            user.setId(uidOptional.get());
-            user.setLastOptTime(new Date());
-            applicationEventPublisher.publishEvent(new UserOfflineEvent(this, user));
-        }
+        ONLINE_WS_MAP.remove(channel);
+        uidOptional.ifPresent(uid -> offline(channel, uid));
     }
 
     @Override
@@ -188,26 +195,29 @@ public class WebSocketServiceImpl implements WebSocketService {
      * 用户上线
      */
     private void online(Channel channel, Long uid) {
-        getOrInitChannelExt(channel).setUid(uid);
-        ONLINE_UID_MAP.putIfAbsent(uid, new CopyOnWriteArrayList<>());
-        ONLINE_UID_MAP.get(uid).add(channel);
-        NettyUtil.setAttr(channel, NettyUtil.UID, uid);
+        WSChannelExtraDTO channelExt = getOrInitChannelExt(channel);
+        Long oldUid = channelExt.getUid();
+        if (Objects.nonNull(oldUid) && !oldUid.equals(uid)) {//同一个连接换了账号登录，旧账号按断连处理
+            offline(channel, oldUid);
+        }
+        channelExt.setUid(uid);
+        if (wsChannelRegistry.add(uid, channel)) {
+            wsRouteRegistry.online(uid);
+        }
     }
 
     /**
-     * 用户下线
-     * return 是否全下线成功
+     * 用户的这个连接下线，是该用户在本节点的最后一个连接时摘掉路由并发送下线事件
      */
-    private boolean offline(Channel channel, Optional<Long> uidOptional) {
-        ONLINE_WS_MAP.remove(channel);
-        if (uidOptional.isPresent()) {
-            CopyOnWriteArrayList<Channel> channels = ONLINE_UID_MAP.get(uidOptional.get());
-            if (CollectionUtil.isNotEmpty(channels)) {
-                channels.removeIf(ch -> Objects.equals(ch, channel));
-            }
-            return CollectionUtil.isEmpty(ONLINE_UID_MAP.get(uidOptional.get()));
+    private void offline(Channel channel, Long uid) {
+        boolean offlineAll = wsChannelRegistry.remove(uid, channel);
+        if (offlineAll) {//已登录用户断连,并且全下线成功
+            wsRouteRegistry.offline(uid);
+            User user = new User();
+            user.setId(uid);
+            user.setLastOptTime(new Date());
+            applicationEventPublisher.publishEvent(new UserOfflineEvent(this, user));
         }
-        return true;
     }
 
     @Override
@@ -254,12 +264,14 @@ public class WebSocketServiceImpl implements WebSocketService {
     //entrySet的值不是快照数据,但是它支持遍历，所以无所谓了，不用快照也行。
     @Override
     public void sendToAllOnline(WSBaseResp<?> wsBaseResp, Long skipUid) {
+        List<Channel> channels = new ArrayList<>(ONLINE_WS_MAP.size());
         ONLINE_WS_MAP.forEach((channel, ext) -> {
             if (Objects.nonNull(skipUid) && Objects.equals(ext.getUid(), skipUid)) {
                 return;
             }
-            threadPoolTaskExecutor.execute(() -> sendMsg(channel, wsBaseResp));
+            channels.add(channel);
         });
+        sendToChannels(channels, wsBaseResp);
     }
 
     @Override
@@ -269,14 +281,83 @@ public class WebSocketServiceImpl implements WebSocketService {
 
     @Override
     public void sendToUid(WSBaseResp<?> wsBaseResp, Long uid) {
-        CopyOnWriteArrayList<Channel> channels = ONLINE_UID_MAP.get(uid);
+        sendToUidList(wsBaseResp, Collections.singletonList(uid));
+    }
+
+    @Override
+    public void sendToUidList(WSBaseResp<?> wsBaseResp, List<Long> uidList) {
+        List<Channel> channels = uidList.stream()
+                .map(wsChannelRegistry::getChannels)
+                .flatMap(Collection::stream)
+                .collect(Collectors.toList());
         if (CollectionUtil.isEmpty(channels)) {
-            log.info("用户：{}不在线", uid);
+            log.info("用户：{}不在线", uidList);
             return;
         }
-        channels.forEach(channel -> {
-            threadPoolTaskExecutor.execute(() -> sendMsg(channel, wsBaseResp));
-        });
+        sendToChannels(channels, wsBaseResp);
+    }
+
+    /**
+     * 给一批本地channel推送同一条消息，整批每种编码只序列化一次
+     */
+    private void sendToChannels(List<Channel> channels, WSBaseResp<?> wsBaseResp) {
+        if (CollectionUtil.isEmpty(channels)) {
+            return;
+        }
+        if (webSocketProperties.getPushMode() == WebSocketProperties.PushMode.EXECUTOR) {
+            sendByExecutor(channels, wsBaseResp);
+        } else {
+            sendByEventLoop(channels, wsBaseResp);
+        }
+    }
+
+    /**
+     * 整批推送作为一个任务提交到websocketExecutor，线程池满了丢弃整批
+     */
+    private void sendByExecutor(List<Channel> channels, WSBaseResp<?> wsBaseResp) {
+        try {
+            threadPoolTaskExecutor.execute(() -> {
+                //整个扇出每种编码只序列化一次，每个channel拿到的是共享内存的duplicate
+                Map<WSCodec, ByteBuf> payloads = encode(wsBaseResp, channels);
+                try {
+                    channels.forEach(channel -> sendMsg(channel, payloads, wsBaseResp.getType()));
+                } finally {
+                    release(payloads);
+                }
+            });
+        } catch (TaskRejectedException e) {
+            wsPushMetrics.dropped(channels.size());
+            log.warn("websocket推送线程池已满，丢弃{}条推送", channels.size());
+        }
+    }
+
+    /**
+     * channel按所在的事件循环分组，每个事件循环只提交一个任务，任务内先全部write再逐个flush。
+     * 写操作本来就要切到channel的事件循环执行，这样既省掉线程池排队，也不会因为队列满丢消息
+     */
+    private void sendByEventLoop(List<Channel> channels, WSBaseResp<?> wsBaseResp) {
+        Map<EventLoop, List<Channel>> eventLoopMap = channels.stream().collect(Collectors.groupingBy(Channel::eventLoop));
+        Map<WSCodec, ByteBuf> payloads = encode(wsBaseResp, channels);
+        try {
+            eventLoopMap.forEach((eventLoop, loopChannels) -> {
+                Map<WSCodec, ByteBuf> loopPayloads = retainedDuplicate(payloads);
+                try {
+                    eventLoop.execute(() -> {
+                        try {
+                            loopChannels.forEach(channel -> writeMsg(channel, loopPayloads, wsBaseResp.getType()));
+                            loopChannels.forEach(Channel::flush);
+                        } finally {
+                            release(loopPayloads);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {//事件循环已经关闭
+                    release(loopPayloads);
+                    wsPushMetrics.dropped(loopChannels.size());
+                }
+            });
+        } finally {
+            release(payloads);
+        }
     }
 
 
@@ -287,7 +368,75 @@ public class WebSocketServiceImpl implements WebSocketService {
      * @param wsBaseResp
      */
     private void sendMsg(Channel channel, WSBaseResp<?> wsBaseResp) {
-        channel.writeAndFlush(new TextWebSocketFrame(JSONUtil.toJsonStr(wsBaseResp)));
+        WSCodec codec = WSCodec.of(channel);
+        channel.writeAndFlush(codec.newFrame(codec.encode(wsBaseResp)));
+    }
+
+    /**
+     * 给本地channel发送已经编码好的消息，payload的引用计数由调用方负责释放
+     *
+     * @param channel
+     * @param payloads 按编码方式区分的消息内容，取channel协商好的那一份
+     * @param respType 推送类型，写缓冲积压时据此决定合并或丢弃
+     */
+    private void sendMsg(Channel channel, Map<WSCodec, ByteBuf> payloads, Integer respType) {
+        WSCodec codec = WSCodec.of(channel);
+        ByteBuf payload = payloads.get(codec);
+        if (!channel.isActive()) {
+            wsPushMetrics.dropped(1);
+            return;
+        }
+        if (!wsBackpressureHandler.admit(channel, respType, payload)) {
+            return;
+        }
+        channel.writeAndFlush(codec.newFrame(payload.retainedDuplicate()))
+                .addListener(wsPushMetrics.countListener());
+    }
+
+    /**
+     * 只write不flush，需要在channel的事件循环里调用，由调用方统一flush
+     */
+    private void writeMsg(Channel channel, Map<WSCodec, ByteBuf> payloads, Integer respType) {
+        WSCodec codec = WSCodec.of(channel);
+        ByteBuf payload = payloads.get(codec);
+        if (!channel.isActive()) {
+            wsPushMetrics.dropped(1);
+            return;
+        }
+        if (!wsBackpressureHandler.admit(channel, respType, payload)) {
+            return;
+        }
+        channel.write(codec.newFrame(payload.retainedDuplicate()))
+                .addListener(wsPushMetrics.countListener());
+    }
+
+    /**
+     * 按这批channel实际用到的编码方式各序列化一次，写入池化的ByteBuf，用完需要release
+     */
+    private Map<WSCodec, ByteBuf> encode(WSBaseResp<?> wsBaseResp, List<Channel> channels) {
+        Map<WSCodec, ByteBuf> payloads = new EnumMap<>(WSCodec.class);
+        try {
+            for (Channel channel : channels) {
+                WSCodec codec = WSCodec.of(channel);
+                if (!payloads.containsKey(codec)) {
+                    payloads.put(codec, codec.encode(wsBaseResp));
+                }
+            }
+        } catch (RuntimeException e) {
+            release(payloads);
+            throw e;
+        }
+        return payloads;
+    }
+
+    private Map<WSCodec, ByteBuf> retainedDuplicate(Map<WSCodec, ByteBuf> payloads) {
+        Map<WSCodec, ByteBuf> duplicates = new EnumMap<>(WSCodec.class);
+        payloads.forEach((codec, payload) -> duplicates.put(codec, payload.retainedDuplicate()));
+        return duplicates;
+    }
+
+    private void release(Map<WSCodec, ByteBuf> payloads) {
+        payloads.values().forEach(ByteBuf::release);
     }
 
 }
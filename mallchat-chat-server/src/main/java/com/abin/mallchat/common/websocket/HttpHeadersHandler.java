@@ -4,6 +4,7 @@ import cn.hutool.core.net.url.UrlBuilder;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpHeaderNames;
 import io.netty.handler.codec.http.HttpHeaders;
 import org.apache.commons.lang3.StringUtils;
 
@@ -21,6 +22,10 @@ public class HttpHeadersHandler extends ChannelInboundHandlerAdapter {
             // 获取token参数
             String token = Optional.ofNullable(urlBuilder.getQuery()).map(k->k.get("token")).map(CharSequence::toString).orElse("");
             NettyUtil.setAttr(ctx.channel(), NettyUtil.TOKEN, token);
+            // 协商推送编码方式
+            String codec = Optional.ofNullable(urlBuilder.getQuery()).map(k->k.get("codec")).map(CharSequence::toString).orElse("");
+            String subProtocol = request.headers().get(HttpHeaderNames.SEC_WEBSOCKET_PROTOCOL);
+            NettyUtil.setAttr(ctx.channel(), NettyUtil.CODEC, WSCodec.negotiate(codec, subProtocol));
 
             // 获取请求路径
             request.setUri(urlBuilder.getPath().toString());
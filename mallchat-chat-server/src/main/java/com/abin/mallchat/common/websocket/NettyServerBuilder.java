@@ -0,0 +1,115 @@
+package com.abin.mallchat.common.websocket;
+
+import com.abin.mallchat.common.common.config.WebSocketProperties;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.*;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.logging.LogLevel;
+import io.netty.handler.logging.LoggingHandler;
+import io.netty.util.NettyRuntime;
+import io.netty.util.concurrent.Future;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Description: 根据配置构建netty服务端，linux下优先epoll，否则回退nio
+ * Author: <a href="https://github.com/zongzibinbin">abin</a>
+ * Date: 2023-10-18
+ */
+@Slf4j
+public class NettyServerBuilder {
+
+    private final WebSocketProperties properties;
+    private final boolean epoll;
+    private final boolean reusePort;
+    private EventLoopGroup bossGroup;
+    private EventLoopGroup workerGroup;
+
+    public NettyServerBuilder(WebSocketProperties properties) {
+        this.properties = properties;
+        this.epoll = properties.isNativeTransport() && Epoll.isAvailable();
+        if (properties.isReusePort() && !epoll) {
+            log.warn("SO_REUSEPORT只在epoll下生效，当前使用nio，忽略该配置");
+        }
+        this.reusePort = properties.isReusePort() && epoll;
+    }
+
+    public boolean isEpoll() {
+        return epoll;
+    }
+
+    /**
+     * 按配置组装ServerBootstrap，事件循环组在第一次调用时创建，之后的调用共用同一组，由shutdown统一关闭
+     */
+    public synchronized ServerBootstrap build(ChannelHandler childHandler) {
+        if (bossGroup == null) {
+            int workerThreads = properties.getWorkerThreads() > 0 ? properties.getWorkerThreads() : NettyRuntime.availableProcessors();
+            bossGroup = newEventLoopGroup(acceptorThreads());
+            workerGroup = newEventLoopGroup(workerThreads);
+        }
+        ByteBufAllocator allocator = properties.getAllocator() == WebSocketProperties.AllocatorType.UNPOOLED
+                ? UnpooledByteBufAllocator.DEFAULT : PooledByteBufAllocator.DEFAULT;
+        ServerBootstrap serverBootstrap = new ServerBootstrap();
+        serverBootstrap.group(bossGroup, workerGroup)
+                .channel(epoll ? EpollServerSocketChannel.class : NioServerSocketChannel.class)
+                .option(ChannelOption.SO_BACKLOG, properties.getBacklog())
+                .option(ChannelOption.ALLOCATOR, allocator)
+                .childOption(ChannelOption.SO_KEEPALIVE, true)
+                .childOption(ChannelOption.TCP_NODELAY, properties.isTcpNoDelay())
+                .childOption(ChannelOption.ALLOCATOR, allocator)
+                // 写缓冲水位，超过高水位channel变为不可写，由WSBackpressureHandler处理慢消费者
+                .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(
+                        properties.getWriteBufferLowWaterMark(), properties.getWriteBufferHighWaterMark()))
+                .childHandler(childHandler);
+        if (reusePort) {
+            serverBootstrap.option(EpollChannelOption.SO_REUSEPORT, true);
+        }
+        if (properties.isAcceptLog()) {
+            serverBootstrap.handler(new LoggingHandler(LogLevel.INFO));
+        }
+        return serverBootstrap;
+    }
+
+    /**
+     * 构建并绑定端口，开启reusePort时同一端口绑定多次，每个accept线程各自一个监听socket
+     */
+    public List<Channel> bind(ChannelHandler childHandler) throws InterruptedException {
+        ServerBootstrap serverBootstrap = build(childHandler);
+        List<Channel> serverChannels = new ArrayList<>();
+        for (int i = 0; i < acceptorThreads(); i++) {
+            serverChannels.add(serverBootstrap.bind(properties.getPort()).sync().channel());
+        }
+        log.info("ws server 启动成功 port:{} transport:{} acceptors:{}", properties.getPort(), epoll ? "epoll" : "nio", serverChannels.size());
+        return serverChannels;
+    }
+
+    public synchronized void shutdown() {
+        if (bossGroup == null) {
+            return;
+        }
+        Future<?> future = bossGroup.shutdownGracefully();
+        Future<?> future1 = workerGroup.shutdownGracefully();
+        future.syncUninterruptibly();
+        future1.syncUninterruptibly();
+        bossGroup = null;
+        workerGroup = null;
+    }
+
+    private int acceptorThreads() {
+        return reusePort ? Math.max(1, properties.getAcceptorThreads()) : 1;
+    }
+
+    private EventLoopGroup newEventLoopGroup(int threads) {
+        return epoll ? new EpollEventLoopGroup(threads) : new NioEventLoopGroup(threads);
+    }
+}
@@ -10,7 +10,9 @@ import com.abin.mallchat.common.user.service.WebSocketService;
 import io.netty.channel.ChannelHandler.Sharable;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
 import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
 import io.netty.handler.timeout.IdleState;
 import io.netty.handler.timeout.IdleStateEvent;
@@ -19,7 +21,7 @@ import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
 @Sharable
-public class NettyWebSocketServerHandler extends SimpleChannelInboundHandler<TextWebSocketFrame> {
+public class NettyWebSocketServerHandler extends SimpleChannelInboundHandler<WebSocketFrame> {
 
     private WebSocketService webSocketService;
 
@@ -92,13 +94,20 @@ public class NettyWebSocketServerHandler extends SimpleChannelInboundHandler<Tex
 
     // 读取客户端发送的请求报文
     @Override
-    protected void channelRead0(ChannelHandlerContext ctx, TextWebSocketFrame msg) throws Exception {
-        WSBaseReq wsBaseReq = JSONUtil.toBean(msg.text(), WSBaseReq.class);
+    protected void channelRead0(ChannelHandlerContext ctx, WebSocketFrame msg) throws Exception {
+        WSBaseReq wsBaseReq;
+        if (msg instanceof TextWebSocketFrame) {
+            wsBaseReq = JSONUtil.toBean(((TextWebSocketFrame) msg).text(), WSBaseReq.class);
+        } else if (msg instanceof BinaryWebSocketFrame) {
+            wsBaseReq = WSBinaryCodec.decodeReq(msg.content());
+        } else {
+            return;
+        }
         WSReqTypeEnum wsReqTypeEnum = WSReqTypeEnum.of(wsBaseReq.getType());
         switch (wsReqTypeEnum) {
             case LOGIN:
                 this.webSocketService.handleLoginReq(ctx.channel());
-                log.info("请求二维码 = " + msg.text());
+                log.info("请求二维码 = " + wsBaseReq);
                 break;
             case HEARTBEAT:
                 break;
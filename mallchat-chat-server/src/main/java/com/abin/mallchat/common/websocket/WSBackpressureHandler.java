@@ -0,0 +1,123 @@
+package com.abin.mallchat.common.websocket;
+
+import com.abin.mallchat.common.common.config.WebSocketProperties;
+import com.abin.mallchat.common.user.domain.enums.WSRespTypeEnum;
+import com.abin.mallchat.common.user.service.adapter.WSAdapter;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.util.AttributeKey;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Description: 出站背压处理。
+ * channel的写缓冲超过高水位后变为不可写，这期间低优先级的推送会被合并或丢弃，
+ * 上下线通知每条带的是不同用户的增量，不能只留最新一条，不可写期间全部丢掉，恢复可写后补一条重新拉取的标记，
+ * 持续不可写超过配置的时间就认为是慢消费者，直接断开连接。
+ * Author: <a href="https://github.com/zongzibinbin">abin</a>
+ * Date: 2023-10-18
+ */
+@Slf4j
+@Sharable
+@Component
+public class WSBackpressureHandler extends ChannelInboundHandlerAdapter {
+    /**
+     * 不可写期间丢弃，恢复可写后改发一条重新拉取标记的推送类型
+     */
+    private static final Set<Integer> RESYNC_TYPES = Collections.singleton(WSRespTypeEnum.ONLINE_OFFLINE_NOTIFY.getType());
+    /**
+     * 不可写期间直接丢弃的推送类型
+     */
+    private static final Set<Integer> DROP_TYPES = Collections.singleton(WSRespTypeEnum.MARK.getType());
+
+    private static final AttributeKey<Long> UNWRITABLE_SINCE = AttributeKey.valueOf("unwritableSince");
+    /**
+     * 不可写期间丢过上下线通知，恢复可写后要补发重新拉取的标记
+     */
+    private static final AttributeKey<Boolean> PRESENCE_STALE = AttributeKey.valueOf("presenceStale");
+
+    @Autowired
+    private WebSocketProperties webSocketProperties;
+    @Autowired
+    private WSPushMetrics wsPushMetrics;
+
+    /**
+     * 判断这条推送现在能否直接写出，返回false表示已经被丢弃或改为等待补发PRESENCE_RESYNC，调用方不需要再写
+     *
+     * @param channel  目标channel
+     * @param respType 推送类型
+     * @param payload  按channel协商的编码方式编码好的消息，引用计数仍由调用方负责
+     */
+    public boolean admit(Channel channel, Integer respType, ByteBuf payload) {
+        if (channel.isWritable()) {
+            return true;
+        }
+        if (RESYNC_TYPES.contains(respType)) {
+            channel.attr(PRESENCE_STALE).set(Boolean.TRUE);
+            wsPushMetrics.resyncReplaced(1);
+            //检查可写和打标记之间channel可能已经恢复可写，错过了writabilityChanged，这里补发
+            if (channel.isWritable()) {
+                resyncPresence(channel);
+            }
+            return false;
+        }
+        if (DROP_TYPES.contains(respType)) {
+            wsPushMetrics.dropped(1);
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        Channel channel = ctx.channel();
+        if (channel.isWritable()) {
+            channel.attr(UNWRITABLE_SINCE).set(null);
+            wsPushMetrics.untrack(channel);
+            resyncPresence(channel);
+        } else {
+            long since = System.nanoTime();
+            channel.attr(UNWRITABLE_SINCE).set(since);
+            wsPushMetrics.track(channel);
+            ctx.executor().schedule(() -> evictIfStillUnwritable(channel, since),
+                    webSocketProperties.getUnwritableTimeoutSeconds(), TimeUnit.SECONDS);
+        }
+        ctx.fireChannelWritabilityChanged();
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        wsPushMetrics.untrack(ctx.channel());
+        ctx.fireChannelInactive();
+    }
+
+    private void evictIfStillUnwritable(Channel channel, long since) {
+        if (channel.isActive() && !channel.isWritable() && Objects.equals(channel.attr(UNWRITABLE_SINCE).get(), since)) {
+            log.warn("channel:{} 持续{}秒不可写，断开慢消费者连接", channel.id(), webSocketProperties.getUnwritableTimeoutSeconds());
+            wsPushMetrics.evicted();
+            channel.close();
+        }
+    }
+
+    /**
+     * 标记只会被取走一次，writabilityChanged和admit并发时也只补发一条
+     */
+    private void resyncPresence(Channel channel) {
+        if (!Boolean.TRUE.equals(channel.attr(PRESENCE_STALE).getAndSet(null)) || !channel.isActive()) {
+            return;
+        }
+        WSCodec codec = WSCodec.of(channel);
+        //从pipeline尾部写，保证经过websocket编码器
+        channel.writeAndFlush(codec.newFrame(codec.encode(WSAdapter.buildPresenceResyncResp())))
+                .addListener(wsPushMetrics.countListener());
+    }
+}
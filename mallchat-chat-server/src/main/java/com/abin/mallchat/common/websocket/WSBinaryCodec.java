@@ -0,0 +1,462 @@
+package com.abin.mallchat.common.websocket;
+
+import cn.hutool.json.JSONUtil;
+import com.abin.mallchat.common.chat.domain.vo.response.ChatMessageResp;
+import com.abin.mallchat.common.chat.domain.vo.response.msg.TextMsgResp;
+import com.abin.mallchat.common.common.utils.discover.domain.UrlInfo;
+import com.abin.mallchat.common.user.domain.enums.WSBaseResp;
+import com.abin.mallchat.common.user.domain.enums.WSRespTypeEnum;
+import com.abin.mallchat.common.user.domain.vo.request.ws.WSBaseReq;
+import com.abin.mallchat.common.user.domain.vo.response.ws.ChatMemberResp;
+import com.abin.mallchat.common.user.domain.vo.response.ws.WSMsgMark;
+import com.abin.mallchat.common.user.domain.vo.response.ws.WSMsgRecall;
+import com.abin.mallchat.common.user.domain.vo.response.ws.WSOnlineOfflineNotify;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.util.CharsetUtil;
+
+import java.util.*;
+
+/**
+ * Description: websocket二进制协议编解码，直接读写ByteBuf，不经过中间字符串。
+ * <p>
+ * 帧格式：[type][data]，type为varint，data按推送类型决定布局：
+ * 新消息、上下线通知、消息标记、消息撤回这几类高频推送按字段顺序紧凑编码，其余类型的data退化为一段json字符串。
+ * <p>
+ * 基本类型约定：
+ * 整数统一为 zigzag 后 +1 的 varint，0 表示 null；
+ * 字符串、集合先写 长度+1 的 varint（0 表示 null），字符串内容为utf8；
+ * 时间写毫秒时间戳；嵌套对象前有一个字节标记是否为 null。
+ * Author: <a href="https://github.com/zongzibinbin">abin</a>
+ * Date: 2023-10-18
+ */
+public class WSBinaryCodec {
+    private static final int INITIAL_CAPACITY = 256;
+    private static final int BODY_NULL = 0;
+    private static final int BODY_TEXT = 1;
+    private static final int BODY_JSON = 2;
+
+    private WSBinaryCodec() {
+    }
+
+    /**
+     * 编码推送消息，返回的ByteBuf需要调用方release
+     */
+    public static ByteBuf encodeResp(WSBaseResp<?> resp) {
+        ByteBuf buf = ByteBufAllocator.DEFAULT.buffer(INITIAL_CAPACITY);
+        try {
+            writeInt(buf, resp.getType());
+            Object data = resp.getData();
+            WSRespTypeEnum typeEnum = WSRespTypeEnum.of(resp.getType());
+            if (Objects.isNull(typeEnum)) {
+                writeJson(buf, data);
+                return buf;
+            }
+            switch (typeEnum) {
+                case MESSAGE:
+                    writeMessage(buf, (ChatMessageResp) data);
+                    break;
+                case ONLINE_OFFLINE_NOTIFY:
+                    writeOnlineNotify(buf, (WSOnlineOfflineNotify) data);
+                    break;
+                case MARK:
+                    writeMark(buf, (WSMsgMark) data);
+                    break;
+                case RECALL:
+                    writeRecall(buf, (WSMsgRecall) data);
+                    break;
+                default:
+                    writeJson(buf, data);
+            }
+            return buf;
+        } catch (RuntimeException e) {
+            buf.release();
+            throw e;
+        }
+    }
+
+    /**
+     * 解码推送消息，给java客户端和测试使用，json兜底的data会解析成对应的dataClass
+     */
+    public static WSBaseResp<Object> decodeResp(ByteBuf buf) {
+        WSBaseResp<Object> resp = new WSBaseResp<>();
+        resp.setType(readInt(buf));
+        WSRespTypeEnum typeEnum = WSRespTypeEnum.of(resp.getType());
+        if (Objects.isNull(typeEnum)) {
+            resp.setData(readJson(buf, null));
+            return resp;
+        }
+        switch (typeEnum) {
+            case MESSAGE:
+                resp.setData(readMessage(buf));
+                break;
+            case ONLINE_OFFLINE_NOTIFY:
+                resp.setData(readOnlineNotify(buf));
+                break;
+            case MARK:
+                resp.setData(readMark(buf));
+                break;
+            case RECALL:
+                resp.setData(readRecall(buf));
+                break;
+            default:
+                resp.setData(readJson(buf, typeEnum.getDataClass()));
+        }
+        return resp;
+    }
+
+    /**
+     * 编码前端请求，返回的ByteBuf需要调用方release
+     */
+    public static ByteBuf encodeReq(WSBaseReq req) {
+        ByteBuf buf = ByteBufAllocator.DEFAULT.buffer(INITIAL_CAPACITY);
+        writeInt(buf, req.getType());
+        writeString(buf, req.getData());
+        return buf;
+    }
+
+    public static WSBaseReq decodeReq(ByteBuf buf) {
+        WSBaseReq req = new WSBaseReq();
+        req.setType(readInt(buf));
+        req.setData(readString(buf));
+        return req;
+    }
+
+    private static void writeMessage(ByteBuf buf, ChatMessageResp resp) {
+        writeLong(buf, Optional.ofNullable(resp.getFromUser()).map(ChatMessageResp.UserInfo::getUid).orElse(null));
+        ChatMessageResp.Message message = resp.getMessage();
+        buf.writeBoolean(Objects.nonNull(message));
+        if (Objects.isNull(message)) {
+            return;
+        }
+        writeLong(buf, message.getId());
+        writeLong(buf, message.getRoomId());
+        writeLong(buf, message.getSeq());
+        writeDate(buf, message.getSendTime());
+        writeInt(buf, message.getType());
+        writeInt(buf, message.getStatus());
+        ChatMessageResp.MessageMark mark = message.getMessageMark();
+        buf.writeBoolean(Objects.nonNull(mark));
+        if (Objects.nonNull(mark)) {
+            writeInt(buf, mark.getLikeCount());
+            writeInt(buf, mark.getUserLike());
+            writeInt(buf, mark.getDislikeCount());
+            writeInt(buf, mark.getUserDislike());
+        }
+        Object body = message.getBody();
+        if (Objects.isNull(body)) {
+            buf.writeByte(BODY_NULL);
+        } else if (body instanceof TextMsgResp) {
+            buf.writeByte(BODY_TEXT);
+            writeText(buf, (TextMsgResp) body);
+        } else {//图片、文件等消息体字段各不相同，走json兜底
+            buf.writeByte(BODY_JSON);
+            writeJson(buf, body);
+        }
+    }
+
+    private static ChatMessageResp readMessage(ByteBuf buf) {
+        ChatMessageResp resp = new ChatMessageResp();
+        Long fromUid = readLong(buf);
+        if (Objects.nonNull(fromUid)) {
+            ChatMessageResp.UserInfo userInfo = new ChatMessageResp.UserInfo();
+            userInfo.setUid(fromUid);
+            resp.setFromUser(userInfo);
+        }
+        if (!buf.readBoolean()) {
+            return resp;
+        }
+        ChatMessageResp.Message message = new ChatMessageResp.Message();
+        message.setId(readLong(buf));
+        message.setRoomId(readLong(buf));
+        message.setSeq(readLong(buf));
+        message.setSendTime(readDate(buf));
+        message.setType(readInt(buf));
+        message.setStatus(readInt(buf));
+        if (buf.readBoolean()) {
+            ChatMessageResp.MessageMark mark = new ChatMessageResp.MessageMark();
+            mark.setLikeCount(readInt(buf));
+            mark.setUserLike(readInt(buf));
+            mark.setDislikeCount(readInt(buf));
+            mark.setUserDislike(readInt(buf));
+            message.setMessageMark(mark);
+        }
+        int bodyType = buf.readByte();
+        if (bodyType == BODY_TEXT) {
+            message.setBody(readText(buf));
+        } else if (bodyType == BODY_JSON) {
+            message.setBody(readJson(buf, null));
+        }
+        resp.setMessage(message);
+        return resp;
+    }
+
+    private static void writeText(ByteBuf buf, TextMsgResp text) {
+        writeString(buf, text.getContent());
+        Map<String, UrlInfo> urlContentMap = text.getUrlContentMap();
+        writeSize(buf, urlContentMap);
+        if (Objects.nonNull(urlContentMap)) {
+            urlContentMap.forEach((url, info) -> {
+                writeString(buf, url);
+                buf.writeBoolean(Objects.nonNull(info));
+                if (Objects.nonNull(info)) {
+                    writeString(buf, info.getTitle());
+                    writeString(buf, info.getDescription());
+                    writeString(buf, info.getImage());
+                }
+            });
+        }
+        writeLongList(buf, text.getAtUidList());
+        TextMsgResp.ReplyMsg reply = text.getReply();
+        buf.writeBoolean(Objects.nonNull(reply));
+        if (Objects.nonNull(reply)) {
+            writeLong(buf, reply.getId());
+            writeLong(buf, reply.getUid());
+            writeString(buf, reply.getUsername());
+            writeInt(buf, reply.getType());
+            writeJson(buf, reply.getBody());
+            writeInt(buf, reply.getCanCallback());
+            writeInt(buf, reply.getGapCount());
+        }
+    }
+
+    private static TextMsgResp readText(ByteBuf buf) {
+        TextMsgResp text = new TextMsgResp();
+        text.setContent(readString(buf));
+        int urlSize = readSize(buf);
+        if (urlSize >= 0) {
+            Map<String, UrlInfo> urlContentMap = new HashMap<>(urlSize * 2);
+            for (int i = 0; i < urlSize; i++) {
+                String url = readString(buf);
+                UrlInfo info = null;
+                if (buf.readBoolean()) {
+                    info = new UrlInfo();
+                    info.setTitle(readString(buf));
+                    info.setDescription(readString(buf));
+                    info.setImage(readString(buf));
+                }
+                urlContentMap.put(url, info);
+            }
+            text.setUrlContentMap(urlContentMap);
+        }
+        text.setAtUidList(readLongList(buf));
+        if (buf.readBoolean()) {
+            TextMsgResp.ReplyMsg reply = new TextMsgResp.ReplyMsg();
+            reply.setId(readLong(buf));
+            reply.setUid(readLong(buf));
+            reply.setUsername(readString(buf));
+            reply.setType(readInt(buf));
+            reply.setBody(readJson(buf, null));
+            reply.setCanCallback(readInt(buf));
+            reply.setGapCount(readInt(buf));
+            text.setReply(reply);
+        }
+        return text;
+    }
+
+    private static void writeOnlineNotify(ByteBuf buf, WSOnlineOfflineNotify notify) {
+        List<ChatMemberResp> changeList = notify.getChangeList();
+        writeSize(buf, changeList);
+        if (Objects.nonNull(changeList)) {
+            for (ChatMemberResp member : changeList) {
+                writeLong(buf, member.getUid());
+                writeInt(buf, member.getActiveStatus());
+                writeInt(buf, member.getRoleId());
+                writeDate(buf, member.getLastOptTime());
+            }
+        }
+        writeLong(buf, notify.getOnlineNum());
+    }
+
+    private static WSOnlineOfflineNotify readOnlineNotify(ByteBuf buf) {
+        WSOnlineOfflineNotify notify = new WSOnlineOfflineNotify();
+        int size = readSize(buf);
+        if (size >= 0) {
+            List<ChatMemberResp> changeList = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                ChatMemberResp member = new ChatMemberResp();
+                member.setUid(readLong(buf));
+                member.setActiveStatus(readInt(buf));
+                member.setRoleId(readInt(buf));
+                member.setLastOptTime(readDate(buf));
+                changeList.add(member);
+            }
+            notify.setChangeList(changeList);
+        } else {
+            notify.setChangeList(null);
+        }
+        notify.setOnlineNum(readLong(buf));
+        return notify;
+    }
+
+    private static void writeMark(ByteBuf buf, WSMsgMark mark) {
+        List<WSMsgMark.WSMsgMarkItem> markList = mark.getMarkList();
+        writeSize(buf, markList);
+        if (Objects.nonNull(markList)) {
+            for (WSMsgMark.WSMsgMarkItem item : markList) {
+                writeLong(buf, item.getUid());
+                writeLong(buf, item.getMsgId());
+                writeInt(buf, item.getMarkType());
+                writeInt(buf, item.getMarkCount());
+                writeInt(buf, item.getActType());
+            }
+        }
+    }
+
+    private static WSMsgMark readMark(ByteBuf buf) {
+        WSMsgMark mark = new WSMsgMark();
+        int size = readSize(buf);
+        if (size >= 0) {
+            List<WSMsgMark.WSMsgMarkItem> markList = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                WSMsgMark.WSMsgMarkItem item = new WSMsgMark.WSMsgMarkItem();
+                item.setUid(readLong(buf));
+                item.setMsgId(readLong(buf));
+                item.setMarkType(readInt(buf));
+                item.setMarkCount(readInt(buf));
+                item.setActType(readInt(buf));
+                markList.add(item);
+            }
+            mark.setMarkList(markList);
+        }
+        return mark;
+    }
+
+    private static void writeRecall(ByteBuf buf, WSMsgRecall recall) {
+        writeLong(buf, recall.getMsgId());
+        writeLong(buf, recall.getRoomId());
+        writeLong(buf, recall.getRecallUid());
+    }
+
+    private static WSMsgRecall readRecall(ByteBuf buf) {
+        WSMsgRecall recall = new WSMsgRecall();
+        recall.setMsgId(readLong(buf));
+        recall.setRoomId(readLong(buf));
+        recall.setRecallUid(readLong(buf));
+        return recall;
+    }
+
+    private static void writeJson(ByteBuf buf, Object data) {
+        writeString(buf, Objects.isNull(data) ? null : JSONUtil.toJsonStr(data));
+    }
+
+    private static Object readJson(ByteBuf buf, Class<?> dataClass) {
+        String json = readString(buf);
+        if (Objects.isNull(json)) {
+            return null;
+        }
+        return Objects.isNull(dataClass) ? JSONUtil.parse(json) : JSONUtil.toBean(json, dataClass);
+    }
+
+    private static void writeLongList(ByteBuf buf, List<Long> list) {
+        writeSize(buf, list);
+        if (Objects.nonNull(list)) {
+            list.forEach(value -> writeLong(buf, value));
+        }
+    }
+
+    private static List<Long> readLongList(ByteBuf buf) {
+        int size = readSize(buf);
+        if (size < 0) {
+            return null;
+        }
+        List<Long> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            list.add(readLong(buf));
+        }
+        return list;
+    }
+
+    private static void writeString(ByteBuf buf, String value) {
+        if (Objects.isNull(value)) {
+            buf.writeByte(0);
+            return;
+        }
+        int length = ByteBufUtil.utf8Bytes(value);
+        writeVarLong(buf, length + 1L);
+        ByteBufUtil.reserveAndWriteUtf8(buf, value, length);
+    }
+
+    private static String readString(ByteBuf buf) {
+        long raw = readVarLong(buf);
+        if (raw == 0) {
+            return null;
+        }
+        return buf.readCharSequence((int) (raw - 1), CharsetUtil.UTF_8).toString();
+    }
+
+    private static void writeSize(ByteBuf buf, Collection<?> collection) {
+        writeVarLong(buf, Objects.isNull(collection) ? 0 : collection.size() + 1L);
+    }
+
+    private static void writeSize(ByteBuf buf, Map<?, ?> map) {
+        writeVarLong(buf, Objects.isNull(map) ? 0 : map.size() + 1L);
+    }
+
+    /**
+     * @return 集合大小，-1表示null
+     */
+    private static int readSize(ByteBuf buf) {
+        return (int) (readVarLong(buf) - 1);
+    }
+
+    private static void writeDate(ByteBuf buf, Date date) {
+        writeLong(buf, Objects.isNull(date) ? null : date.getTime());
+    }
+
+    private static Date readDate(ByteBuf buf) {
+        Long time = readLong(buf);
+        return Objects.isNull(time) ? null : new Date(time);
+    }
+
+    private static void writeInt(ByteBuf buf, Integer value) {
+        writeLong(buf, Objects.isNull(value) ? null : value.longValue());
+    }
+
+    private static Integer readInt(ByteBuf buf) {
+        Long value = readLong(buf);
+        return Objects.isNull(value) ? null : value.intValue();
+    }
+
+    /**
+     * 0留给null，所以Long.MIN_VALUE这一个值无法表示，业务里的id、时间戳、计数都用不到
+     */
+    private static void writeLong(ByteBuf buf, Long value) {
+        if (Objects.isNull(value)) {
+            buf.writeByte(0);
+            return;
+        }
+        long v = value;
+        writeVarLong(buf, ((v << 1) ^ (v >> 63)) + 1);
+    }
+
+    private static Long readLong(ByteBuf buf) {
+        long raw = readVarLong(buf);
+        if (raw == 0) {
+            return null;
+        }
+        long zigzag = raw - 1;
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+
+    private static void writeVarLong(ByteBuf buf, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buf.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buf.writeByte((int) value);
+    }
+
+    private static long readVarLong(ByteBuf buf) {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buf.readByte();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IllegalArgumentException("varint too long");
+    }
+}
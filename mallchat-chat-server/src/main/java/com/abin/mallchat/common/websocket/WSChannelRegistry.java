@@ -0,0 +1,120 @@
+package com.abin.mallchat.common.websocket;
+
+import io.netty.channel.Channel;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Description: 本节点uid和channel的对应关系。
+ * <p>
+ * 每个uid对应一个不可变的channel数组，增删都在ConcurrentHashMap的compute里完成，同一个uid的上下线串行、不同uid互不影响，
+ * 推送时的读取不加锁。一个用户同时在线的端很少，增删时复制几个元素的数组比维护一个并发集合更省，
+ * 最后一个channel下线时直接把uid从map里删掉，不会随着历史登录用户一直增长。
+ * channel当前绑定的uid记在channel属性上，下线时不需要反查。
+ * Author: <a href="https://github.com/zongzibinbin">abin</a>
+ * Date: 2023-10-18
+ */
+@Component
+public class WSChannelRegistry {
+    private final ConcurrentHashMap<Long, Channel[]> uidChannelMap = new ConcurrentHashMap<>();
+
+    /**
+     * 绑定uid和channel，channel之前绑定过别的uid会先解绑。
+     * 这里的解绑只是兜底，旧uid可能因此没有连接了，调用方应该先用remove走完旧uid的下线流程再绑定
+     *
+     * @return 是否是该uid在本节点的第一个连接
+     */
+    public boolean add(long uid, Channel channel) {
+        Long oldUid = channel.attr(NettyUtil.UID).getAndSet(uid);
+        if (Objects.nonNull(oldUid) && oldUid != uid) {
+            detach(oldUid, channel);
+        }
+        boolean[] first = new boolean[1];
+        uidChannelMap.compute(uid, (k, channels) -> {
+            if (Objects.isNull(channels)) {
+                first[0] = true;
+                return new Channel[]{channel};
+            }
+            for (Channel ch : channels) {
+                if (ch == channel) {
+                    return channels;
+                }
+            }
+            Channel[] newChannels = Arrays.copyOf(channels, channels.length + 1);
+            newChannels[channels.length] = channel;
+            return newChannels;
+        });
+        return first[0];
+    }
+
+    /**
+     * 解绑uid和channel
+     *
+     * @return 是否是这次调用摘掉了该uid在本节点的最后一个连接，重复解绑、uid本来就没有连接的都返回false
+     */
+    public boolean remove(long uid, Channel channel) {
+        channel.attr(NettyUtil.UID).compareAndSet(uid, null);
+        return detach(uid, channel);
+    }
+
+    /**
+     * 用channel属性上记录的uid解绑
+     *
+     * @return 是否是这次调用摘掉了该uid在本节点的最后一个连接，channel没有绑定uid时返回false
+     */
+    public boolean remove(Channel channel) {
+        Long uid = channel.attr(NettyUtil.UID).getAndSet(null);
+        return Objects.nonNull(uid) && detach(uid, channel);
+    }
+
+    /**
+     * uid在本节点的全部channel，返回的是快照
+     */
+    public List<Channel> getChannels(long uid) {
+        Channel[] channels = uidChannelMap.get(uid);
+        return Objects.isNull(channels) ? Collections.emptyList() : Collections.unmodifiableList(Arrays.asList(channels));
+    }
+
+    public boolean isOnline(long uid) {
+        return uidChannelMap.containsKey(uid);
+    }
+
+    /**
+     * 本节点至少有一个连接的uid，返回的是快照
+     */
+    public Set<Long> getUids() {
+        return new HashSet<>(uidChannelMap.keySet());
+    }
+
+    public int getUidCount() {
+        return uidChannelMap.size();
+    }
+
+    private boolean detach(long uid, Channel channel) {
+        //uid本来就没有entry时computeIfPresent也返回null，只有真的摘掉最后一个连接才算
+        boolean[] last = new boolean[1];
+        uidChannelMap.computeIfPresent(uid, (k, channels) -> {
+            int index = -1;
+            for (int i = 0; i < channels.length; i++) {
+                if (channels[i] == channel) {
+                    index = i;
+                    break;
+                }
+            }
+            if (index < 0) {
+                return channels;
+            }
+            if (channels.length == 1) {
+                last[0] = true;
+                return null;
+            }
+            Channel[] newChannels = new Channel[channels.length - 1];
+            System.arraycopy(channels, 0, newChannels, 0, index);
+            System.arraycopy(channels, index + 1, newChannels, index, channels.length - index - 1);
+            return newChannels;
+        });
+        return last[0];
+    }
+}
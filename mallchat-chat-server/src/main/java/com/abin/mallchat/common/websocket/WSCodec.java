@@ -0,0 +1,109 @@
+package com.abin.mallchat.common.websocket;
+
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONUtil;
+import com.abin.mallchat.common.user.domain.enums.WSBaseResp;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.Channel;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Description: websocket连接使用的编码方式，握手时通过 ?codec=binary 或子协议 mallchat.binary 协商，默认json
+ * Author: <a href="https://github.com/zongzibinbin">abin</a>
+ * Date: 2023-10-18
+ */
+@AllArgsConstructor
+@Getter
+public enum WSCodec {
+    JSON("json", "mallchat.json", "json文本帧") {
+        @Override
+        public ByteBuf encode(WSBaseResp<?> resp) {
+            String json = JSONUtil.toJsonStr(resp);
+            ByteBuf payload = ByteBufAllocator.DEFAULT.buffer(ByteBufUtil.utf8MaxBytes(json));
+            ByteBufUtil.writeUtf8(payload, json);
+            return payload;
+        }
+
+        @Override
+        public WebSocketFrame newFrame(ByteBuf payload) {
+            return new TextWebSocketFrame(payload);
+        }
+    },
+    BINARY("binary", "mallchat.binary", "紧凑二进制帧") {
+        @Override
+        public ByteBuf encode(WSBaseResp<?> resp) {
+            return WSBinaryCodec.encodeResp(resp);
+        }
+
+        @Override
+        public WebSocketFrame newFrame(ByteBuf payload) {
+            return new BinaryWebSocketFrame(payload);
+        }
+    },
+    ;
+
+    /**
+     * 握手时支持的全部子协议，逗号分隔
+     */
+    public static final String SUB_PROTOCOLS = JSON.subProtocol + "," + BINARY.subProtocol;
+
+    /**
+     * url参数 codec 的取值
+     */
+    private final String param;
+    /**
+     * websocket子协议名
+     */
+    private final String subProtocol;
+    private final String desc;
+
+    /**
+     * 把推送消息编码进新的ByteBuf，用完需要release
+     */
+    public abstract ByteBuf encode(WSBaseResp<?> resp);
+
+    /**
+     * 用编码好的内容构造对应类型的帧，帧会接管payload的一个引用
+     */
+    public abstract WebSocketFrame newFrame(ByteBuf payload);
+
+    /**
+     * 协商编码方式，url参数优先，其次是客户端声明的子协议
+     *
+     * @param codecParam  url上的codec参数
+     * @param subProtocol 请求头 Sec-WebSocket-Protocol，可能是逗号分隔的多个
+     */
+    public static WSCodec negotiate(String codecParam, String subProtocol) {
+        if (StrUtil.isNotBlank(codecParam)) {
+            return Arrays.stream(values())
+                    .filter(codec -> codec.param.equalsIgnoreCase(codecParam.trim()))
+                    .findFirst()
+                    .orElse(JSON);
+        }
+        if (StrUtil.isNotBlank(subProtocol)) {
+            //以客户端声明的第一个我们支持的子协议为准，和握手时netty选择子协议的顺序一致
+            for (String protocol : subProtocol.split(",")) {
+                for (WSCodec codec : values()) {
+                    if (codec.subProtocol.equals(protocol.trim())) {
+                        return codec;
+                    }
+                }
+            }
+        }
+        return JSON;
+    }
+
+    public static WSCodec of(Channel channel) {
+        WSCodec codec = NettyUtil.getAttr(channel, NettyUtil.CODEC);
+        return Objects.isNull(codec) ? JSON : codec;
+    }
+}
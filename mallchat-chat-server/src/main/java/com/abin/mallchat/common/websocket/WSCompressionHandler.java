@@ -0,0 +1,77 @@
+package com.abin.mallchat.common.websocket;
+
+import io.netty.handler.codec.compression.ZlibCodecFactory;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionData;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionFilter;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionFilterProvider;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketServerExtension;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketServerExtensionHandler;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketServerExtensionHandshaker;
+import io.netty.handler.codec.http.websocketx.extensions.compression.PerMessageDeflateServerExtensionHandshaker;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Description: 带阈值的permessage-deflate协商，小于阈值的帧不压缩直接发送。
+ * 小帧压缩省下的字节很少，还要白白付出deflate的cpu，所以只压大帧（带链接预览的消息等）。
+ * 双向都协商no_context_takeover：保留上下文的话每个连接常驻一个满窗口的deflater（约256KB堆外内存），
+ * 两万连接就是几个G；不保留上下文时zlib流在每条消息压完后就释放，空闲连接不占压缩内存，代价是压缩率低一些
+ * Author: <a href="https://github.com/zongzibinbin">abin</a>
+ * Date: 2023-10-18
+ */
+public class WSCompressionHandler extends WebSocketServerExtensionHandler {
+
+    public WSCompressionHandler(int compressionLevel, int threshold) {
+        super(newHandshaker(compressionLevel, threshold));
+    }
+
+    public static WebSocketServerExtensionHandshaker newHandshaker(int compressionLevel, int threshold) {
+        return new NoContextTakeoverHandshaker(new PerMessageDeflateServerExtensionHandshaker(compressionLevel,
+                ZlibCodecFactory.isSupportingWindowSizeAndMemLevel(), PerMessageDeflateServerExtensionHandshaker.MAX_WINDOW_SIZE,
+                true, true, new ThresholdFilterProvider(threshold)));
+    }
+
+    /**
+     * netty只在客户端的offer里带了no_context_takeover时才开启，这里在交给netty之前补上。
+     * 协议允许服务端在应答里主动带上这两个参数，客户端必须遵守
+     */
+    private static class NoContextTakeoverHandshaker implements WebSocketServerExtensionHandshaker {
+        private static final String SERVER_NO_CONTEXT = "server_no_context_takeover";
+        private static final String CLIENT_NO_CONTEXT = "client_no_context_takeover";
+
+        private final WebSocketServerExtensionHandshaker delegate;
+
+        NoContextTakeoverHandshaker(WebSocketServerExtensionHandshaker delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public WebSocketServerExtension handshakeExtension(WebSocketExtensionData extensionData) {
+            Map<String, String> parameters = new HashMap<>(extensionData.parameters());
+            parameters.putIfAbsent(SERVER_NO_CONTEXT, null);
+            parameters.putIfAbsent(CLIENT_NO_CONTEXT, null);
+            return delegate.handshakeExtension(new WebSocketExtensionData(extensionData.name(), parameters));
+        }
+    }
+
+    private static class ThresholdFilterProvider implements WebSocketExtensionFilterProvider {
+        private final WebSocketExtensionFilter encoderFilter;
+
+        ThresholdFilterProvider(int threshold) {
+            this.encoderFilter = frame -> frame.content().readableBytes() < threshold;
+        }
+
+        @Override
+        public WebSocketExtensionFilter encoderFilter() {
+            return encoderFilter;
+        }
+
+        @Override
+        public WebSocketExtensionFilter decoderFilter() {
+            //客户端压缩过的帧必须解压
+            return WebSocketExtensionFilter.NEVER_SKIP;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.abin.mallchat.common.websocket;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelOutboundBuffer;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Description: websocket推送统计，开启spring.jmx.enabled后可通过jmx查看
+ * Author: <a href="https://github.com/zongzibinbin">abin</a>
+ * Date: 2023-10-18
+ */
+@Component
+@ManagedResource(objectName = "mallchat:name=wsPushMetrics")
+public class WSPushMetrics {
+    /**
+     * 成功写出到socket的推送数
+     */
+    private final LongAdder delivered = new LongAdder();
+    /**
+     * 被丢弃的推送数（线程池满、事件循环拒绝、channel已关闭、写失败、不可写时的低优先级推送）
+     */
+    private final LongAdder dropped = new LongAdder();
+    /**
+     * 不可写期间被丢弃、改为恢复可写后补发一次PRESENCE_RESYNC的在线状态推送数
+     */
+    private final LongAdder resyncReplaced = new LongAdder();
+    /**
+     * 因持续不可写被断开的慢消费者连接数
+     */
+    private final LongAdder evicted = new LongAdder();
+    /**
+     * 当前处于不可写状态的channel
+     */
+    private final Set<Channel> unwritableChannels = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 挂在每次write上，根据写出结果计数
+     */
+    private final ChannelFutureListener countListener = future -> {
+        if (future.isSuccess()) {
+            delivered.increment();
+        } else {
+            dropped.increment();
+        }
+    };
+
+    public ChannelFutureListener countListener() {
+        return countListener;
+    }
+
+    public void dropped(long num) {
+        dropped.add(num);
+    }
+
+    public void resyncReplaced(long num) {
+        resyncReplaced.add(num);
+    }
+
+    public void evicted() {
+        evicted.increment();
+    }
+
+    public void track(Channel channel) {
+        unwritableChannels.add(channel);
+    }
+
+    public void untrack(Channel channel) {
+        unwritableChannels.remove(channel);
+    }
+
+    @ManagedAttribute
+    public long getDelivered() {
+        return delivered.sum();
+    }
+
+    @ManagedAttribute
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    @ManagedAttribute
+    public long getResyncReplaced() {
+        return resyncReplaced.sum();
+    }
+
+    @ManagedAttribute
+    public long getEvicted() {
+        return evicted.sum();
+    }
+
+    /**
+     * 不可写channel各自积压在出站缓冲里的字节数
+     */
+    @ManagedAttribute
+    public Map<String, Long> getQueuedBytes() {
+        Map<String, Long> result = new HashMap<>();
+        unwritableChannels.forEach(channel -> {
+            ChannelOutboundBuffer outboundBuffer = channel.unsafe().outboundBuffer();
+            if (Objects.nonNull(outboundBuffer)) {
+                result.put(channel.id().asShortText(), outboundBuffer.totalPendingWriteBytes());
+            }
+        });
+        return result;
+    }
+}
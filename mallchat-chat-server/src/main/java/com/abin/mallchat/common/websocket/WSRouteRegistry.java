@@ -0,0 +1,183 @@
+package com.abin.mallchat.common.websocket;
+
+import cn.hutool.core.collection.CollectionUtil;
+import cn.hutool.core.thread.NamedThreadFactory;
+import com.abin.mallchat.common.common.config.ThreadPoolConfig;
+import com.abin.mallchat.common.common.config.WebSocketProperties;
+import com.abin.mallchat.common.common.constant.RedisKey;
+import com.abin.mallchat.common.common.factory.MyThreadFactory;
+import com.abin.mallchat.common.common.utils.RedisUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Description: uid到ws节点的路由表，存在redis里，推送方据此只把消息投给用户连接所在的节点。
+ * <p>
+ * 每个uid一个set记录它连接的节点（多端登录可能在多个节点），上下线时增删，同时定时全量刷新本节点的uid，
+ * 修复上下线并发时的时序问题和过期时间。节点宕机残留的路由先靠节点心跳过滤，再靠过期时间清理。
+ * 上下线在netty事件循环上触发，redis读写提交到websocketExecutor，不阻塞io线程；写失败只打日志，不影响上下线事件。
+ * Author: <a href="https://github.com/zongzibinbin">abin</a>
+ * Date: 2023-10-18
+ */
+@Slf4j
+@Component
+public class WSRouteRegistry {
+    /**
+     * 节点超过这么多个心跳周期没刷新就认为已经下线
+     */
+    private static final int NODE_EXPIRE_HEARTBEATS = 3;
+
+    @Autowired
+    private WebSocketProperties webSocketProperties;
+    @Autowired
+    private WSChannelRegistry wsChannelRegistry;
+    @Autowired
+    @Qualifier(ThreadPoolConfig.WS_EXECUTOR)
+    private ThreadPoolTaskExecutor websocketExecutor;
+
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    public void start() {
+        if (!webSocketProperties.isPushRouting()) {
+            return;
+        }
+        heartbeat();
+        scheduler = Executors.newSingleThreadScheduledExecutor(new MyThreadFactory(new NamedThreadFactory("ws-route-", true)));
+        scheduler.scheduleWithFixedDelay(this::heartbeat, webSocketProperties.getNodeHeartbeatSeconds(),
+                webSocketProperties.getNodeHeartbeatSeconds(), TimeUnit.SECONDS);
+        scheduler.scheduleWithFixedDelay(this::refreshLocalRoutes, webSocketProperties.getRouteRefreshSeconds(),
+                webSocketProperties.getRouteRefreshSeconds(), TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (Objects.isNull(scheduler)) {
+            return;
+        }
+        scheduler.shutdownNow();
+        //正常下线主动摘掉自己，不用等心跳过期
+        RedisUtils.del(RedisKey.getKey(RedisKey.WS_NODE_STRING, getNodeId()));
+        RedisUtils.sRemoveBatch(routeKeys(wsChannelRegistry.getUids()), getNodeId());
+    }
+
+    /**
+     * 用户在本节点建立连接
+     */
+    public void online(Long uid) {
+        if (!webSocketProperties.isPushRouting()) {
+            return;
+        }
+        execute(uid, "注册", () -> {
+            try {
+                RedisUtils.sSetBatch(Collections.singletonList(routeKey(uid)), getNodeId(), webSocketProperties.getRouteExpireSeconds());
+            } catch (Exception e) {//失败了等下一次全量刷新补上
+                log.error("ws路由注册失败 uid:{}", uid, e);
+            }
+        });
+    }
+
+    /**
+     * 用户在本节点的连接已经全部断开
+     */
+    public void offline(Long uid) {
+        if (!webSocketProperties.isPushRouting()) {
+            return;
+        }
+        execute(uid, "摘除", () -> {
+            //排队期间用户又连上来了，路由要保留
+            if (wsChannelRegistry.isOnline(uid)) {
+                return;
+            }
+            try {
+                RedisUtils.setRemove(routeKey(uid), getNodeId());
+            } catch (Exception e) {//残留的路由只会多推一次空消息，靠过期时间清理
+                log.error("ws路由摘除失败 uid:{}", uid, e);
+            }
+        });
+    }
+
+    private void execute(Long uid, String action, Runnable task) {
+        try {
+            websocketExecutor.execute(task);
+        } catch (TaskRejectedException e) {
+            log.warn("websocket线程池已满，ws路由{}跳过 uid:{}", action, uid);
+        }
+    }
+
+    /**
+     * 按用户连接所在的节点分组，不在线或者所在节点已经下线的uid会被过滤掉
+     *
+     * @return 节点id -> 连在该节点的uid
+     */
+    public Map<String, List<Long>> groupByNode(List<Long> uidList) {
+        List<Long> uids = uidList.stream().distinct().collect(Collectors.toList());
+        List<Set<String>> nodesList = RedisUtils.sGetBatch(routeKeys(uids));
+        Map<String, List<Long>> nodeUidMap = new HashMap<>();
+        for (int i = 0; i < uids.size(); i++) {
+            Set<String> nodes = nodesList.get(i);
+            if (CollectionUtil.isEmpty(nodes)) {
+                continue;
+            }
+            for (String node : nodes) {
+                nodeUidMap.computeIfAbsent(node, k -> new ArrayList<>()).add(uids.get(i));
+            }
+        }
+        if (nodeUidMap.isEmpty()) {
+            return nodeUidMap;
+        }
+        List<String> nodes = new ArrayList<>(nodeUidMap.keySet());
+        List<Long> heartbeats = RedisUtils.mget(nodes.stream()
+                .map(node -> RedisKey.getKey(RedisKey.WS_NODE_STRING, node))
+                .collect(Collectors.toList()), Long.class);
+        for (int i = 0; i < nodes.size(); i++) {
+            if (Objects.isNull(heartbeats.get(i))) {
+                nodeUidMap.remove(nodes.get(i));
+            }
+        }
+        return nodeUidMap;
+    }
+
+    public String getNodeId() {
+        return webSocketProperties.getNodeId();
+    }
+
+    private void heartbeat() {
+        RedisUtils.set(RedisKey.getKey(RedisKey.WS_NODE_STRING, getNodeId()), System.currentTimeMillis(),
+                webSocketProperties.getNodeHeartbeatSeconds() * NODE_EXPIRE_HEARTBEATS);
+    }
+
+    /**
+     * 定时任务抛异常后不会再被调度，这里必须兜住
+     */
+    private void refreshLocalRoutes() {
+        try {
+            Set<Long> uids = wsChannelRegistry.getUids();
+            if (CollectionUtil.isNotEmpty(uids)) {
+                RedisUtils.sSetBatch(routeKeys(uids), getNodeId(), webSocketProperties.getRouteExpireSeconds());
+            }
+        } catch (Exception e) {
+            log.error("ws路由全量刷新失败", e);
+        }
+    }
+
+    private static String routeKey(Long uid) {
+        return RedisKey.getKey(RedisKey.WS_ROUTE_SET, uid);
+    }
+
+    private static List<String> routeKeys(Collection<Long> uids) {
+        return uids.stream().map(WSRouteRegistry::routeKey).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,105 @@
+package com.abin.mallchat.common.chat;
+
+import com.abin.mallchat.common.chat.dao.ContactDao;
+import com.abin.mallchat.common.chat.service.cache.UnreadCountCache;
+import com.abin.mallchat.common.chat.service.impl.ContactInboxWriter;
+import com.abin.mallchat.common.common.config.ContactInboxProperties;
+import com.abin.mallchat.common.common.config.ThreadPoolConfig;
+import com.abin.mallchat.common.common.utils.FakeRedis;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+/**
+ * Description: 新消息刷新成员会话的吞吐，对比整群一条insert、分片并行、分片并行+合并窗口三种写法。
+ * 没有真实数据库，每条语句按 固定往返耗时 + 行数*单行耗时 模拟，消费者处理每条消息的其他工作也算一个固定耗时。
+ * 合并写入的redis登记用FakeRedis代替。
+ * 手动执行：mvn test -DskipTests=false -Dtest=ContactFanoutBenchmark
+ * Author: <a href="https://github.com/zongzibinbin">abin</a>
+ * Date: 2023-10-18
+ */
+public class ContactFanoutBenchmark {
+    private static final int MESSAGES = Integer.getInteger("bench.messages", 200);
+    private static final long STATEMENT_MICROS = Long.getLong("bench.statementMicros", 1000);
+    private static final long ROW_MICROS = Long.getLong("bench.rowMicros", 5);
+    private static final long CONSUME_MICROS = Long.getLong("bench.consumeMicros", 500);
+    private static final int[] GROUP_SIZES = {10, 100, 1000, 5000, 10000};
+
+    @BeforeClass
+    public static void init() {
+        FakeRedis.install();
+        FakeRedis.rttMicros = 0;
+    }
+
+    @Test
+    public void fanout() {
+        System.out.printf("%8s %22s %22s %22s%n", "members", "single(msg/s,stmts)", "chunked(msg/s,stmts)", "merged(msg/s,stmts)");
+        for (int members : GROUP_SIZES) {
+            List<Long> uidList = LongStream.range(0, members).boxed().collect(Collectors.toList());
+            String single = run(uidList, Mode.SINGLE);
+            String chunked = run(uidList, Mode.CHUNKED);
+            String merged = run(uidList, Mode.MERGED);
+            System.out.printf("%8d %22s %22s %22s%n", members, single, chunked, merged);
+        }
+    }
+
+    private String run(List<Long> uidList, Mode mode) {
+        AtomicLong statements = new AtomicLong();
+        AtomicLong lastMsgId = new AtomicLong();
+        ContactDao contactDao = new ContactDao() {
+            @Override
+            public void refreshOrCreateActiveTime(Long roomId, List<Long> memberUidList, Long msgId, Date activeTime) {
+                statements.incrementAndGet();
+                lastMsgId.accumulateAndGet(msgId, Math::max);
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(STATEMENT_MICROS + memberUidList.size() * ROW_MICROS));
+            }
+        };
+        ContactInboxProperties properties = new ContactInboxProperties();
+        properties.setMergeWindowMillis(mode == Mode.MERGED ? 50 : 0);
+        ThreadPoolConfig threadPoolConfig = new ThreadPoolConfig();
+        ThreadPoolTaskExecutor executor = threadPoolConfig.contactInboxExecutor(properties);
+        ThreadPoolTaskScheduler scheduler = threadPoolConfig.contactInboxScheduler();
+        ContactInboxWriter writer = new ContactInboxWriter();
+        ReflectionTestUtils.setField(writer, "contactInboxExecutor", executor);
+        ReflectionTestUtils.setField(writer, "contactInboxScheduler", scheduler);
+        ReflectionTestUtils.setField(writer, "contactDao", contactDao);
+        ReflectionTestUtils.setField(writer, "contactInboxProperties", properties);
+        ReflectionTestUtils.setField(writer, "unreadCountCache", new UnreadCountCache() {
+            @Override
+            public void incr(Long roomId, List<Long> uidList, Long msgId) {
+            }
+        });
+        writer.start();
+
+        long begin = System.nanoTime();
+        for (long msgId = 1; msgId <= MESSAGES; msgId++) {
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(CONSUME_MICROS));
+            if (mode == Mode.SINGLE) {
+                contactDao.refreshOrCreateActiveTime(1L, uidList, msgId, new Date());
+            } else {
+                writer.refreshActiveTime(1L, uidList, msgId, new Date());
+            }
+        }
+        writer.stop();
+        long cost = System.nanoTime() - begin;
+        scheduler.shutdown();
+        executor.shutdown();
+        Assert.assertEquals(MESSAGES, lastMsgId.get());
+        return String.format("%.0f,%d", MESSAGES * 1e9 / cost, statements.get());
+    }
+
+    private enum Mode {
+        SINGLE, CHUNKED, MERGED
+    }
+}
@@ -0,0 +1,140 @@
+package com.abin.mallchat.common.chat;
+
+import com.abin.mallchat.common.chat.dao.MessageDao;
+import com.abin.mallchat.common.chat.domain.entity.Message;
+import com.abin.mallchat.common.chat.service.impl.MsgHistoryReader;
+import com.abin.mallchat.common.common.domain.dto.CacheEvictDTO;
+import com.abin.mallchat.common.common.domain.vo.request.CursorPageBaseReq;
+import com.abin.mallchat.common.common.domain.vo.response.CursorPageBaseResp;
+import com.abin.mallchat.common.common.service.cache.NearCacheManager;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Description: 连续往上翻历史消息，对比每页现查和预取下一页两种方式的翻页等待时间。
+ * 没有真实数据库，每次分页查询按固定耗时模拟，客户端渲染一页的时间也算一个固定耗时。
+ * 手动执行：mvn test -DskipTests=false -Dtest=MsgHistoryReaderBenchmark
+ * Author: <a href="https://github.com/zongzibinbin">abin</a>
+ * Date: 2023-10-18
+ */
+public class MsgHistoryReaderBenchmark {
+    private static final int PAGES = Integer.getInteger("bench.pages", 50);
+    private static final int PAGE_SIZE = 20;
+    private static final long QUERY_MICROS = Long.getLong("bench.queryMicros", 3000);
+    private static final long RENDER_MICROS = Long.getLong("bench.renderMicros", 5000);
+    private static final long ROOM_ID = 1L;
+
+    @Test
+    public void scroll() {
+        AtomicLong queries = new AtomicLong();
+        MessageDao messageDao = fakeDao(queries);
+        long direct = run(req -> messageDao.getCursorPage(ROOM_ID, req, null));
+        long directQueries = queries.getAndSet(0);
+        MsgHistoryReader reader = newReader(messageDao);
+        long prefetch = run(req -> reader.getCursorPage(ROOM_ID, req, null));
+        System.out.printf("%10s %18s %10s%n", "mode", "wait(ms/page)", "queries");
+        System.out.printf("%10s %18.2f %10d%n", "direct", direct / 1e6 / PAGES, directQueries);
+        System.out.printf("%10s %18.2f %10d%n", "prefetch", prefetch / 1e6 / PAGES, queries.get());
+    }
+
+    @Test
+    public void samePagesAsDirect() {
+        MessageDao messageDao = fakeDao(new AtomicLong());
+        MsgHistoryReader reader = newReader(messageDao);
+        CursorPageBaseReq req = new CursorPageBaseReq(PAGE_SIZE, null);
+        for (int i = 0; i < PAGES; i++) {
+            CursorPageBaseResp<Message> expect = messageDao.getCursorPage(ROOM_ID, req, null);
+            CursorPageBaseResp<Message> actual = reader.getCursorPage(ROOM_ID, req, null);
+            Assert.assertEquals(expect.getCursor(), actual.getCursor());
+            Assert.assertEquals(expect.getList().get(0).getId(), actual.getList().get(0).getId());
+            req = new CursorPageBaseReq(PAGE_SIZE, actual.getCursor());
+        }
+    }
+
+    @Test
+    public void evictRoomDropsPrefetchedPage() {
+        AtomicLong queries = new AtomicLong();
+        MsgHistoryReader reader = newReader(fakeDao(queries));
+        CursorPageBaseResp<Message> first = reader.getCursorPage(ROOM_ID, new CursorPageBaseReq(PAGE_SIZE, null), null);
+        LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(QUERY_MICROS * 3));
+        reader.evictRoom(ROOM_ID);
+        long before = queries.get();
+        reader.getCursorPage(ROOM_ID, new CursorPageBaseReq(PAGE_SIZE, first.getCursor()), null);
+        //被清掉的预取页要重新查一次
+        Assert.assertTrue(queries.get() > before);
+    }
+
+    private long run(PageQuery query) {
+        CursorPageBaseReq req = new CursorPageBaseReq(PAGE_SIZE, null);
+        long wait = 0;
+        for (int i = 0; i < PAGES; i++) {
+            long begin = System.nanoTime();
+            CursorPageBaseResp<Message> page = query.get(req);
+            wait += System.nanoTime() - begin;
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(RENDER_MICROS));
+            req = new CursorPageBaseReq(PAGE_SIZE, page.getCursor());
+        }
+        return wait;
+    }
+
+    private static MsgHistoryReader newReader(MessageDao messageDao) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(2);
+        executor.setMaxPoolSize(2);
+        executor.setQueueCapacity(10);
+        executor.initialize();
+        MsgHistoryReader reader = new MsgHistoryReader();
+        ReflectionTestUtils.setField(reader, "messageDao", messageDao);
+        ReflectionTestUtils.setField(reader, "msgPrefetchExecutor", executor);
+        ReflectionTestUtils.setField(reader, "nearCacheManager", loopbackNearCacheManager());
+        reader.init();
+        return reader;
+    }
+
+    /**
+     * 没有mq，失效广播直接投给自己，相当于只有一个节点
+     */
+    private static NearCacheManager loopbackNearCacheManager() {
+        return new NearCacheManager() {
+            @Override
+            public void broadcastEvict(String cacheName, List<String> keys) {
+                onEvict(new CacheEvictDTO(cacheName, keys));
+            }
+        };
+    }
+
+    /**
+     * 房间里id从PAGES*PAGE_SIZE倒着往下的消息
+     */
+    private static MessageDao fakeDao(AtomicLong queries) {
+        return new MessageDao() {
+            @Override
+            public CursorPageBaseResp<Message> getCursorPage(Long roomId, CursorPageBaseReq request, Long lastMsgId) {
+                queries.incrementAndGet();
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(QUERY_MICROS));
+                long from = request.getCursor() == null ? (long) PAGES * PAGE_SIZE + 1 : Long.parseLong(request.getCursor());
+                List<Message> messages = new ArrayList<>();
+                for (long id = from - 1; id > 0 && messages.size() < request.getPageSize(); id--) {
+                    Message message = new Message();
+                    message.setId(id);
+                    message.setRoomId(roomId);
+                    messages.add(message);
+                }
+                String cursor = String.valueOf(messages.get(messages.size() - 1).getId());
+                return new CursorPageBaseResp<>(cursor, messages.size() != request.getPageSize() || from - 1 <= request.getPageSize(), messages);
+            }
+        };
+    }
+
+    private interface PageQuery {
+        CursorPageBaseResp<Message> get(CursorPageBaseReq req);
+    }
+}
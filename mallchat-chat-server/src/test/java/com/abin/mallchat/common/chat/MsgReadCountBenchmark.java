@@ -0,0 +1,109 @@
+package com.abin.mallchat.common.chat;
+
+import com.abin.mallchat.common.chat.domain.entity.Contact;
+import com.abin.mallchat.common.chat.domain.entity.Message;
+import com.abin.mallchat.common.chat.service.helper.MsgReadCounter;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Description: 消息已读数，对比逐条count和一次加载后二分两种算法。
+ * 没有真实数据库，每次查询按 固定往返耗时 + 返回行数*单行耗时 模拟，count本身的扫描用真实计算。
+ * 手动执行：mvn test -DskipTests=false -Dtest=MsgReadCountBenchmark
+ * Author: <a href="https://github.com/zongzibinbin">abin</a>
+ * Date: 2023-10-18
+ */
+public class MsgReadCountBenchmark {
+    private static final int MESSAGES = Integer.getInteger("bench.messages", 50);
+    private static final int ROUNDS = Integer.getInteger("bench.rounds", 20);
+    private static final long QUERY_MICROS = Long.getLong("bench.queryMicros", 300);
+    private static final double ROW_MICROS = 0.5;
+    private static final int[] GROUP_SIZES = {10, 100, 1000, 10000};
+    private static final long SENDER = 0L;
+
+    @Test
+    public void readCount() {
+        System.out.printf("%8s %16s %16s %10s%n", "members", "count(ms/call)", "search(ms/call)", "queries");
+        for (int members : GROUP_SIZES) {
+            Random random = new Random(members);
+            long now = System.currentTimeMillis();
+            List<Contact> contacts = new ArrayList<>();
+            for (long uid = 0; uid < members; uid++) {
+                Contact contact = new Contact();
+                contact.setUid(uid);
+                contact.setRoomId(1L);
+                //十分之一的人从来没读过
+                contact.setReadTime(random.nextInt(10) == 0 ? null : new Date(now - random.nextInt(3_600_000)));
+                contacts.add(contact);
+            }
+            List<Message> messages = new ArrayList<>();
+            for (long id = 0; id < MESSAGES; id++) {
+                Message message = new Message();
+                message.setId(id);
+                message.setRoomId(1L);
+                message.setFromUid(SENDER);
+                message.setCreateTime(new Date(now - random.nextInt(3_600_000)));
+                messages.add(message);
+            }
+            Assert.assertEquals(byCount(contacts, messages), bySearch(contacts, messages));
+
+            long begin = System.nanoTime();
+            for (int i = 0; i < ROUNDS; i++) {
+                byCount(contacts, messages);
+            }
+            double countMillis = (System.nanoTime() - begin) / 1e6 / ROUNDS;
+            begin = System.nanoTime();
+            for (int i = 0; i < ROUNDS; i++) {
+                bySearch(contacts, messages);
+            }
+            double searchMillis = (System.nanoTime() - begin) / 1e6 / ROUNDS;
+            System.out.printf("%8d %16.2f %16.2f %10s%n", members, countMillis, searchMillis, (MESSAGES + 1) + "->1");
+        }
+    }
+
+    /**
+     * 原来的做法：先count总数，再每条消息count一次
+     */
+    private List<Integer> byCount(List<Contact> contacts, List<Message> messages) {
+        query(1);
+        int totalCount = contacts.size();
+        List<Integer> result = new ArrayList<>();
+        for (Message message : messages) {
+            int readCount = 0;
+            for (Contact contact : contacts) {
+                if (!contact.getUid().equals(message.getFromUid()) && contact.getReadTime() != null
+                        && !contact.getReadTime().before(message.getCreateTime())) {
+                    readCount++;
+                }
+            }
+            query(1);
+            result.add(readCount);
+            result.add(totalCount - readCount - 1);
+        }
+        return result;
+    }
+
+    private List<Integer> bySearch(List<Contact> contacts, List<Message> messages) {
+        query(contacts.size());
+        MsgReadCounter counter = new MsgReadCounter(contacts, Collections.singleton(SENDER));
+        List<Integer> result = new ArrayList<>();
+        for (Message message : messages) {
+            int readCount = counter.getReadCount(message);
+            result.add(readCount);
+            result.add(counter.getTotalCount() - readCount - 1);
+        }
+        return result;
+    }
+
+    private static void query(int rows) {
+        LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(QUERY_MICROS + (long) (rows * ROW_MICROS)));
+    }
+}
@@ -0,0 +1,204 @@
+package com.abin.mallchat.common.chat;
+
+import com.abin.mallchat.common.chat.service.cache.UrlPreviewCache;
+import com.abin.mallchat.common.chat.service.impl.UrlUnfurlMetrics;
+import com.abin.mallchat.common.common.config.UrlUnfurlProperties;
+import com.abin.mallchat.common.common.utils.discover.domain.UrlInfo;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+
+/**
+ * Description: 链接预览缓存，用本地http桩服务验证只读head、两级缓存、失败缓存和域名并发限制
+ * Author: <a href="https://github.com/zongzibinbin">abin</a>
+ * Date: 2023-10-18
+ */
+public class UrlPreviewCacheTest {
+    private static final String HEAD = "<html><head><title>mallchat</title>"
+            + "<meta name=\"description\" content=\"抹茶聊天。一个IM项目\"></head><body>";
+    private static final int BIG_BODY_BYTES = 8 * 1024 * 1024;
+
+    private HttpServer server;
+    private String base;
+    private final Map<String, AtomicInteger> hits = new ConcurrentHashMap<>();
+    private final AtomicLong bigWritten = new AtomicLong();
+    private final AtomicInteger slowRunning = new AtomicInteger();
+    private final AtomicInteger slowMaxRunning = new AtomicInteger();
+
+    /**
+     * 模拟redis，多个缓存实例共享
+     */
+    private final Map<String, UrlInfo> remote = new ConcurrentHashMap<>();
+
+    @Before
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", this::handle);
+        server.start();
+        base = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void stop() {
+        server.stop(0);
+    }
+
+    @Test
+    public void onlyReadHead() {
+        UrlInfo urlInfo = newCache(4).get(base + "/big");
+        Assert.assertNotNull(urlInfo);
+        Assert.assertEquals("mallchat", urlInfo.getTitle());
+        Assert.assertEquals("抹茶聊天", urlInfo.getDescription());
+        System.out.println("页面总大小:" + BIG_BODY_BYTES + " 服务端写出:" + bigWritten.get());
+        Assert.assertTrue(bigWritten.get() < BIG_BODY_BYTES);
+    }
+
+    @Test
+    public void cacheByNormalizedUrl() {
+        UrlPreviewCache cache = newCache(4);
+        Assert.assertNotNull(cache.get(base + "/page"));
+        Assert.assertNotNull(cache.get(base.replace("http", "HTTP") + "/page#top"));
+        Assert.assertNotNull(cache.get(base.replace("http://", "") + "/page"));
+        Assert.assertEquals(1, hits("/page"));
+        //另一个节点，本地缓存为空，命中redis
+        Assert.assertNotNull(newCache(4).get(base + "/page"));
+        Assert.assertEquals(1, hits("/page"));
+    }
+
+    @Test
+    public void negativeCache() {
+        UrlPreviewCache cache = newCache(4);
+        Assert.assertNull(cache.get(base + "/missing"));
+        Assert.assertNull(cache.get(base + "/missing"));
+        Assert.assertNull(newCache(4).get(base + "/missing"));
+        Assert.assertEquals(1, hits("/missing"));
+    }
+
+    @Test
+    public void sameUrlFetchOnce() throws Exception {
+        UrlPreviewCache cache = newCache(4);
+        List<UrlInfo> result = concurrentGet(cache, 8, i -> base + "/slow");
+        result.forEach(Assert::assertNotNull);
+        Assert.assertEquals(1, hits("/slow"));
+    }
+
+    @Test
+    public void perHostConcurrency() throws Exception {
+        UrlPreviewCache cache = newCache(2);
+        List<UrlInfo> result = concurrentGet(cache, 6, i -> base + "/slow?i=" + i);
+        result.forEach(Assert::assertNotNull);
+        System.out.println("同域名最大并发抓取:" + slowMaxRunning.get());
+        Assert.assertTrue(slowMaxRunning.get() <= 2);
+        Assert.assertEquals(6, hits("/slow"));
+    }
+
+    private List<UrlInfo> concurrentGet(UrlPreviewCache cache, int threads, IntFunction<String> url) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch ready = new CountDownLatch(1);
+        List<Future<UrlInfo>> futures = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            int index = i;
+            futures.add(executor.submit(() -> {
+                ready.await();
+                return cache.get(url.apply(index));
+            }));
+        }
+        ready.countDown();
+        List<UrlInfo> result = new ArrayList<>();
+        for (Future<UrlInfo> future : futures) {
+            result.add(future.get());
+        }
+        executor.shutdown();
+        return result;
+    }
+
+    private UrlPreviewCache newCache(int perHostConcurrency) {
+        UrlUnfurlProperties properties = new UrlUnfurlProperties();
+        properties.setPerHostConcurrency(perHostConcurrency);
+        properties.setTimeoutMillis(10_000);
+        UrlPreviewCache cache = new UrlPreviewCache() {
+            @Override
+            protected UrlInfo getRemote(String url) {
+                return remote.get(url);
+            }
+
+            @Override
+            protected void putRemote(String url, UrlInfo urlInfo, long seconds) {
+                remote.put(url, urlInfo);
+            }
+        };
+        ReflectionTestUtils.setField(cache, "urlUnfurlProperties", properties);
+        ReflectionTestUtils.setField(cache, "urlUnfurlMetrics", new UrlUnfurlMetrics());
+        cache.init();
+        return cache;
+    }
+
+    private int hits(String path) {
+        return hits.getOrDefault(path, new AtomicInteger()).get();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        hits.computeIfAbsent(path, k -> new AtomicInteger()).incrementAndGet();
+        exchange.getResponseHeaders().set("Content-Type", "text/html; charset=utf-8");
+        byte[] head = HEAD.getBytes(StandardCharsets.UTF_8);
+        try (OutputStream out = exchange.getResponseBody()) {
+            switch (path) {
+                case "/big":
+                    exchange.sendResponseHeaders(200, BIG_BODY_BYTES);
+                    out.write(head);
+                    bigWritten.addAndGet(head.length);
+                    byte[] chunk = new byte[8192];
+                    Arrays.fill(chunk, (byte) 'a');
+                    for (long left = BIG_BODY_BYTES - head.length; left > 0; left -= chunk.length) {
+                        int len = (int) Math.min(chunk.length, left);
+                        out.write(chunk, 0, len);
+                        bigWritten.addAndGet(len);
+                    }
+                    break;
+                case "/page":
+                    exchange.sendResponseHeaders(200, head.length);
+                    out.write(head);
+                    break;
+                case "/slow":
+                    int running = slowRunning.incrementAndGet();
+                    slowMaxRunning.accumulateAndGet(running, Math::max);
+                    try {
+                        Thread.sleep(300);
+                    } catch (InterruptedException ignored) {
+                    }
+                    slowRunning.decrementAndGet();
+                    exchange.sendResponseHeaders(200, head.length);
+                    out.write(head);
+                    break;
+                default:
+                    exchange.sendResponseHeaders(404, -1);
+            }
+        } catch (IOException e) {
+            //客户端读完head主动断开
+        }
+    }
+}
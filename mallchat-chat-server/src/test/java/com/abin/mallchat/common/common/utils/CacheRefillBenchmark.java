@@ -0,0 +1,100 @@
+package com.abin.mallchat.common.common.utils;
+
+import com.abin.mallchat.common.user.domain.entity.User;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Description: 批量缓存回填，对比原来 multiSet+逐个expire 和一次pipeline写入带过期两种方式。
+ * 没有真实redis，用FakeRedis代替，每次往返按固定耗时模拟，pipeline只算一次往返。
+ * 手动执行：mvn test -DskipTests=false -Dtest=CacheRefillBenchmark
+ * Author: <a href="https://github.com/zongzibinbin">abin</a>
+ * Date: 2023-10-18
+ */
+public class CacheRefillBenchmark {
+    private static final long RTT_MICROS = Long.getLong("bench.rttMicros", 200);
+    private static final int ROUNDS = Integer.getInteger("bench.rounds", 5);
+    private static final int[] BATCH_SIZES = {10, 100, 500};
+    private static final long EXPIRE_SECONDS = 5 * 60;
+
+    private static StringRedisTemplate template;
+
+    @BeforeClass
+    public static void init() {
+        template = FakeRedis.install();
+        FakeRedis.rttMicros = RTT_MICROS;
+    }
+
+    @Test
+    public void refill() {
+        System.out.printf("%8s %18s %12s %18s %12s%n", "keys", "legacy(ms/call)", "legacy rtt", "pipeline(ms/call)", "pipeline rtt");
+        for (int size : BATCH_SIZES) {
+            Map<String, User> users = users(size);
+            FakeRedis.ROUND_TRIPS.set(0);
+            long begin = System.nanoTime();
+            for (int i = 0; i < ROUNDS; i++) {
+                legacyMset(users, EXPIRE_SECONDS);
+            }
+            long legacy = System.nanoTime() - begin;
+            long legacyRtt = FakeRedis.ROUND_TRIPS.getAndSet(0) / ROUNDS;
+            begin = System.nanoTime();
+            for (int i = 0; i < ROUNDS; i++) {
+                RedisUtils.mset(users, EXPIRE_SECONDS);
+            }
+            long pipeline = System.nanoTime() - begin;
+            long pipelineRtt = FakeRedis.ROUND_TRIPS.get() / ROUNDS;
+            System.out.printf("%8d %18.2f %12d %18.2f %12d%n", size, legacy / 1e6 / ROUNDS, legacyRtt, pipeline / 1e6 / ROUNDS, pipelineRtt);
+        }
+    }
+
+    @Test
+    public void oneRoundTripWithJitteredTtl() {
+        Map<String, User> users = users(500);
+        users.keySet().forEach(key -> {
+            FakeRedis.STORE.remove(key);
+            FakeRedis.TTL.remove(key);
+        });
+        FakeRedis.ROUND_TRIPS.set(0);
+        RedisUtils.mset(users, EXPIRE_SECONDS);
+        Assert.assertEquals(1, FakeRedis.ROUND_TRIPS.get());
+        Set<Long> ttls = new HashSet<>();
+        for (String key : users.keySet()) {
+            long ttl = FakeRedis.TTL.get(key);
+            Assert.assertTrue(ttl >= EXPIRE_SECONDS && ttl <= EXPIRE_SECONDS + EXPIRE_SECONDS / 10);
+            ttls.add(ttl);
+        }
+        //一起写入的key过期时间要散开
+        Assert.assertTrue(ttls.size() > 1);
+        List<String> keys = new ArrayList<>(users.keySet());
+        List<User> values = RedisUtils.mget(keys, User.class);
+        for (int i = 0; i < keys.size(); i++) {
+            Assert.assertEquals(users.get(keys.get(i)).getId(), values.get(i).getId());
+        }
+    }
+
+    /**
+     * 原来的写法
+     */
+    private static void legacyMset(Map<String, User> map, long time) {
+        Map<String, String> values = new HashMap<>();
+        map.forEach((key, value) -> values.put(key, RedisUtils.objToStr(value)));
+        template.opsForValue().multiSet(values);
+        map.keySet().forEach(key -> template.expire(key, time, TimeUnit.SECONDS));
+    }
+
+    private static Map<String, User> users(int size) {
+        Map<String, User> users = new LinkedHashMap<>();
+        for (long uid = 1; uid <= size; uid++) {
+            User user = new User();
+            user.setId(uid);
+            user.setName("user" + uid);
+            users.put("mallchat:userInfo:uid_" + uid, user);
+        }
+        return users;
+    }
+}
@@ -0,0 +1,154 @@
+package com.abin.mallchat.common.common.utils;
+
+import cn.hutool.extra.spring.SpringUtil;
+import org.springframework.context.support.GenericApplicationContext;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.RedisClusterConnection;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisSentinelConnection;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Description: 测试用的内存redis，只实现缓存框架用到的几个string命令，其他命令返回空。
+ * 每次往返按固定耗时模拟，pipeline只算一次往返。注册进SpringUtil后RedisUtils可以直接用
+ * Author: <a href="https://github.com/zongzibinbin">abin</a>
+ * Date: 2023-10-18
+ */
+public class FakeRedis {
+    public static final Map<String, byte[]> STORE = new ConcurrentHashMap<>();
+    public static final Map<String, Long> TTL = new ConcurrentHashMap<>();
+    public static final AtomicLong ROUND_TRIPS = new AtomicLong();
+    public static volatile long rttMicros = 200;
+    private static StringRedisTemplate template;
+
+    /**
+     * RedisUtils初始化时只取一次模板，所有测试共用同一个
+     */
+    public static synchronized StringRedisTemplate install() {
+        if (template == null) {
+            template = new StringRedisTemplate(new FakeConnectionFactory());
+            GenericApplicationContext context = new GenericApplicationContext();
+            context.registerBean(StringRedisTemplate.class, () -> template);
+            context.refresh();
+            new SpringUtil().setApplicationContext(context);
+        }
+        return template;
+    }
+
+    private static void roundTrip() {
+        ROUND_TRIPS.incrementAndGet();
+        LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(rttMicros));
+    }
+
+    private static String str(Object bytes) {
+        return new String((byte[]) bytes, StandardCharsets.UTF_8);
+    }
+
+    private static Object execute(String command, Object[] args, Class<?> returnType) {
+        switch (command) {
+            case "setEx":
+                STORE.put(str(args[0]), (byte[]) args[2]);
+                TTL.put(str(args[0]), (Long) args[1]);
+                return true;
+            case "set":
+                if (args.length == 4 && args[3] == RedisStringCommands.SetOption.SET_IF_ABSENT) {
+                    return STORE.putIfAbsent(str(args[0]), (byte[]) args[1]) == null;
+                }
+                STORE.put(str(args[0]), (byte[]) args[1]);
+                return true;
+            case "mSet":
+                ((Map<?, ?>) args[0]).forEach((key, value) -> STORE.put(str(key), (byte[]) value));
+                return true;
+            case "pExpire":
+                TTL.put(str(args[0]), (Long) args[1] / 1000);
+                return true;
+            case "mGet":
+                List<byte[]> values = new ArrayList<>();
+                for (Object key : (Object[]) args[0]) {
+                    values.add(STORE.get(str(key)));
+                }
+                return values;
+            case "del":
+                long count = 0;
+                for (Object key : (Object[]) args[0]) {
+                    TTL.remove(str(key));
+                    count += STORE.remove(str(key)) == null ? 0 : 1;
+                }
+                return count;
+            default:
+                return returnType == boolean.class ? false : null;
+        }
+    }
+
+    private static RedisConnection connection() {
+        List<Object> pipeline = new ArrayList<>();
+        boolean[] pipelined = {false};
+        return (RedisConnection) Proxy.newProxyInstance(FakeRedis.class.getClassLoader(), new Class[]{RedisConnection.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "openPipeline":
+                    pipelined[0] = true;
+                    return null;
+                case "closePipeline":
+                    roundTrip();
+                    pipelined[0] = false;
+                    List<Object> result = new ArrayList<>(pipeline);
+                    pipeline.clear();
+                    return result;
+                case "isPipelined":
+                    return pipelined[0];
+                case "isQueueing":
+                case "isClosed":
+                    return false;
+                case "close":
+                    return null;
+                default:
+            }
+            Object result = execute(method.getName(), args, method.getReturnType());
+            if (pipelined[0]) {
+                pipeline.add(result);
+                return null;
+            }
+            roundTrip();
+            return result;
+        });
+    }
+
+    private static class FakeConnectionFactory implements RedisConnectionFactory {
+        @Override
+        public RedisConnection getConnection() {
+            return connection();
+        }
+
+        @Override
+        public RedisClusterConnection getClusterConnection() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean getConvertPipelineAndTxResults() {
+            return true;
+        }
+
+        @Override
+        public RedisSentinelConnection getSentinelConnection() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public DataAccessException translateExceptionIfPossible(RuntimeException ex) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.abin.mallchat.common.user;
+
+import com.abin.mallchat.common.common.service.cache.AbstractRedisStringCache;
+import com.abin.mallchat.common.common.utils.FakeRedis;
+import com.abin.mallchat.common.user.domain.entity.User;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Description: 缓存击穿保护，统计并发请求同一个过期key时真正回源的次数。
+ * redis用FakeRedis代替，回源按固定耗时模拟。
+ * 手动执行：mvn test -DskipTests=false -Dtest=BatchCacheStampedeTest
+ * Author: <a href="https://github.com/zongzibinbin">abin</a>
+ * Date: 2023-10-18
+ */
+public class BatchCacheStampedeTest {
+    private static final int THREADS = 32;
+    private static final long LOAD_MILLIS = 50;
+
+    @BeforeClass
+    public static void init() {
+        FakeRedis.install();
+        FakeRedis.rttMicros = 50;
+    }
+
+    @Test
+    public void singleFlightInNode() throws Exception {
+        AtomicLong loads = new AtomicLong();
+        CountingCache cache = new CountingCache("single", 0, loads);
+        cache.clear(1L);
+        List<User> users = concurrentGet(Collections.nCopies(THREADS, cache), 1L);
+        System.out.println("并发请求:" + THREADS + " 回源次数:" + loads.get());
+        Assert.assertEquals(1, loads.get());
+        users.forEach(user -> Assert.assertEquals(Long.valueOf(1L), user.getId()));
+    }
+
+    @Test
+    public void leaseAcrossNodes() throws Exception {
+        AtomicLong loads = new AtomicLong();
+        //两个实例模拟两个节点，共用一个redis
+        CountingCache node1 = new CountingCache("lease", 500, loads);
+        CountingCache node2 = new CountingCache("lease", 500, loads);
+        node1.clear(2L);
+        List<CountingCache> caches = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            caches.add(i % 2 == 0 ? node1 : node2);
+        }
+        List<User> users = concurrentGet(caches, 2L);
+        System.out.println("两个节点并发请求:" + THREADS + " 回源次数:" + loads.get());
+        Assert.assertEquals(1, loads.get());
+        users.forEach(user -> Assert.assertEquals(Long.valueOf(2L), user.getId()));
+    }
+
+    @Test
+    public void absentIdLoadsOnce() {
+        AtomicLong loads = new AtomicLong();
+        CountingCache cache = new CountingCache("absent", 0, loads);
+        cache.clear(CountingCache.ABSENT_ID);
+        Assert.assertNull(cache.get(CountingCache.ABSENT_ID));
+        Assert.assertNull(cache.get(CountingCache.ABSENT_ID));
+        Assert.assertNull(cache.getBatch(Arrays.asList(CountingCache.ABSENT_ID, 3L)).get(CountingCache.ABSENT_ID));
+        //第二次起走空标记，只有3L回源
+        Assert.assertEquals(2, loads.get());
+        //删除会把空标记一起删掉
+        cache.delete(CountingCache.ABSENT_ID);
+        cache.get(CountingCache.ABSENT_ID);
+        Assert.assertEquals(3, loads.get());
+    }
+
+    private static List<User> concurrentGet(List<CountingCache> caches, Long uid) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(caches.size());
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<User>> futures = new ArrayList<>();
+        for (CountingCache cache : caches) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                return cache.get(uid);
+            }));
+        }
+        start.countDown();
+        List<User> users = new ArrayList<>();
+        for (Future<User> future : futures) {
+            users.add(future.get(10, TimeUnit.SECONDS));
+        }
+        executor.shutdown();
+        return users;
+    }
+
+    /**
+     * 除了ABSENT_ID都能查到，统计每个id的回源次数
+     */
+    static class CountingCache extends AbstractRedisStringCache<Long, User> {
+        static final Long ABSENT_ID = 404L;
+        private final String name;
+        private final long leaseMillis;
+        private final AtomicLong loads;
+
+        CountingCache(String name, long leaseMillis, AtomicLong loads) {
+            this.name = name;
+            this.leaseMillis = leaseMillis;
+            this.loads = loads;
+        }
+
+        void clear(Long uid) {
+            FakeRedis.STORE.remove(getKey(uid));
+            FakeRedis.STORE.remove(getKey(uid) + ":lease");
+        }
+
+        @Override
+        protected String getKey(Long uid) {
+            return "test:stampede:" + name + ":" + uid;
+        }
+
+        @Override
+        protected Long getExpireSeconds() {
+            return 60L;
+        }
+
+        @Override
+        protected long getLeaseMillis() {
+            return leaseMillis;
+        }
+
+        @Override
+        protected Map<Long, User> load(List<Long> uids) {
+            loads.addAndGet(uids.size());
+            try {
+                TimeUnit.MILLISECONDS.sleep(LOAD_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            Map<Long, User> result = new HashMap<>();
+            for (Long uid : uids) {
+                if (!ABSENT_ID.equals(uid)) {
+                    User user = new User();
+                    user.setId(uid);
+                    result.put(uid, user);
+                }
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package com.abin.mallchat.common.user;
+
+import com.abin.mallchat.common.chat.domain.entity.Room;
+import com.abin.mallchat.common.common.service.cache.*;
+import com.abin.mallchat.common.common.utils.FakeRedis;
+import com.abin.mallchat.common.user.domain.dto.SummeryInfoDTO;
+import com.abin.mallchat.common.user.domain.entity.IpDetail;
+import com.abin.mallchat.common.user.domain.entity.IpInfo;
+import com.abin.mallchat.common.user.domain.entity.User;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Description: 缓存值几种编码的大小、编解码耗时对比，以及按redis内存分配估算的每个key实际占用。
+ * 同时校验二进制编码能完整还原，旧的json值读到后会当作没命中重新回源。
+ * 手动执行：mvn test -DskipTests=false -Dtest=CacheCodecBenchmark
+ * Author: <a href="https://github.com/zongzibinbin">abin</a>
+ * Date: 2023-10-18
+ */
+public class CacheCodecBenchmark {
+    private static final int WARMUP = Integer.getInteger("bench.warmup", 20000);
+    private static final int ROUNDS = Integer.getInteger("bench.rounds", 100000);
+    /**
+     * jemalloc的小内存分配规格，redis里每块内存按这个向上取整
+     */
+    private static final int[] JEMALLOC_CLASSES = {8, 16, 32, 48, 64, 80, 96, 112, 128, 160, 192, 224, 256,
+            320, 384, 448, 512, 640, 768, 896, 1024, 1280, 1536, 1792, 2048};
+
+    @BeforeClass
+    public static void init() {
+        FakeRedis.install();
+        FakeRedis.rttMicros = 0;
+    }
+
+    @Test
+    public void roundTrip() {
+        samples().forEach((name, sample) -> codecs(sample.getClass()).forEach((codecName, codec) ->
+                Assert.assertEquals(name + " " + codecName, sample, codec.decode(codec.encode(sample)))));
+    }
+
+    @Test
+    public void compare() {
+        System.out.printf("%-16s %-14s %8s %14s %12s %12s%n", "value", "codec", "bytes", "redis(B/key)", "encode(ns)", "decode(ns)");
+        samples().forEach((name, sample) -> codecs(sample.getClass()).forEach((codecName, codec) -> {
+            bench(codec, sample, WARMUP);
+            long[] result = bench(codec, sample, ROUNDS);
+            System.out.printf("%-16s %-14s %8d %14d %12d %12d%n", name, codecName, result[0],
+                    redisBytesPerKey(keyOf(name).length(), (int) result[0]), result[1] / ROUNDS, result[2] / ROUNDS);
+        }));
+    }
+
+    @Test
+    public void oldJsonValueIsReloaded() {
+        AtomicLong loads = new AtomicLong();
+        User user = user();
+        BinaryUserCache cache = new BinaryUserCache(user, loads);
+        //上线前redis里存的是json
+        FakeRedis.STORE.put(cache.getKey(user.getId()), new JsonCacheCodec<>(User.class).encode(user));
+        Assert.assertEquals(user, cache.get(user.getId()));
+        Assert.assertEquals(1, loads.get());
+        //回源后覆盖成二进制，再读不回源
+        Assert.assertNotEquals('{', FakeRedis.STORE.get(cache.getKey(user.getId()))[0]);
+        Assert.assertEquals(user, cache.get(user.getId()));
+        Assert.assertEquals(1, loads.get());
+    }
+
+    /**
+     * @return [编码后大小, 编码总耗时, 解码总耗时]
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static long[] bench(CacheCodec codec, Object sample, int rounds) {
+        long size = 0;
+        long encodeNanos = 0;
+        long decodeNanos = 0;
+        long blackhole = 0;
+        for (int i = 0; i < rounds; i++) {
+            long start = System.nanoTime();
+            byte[] bytes = codec.encode(sample);
+            long encoded = System.nanoTime();
+            Object decoded = codec.decode(bytes);
+            decodeNanos += System.nanoTime() - encoded;
+            encodeNanos += encoded - start;
+            size = bytes.length;
+            blackhole += decoded.hashCode();
+        }
+        if (blackhole == 42) {
+            System.out.println(blackhole);
+        }
+        return new long[]{size, encodeNanos, decodeNanos};
+    }
+
+    /**
+     * 带过期时间的string key在redis里的大致占用：
+     * 主字典和过期字典各一个dictEntry + 桶指针 + key的sds + value的robj和sds（44字节以内是embstr，和robj一起分配）
+     */
+    private static long redisBytesPerKey(int keyLength, int valueLength) {
+        long dictEntry = alloc(24);
+        long bucket = 8;
+        long keySds = alloc(3 + keyLength + 1);
+        long value = valueLength <= 44
+                ? alloc(16 + 3 + valueLength + 1)
+                : alloc(16) + alloc((valueLength < 256 ? 3 : 5) + valueLength + 1);
+        return 2 * (dictEntry + bucket) + keySds + value;
+    }
+
+    private static long alloc(int size) {
+        for (int c : JEMALLOC_CLASSES) {
+            if (size <= c) {
+                return c;
+            }
+        }
+        return (size + 4095) / 4096 * 4096;
+    }
+
+    private static String keyOf(String name) {
+        switch (name) {
+            case "User":
+                return "mallchat:userInfo:uid_10086";
+            case "Room":
+                return "mallchat:roomInfo:roomId_10086";
+            default:
+                return "mallchat:userSummary:uid_10086";
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Map<String, CacheCodec> codecs(Class clazz) {
+        Map<String, CacheCodec> codecs = new LinkedHashMap<>();
+        codecs.put("json", new JsonCacheCodec<>(clazz));
+        codecs.put("json+snappy", new CompressedCacheCodec<>(new JsonCacheCodec<>(clazz)));
+        codecs.put("binary", new BinaryCacheCodec<>(clazz));
+        codecs.put("binary+snappy", new CompressedCacheCodec<>(new BinaryCacheCodec<>(clazz)));
+        return codecs;
+    }
+
+    private static Map<String, Object> samples() {
+        Map<String, Object> samples = new LinkedHashMap<>();
+        samples.put("User", user());
+        Room room = new Room();
+        room.setId(10086L);
+        room.setType(1);
+        room.setHotFlag(0);
+        room.setActiveTime(new Date(1697600000000L));
+        room.setLastMsgId(3245678L);
+        room.setCreateTime(new Date(1690000000000L));
+        room.setUpdateTime(new Date(1697600000000L));
+        samples.put("Room", room);
+        SummeryInfoDTO summary = new SummeryInfoDTO();
+        summary.setUid(10086L);
+        summary.setNeedRefresh(true);
+        summary.setName("阿斌");
+        summary.setAvatar("https://thirdwx.qlogo.cn/mmopen/vi_32/Q0j4TwGTfTLdXnYl2AibTOqBQicnFaW7ibqoQ1sZSGsZ5LIQ2Gw1ibgvDjKs4WStQ/132");
+        summary.setLocPlace("广东");
+        summary.setWearingItemId(3L);
+        summary.setItemIds(Arrays.asList(3L, 4L, 5L));
+        samples.put("SummeryInfoDTO", summary);
+        return samples;
+    }
+
+    private static User user() {
+        IpDetail ipDetail = IpDetail.builder()
+                .ip("113.110.224.100")
+                .isp("电信")
+                .isp_id("100017")
+                .city("深圳")
+                .city_id("440300")
+                .country("中国")
+                .country_id("CN")
+                .region("广东")
+                .region_id("440000")
+                .build();
+        IpInfo ipInfo = new IpInfo();
+        ipInfo.setCreateIp("113.110.224.100");
+        ipInfo.setCreateIpDetail(ipDetail);
+        ipInfo.setUpdateIp("113.110.224.100");
+        ipInfo.setUpdateIpDetail(ipDetail);
+        User user = new User();
+        user.setId(10086L);
+        user.setName("阿斌");
+        user.setAvatar("https://thirdwx.qlogo.cn/mmopen/vi_32/Q0j4TwGTfTLdXnYl2AibTOqBQicnFaW7ibqoQ1sZSGsZ5LIQ2Gw1ibgvDjKs4WStQ/132");
+        user.setSex(1);
+        user.setOpenId("oZ4yE6nWBc0mQXqz8JTZfHk3pS2U");
+        user.setActiveStatus(1);
+        user.setLastOptTime(new Date(1697600000000L));
+        user.setIpInfo(ipInfo);
+        user.setItemId(1L);
+        user.setStatus(0);
+        user.setCreateTime(new Date(1690000000000L));
+        user.setUpdateTime(new Date(1697600000000L));
+        return user;
+    }
+
+    static class BinaryUserCache extends AbstractRedisStringCache<Long, User> {
+        private final User user;
+        private final AtomicLong loads;
+
+        BinaryUserCache(User user, AtomicLong loads) {
+            this.user = user;
+            this.loads = loads;
+        }
+
+        @Override
+        protected String getKey(Long uid) {
+            return "test:codec:uid_" + uid;
+        }
+
+        @Override
+        protected Long getExpireSeconds() {
+            return 60L;
+        }
+
+        @Override
+        protected CacheCodec<User> createCodec(Class<User> outClass) {
+            return new CompressedCacheCodec<>(new BinaryCacheCodec<>(outClass));
+        }
+
+        @Override
+        protected Map<Long, User> load(List<Long> uids) {
+            loads.incrementAndGet();
+            return Collections.singletonMap(user.getId(), user);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.abin.mallchat.common.user;
+
+import com.abin.mallchat.common.common.config.WebSocketProperties;
+import com.abin.mallchat.common.user.domain.entity.User;
+import com.abin.mallchat.common.user.domain.enums.WSBaseResp;
+import com.abin.mallchat.common.user.domain.vo.response.ws.ChatMemberResp;
+import com.abin.mallchat.common.user.domain.vo.response.ws.WSOnlineOfflineNotify;
+import com.abin.mallchat.common.user.service.adapter.WSAdapter;
+import com.abin.mallchat.common.user.service.impl.PresenceAggregator;
+import com.abin.mallchat.common.user.service.impl.PushService;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Description: 模拟发版后的重连风暴：所有在线用户先下线再在几秒内陆续重连，
+ * 对比逐条推送和按窗口合并推送时，全员需要收到的帧数。
+ * 手动执行：mvn test -DskipTests=false -Dtest=PresenceStormBenchmark
+ * Author: <a href="https://github.com/zongzibinbin">abin</a>
+ * Date: 2023-10-18
+ */
+public class PresenceStormBenchmark {
+    private static final int USERS = Integer.getInteger("bench.users", 5000);
+    private static final int STORM_MILLIS = Integer.getInteger("bench.stormMillis", 3000);
+    private static final int THREADS = 8;
+
+    @Test
+    public void storm() throws Exception {
+        for (long window : new long[]{0, 100, 500, 1000}) {
+            run(window);
+        }
+    }
+
+    private void run(long window) throws Exception {
+        AtomicLong notifies = new AtomicLong();
+        AtomicLong changes = new AtomicLong();
+        PushService pushService = new PushService() {
+            @Override
+            public void sendPushMsg(WSBaseResp<?> msg) {
+                notifies.incrementAndGet();
+                changes.addAndGet(((WSOnlineOfflineNotify) msg.getData()).getChangeList().size());
+            }
+        };
+        WSAdapter wsAdapter = new WSAdapter() {
+            @Override
+            public WSBaseResp<WSOnlineOfflineNotify> buildOnlineOfflineNotifyResp(List<ChatMemberResp> changeList) {
+                WSBaseResp<WSOnlineOfflineNotify> resp = new WSBaseResp<>();
+                resp.setData(new WSOnlineOfflineNotify(changeList, (long) USERS));
+                return resp;
+            }
+        };
+        WebSocketProperties properties = new WebSocketProperties();
+        properties.setPresenceWindowMillis(window);
+        PresenceAggregator aggregator = new PresenceAggregator();
+        ReflectionTestUtils.setField(aggregator, "pushService", pushService);
+        ReflectionTestUtils.setField(aggregator, "wsAdapter", wsAdapter);
+        ReflectionTestUtils.setField(aggregator, "webSocketProperties", properties);
+        aggregator.start();
+
+        //每个用户：断线，随机等待一段时间后重连
+        CountDownLatch done = new CountDownLatch(THREADS);
+        for (int t = 0; t < THREADS; t++) {
+            int shard = t;
+            new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long begin = System.currentTimeMillis();
+                for (int uid = shard; uid < USERS; uid += THREADS) {
+                    User user = new User();
+                    user.setId((long) uid);
+                    user.setLastOptTime(new Date());
+                    aggregator.offline(user);
+                    //把重连均匀铺在风暴时间内
+                    long due = begin + (long) uid * STORM_MILLIS / USERS + random.nextInt(50);
+                    long sleep = due - System.currentTimeMillis();
+                    if (sleep > 0) {
+                        try {
+                            TimeUnit.MILLISECONDS.sleep(sleep);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        }
+                    }
+                    aggregator.online(user);
+                }
+                done.countDown();
+            }).start();
+        }
+        done.await();
+        TimeUnit.MILLISECONDS.sleep(window * 2 + 100);
+        aggregator.stop();
+
+        //每条通知都要推给全部在线用户
+        System.out.printf("window=%dms 用户=%d 通知条数=%d 携带变动=%d 全员推送帧数≈%d%n",
+                window, USERS, notifies.get(), changes.get(), notifies.get() * USERS);
+        Assert.assertTrue(changes.get() <= USERS * 2L);
+        if (window == 0) {
+            Assert.assertEquals(USERS * 2L, notifies.get());
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.abin.mallchat.common.websocket;
+
+import io.netty.channel.Channel;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Description: 多线程并发上下线的吞吐对比，旧实现是ConcurrentHashMap+CopyOnWriteArrayList。
+ * 手动执行：mvn test -DskipTests=false -Dtest=ChannelRegistryChurnBenchmark
+ * Author: <a href="https://github.com/zongzibinbin">abin</a>
+ * Date: 2023-10-18
+ */
+public class ChannelRegistryChurnBenchmark {
+    private static final int THREADS = Integer.getInteger("bench.threads", 8);
+    private static final int OPS = Integer.getInteger("bench.ops", 500000);
+    private static final int UID_RANGE = Integer.getInteger("bench.uids", 200000);
+    /**
+     * 每个线程持有的channel数，模拟同时在线的连接
+     */
+    private static final int CHANNELS_PER_THREAD = 256;
+
+    @Test
+    public void churn() throws Exception {
+        for (int round = 0; round < 2; round++) {//第一轮预热
+            WSChannelRegistry registry = new WSChannelRegistry();
+            long registryNanos = run(new Registry() {
+                @Override
+                public void add(long uid, Channel channel) {
+                    registry.add(uid, channel);
+                }
+
+                @Override
+                public void remove(long uid, Channel channel) {
+                    registry.remove(uid, channel);
+                }
+
+                @Override
+                public List<Channel> get(long uid) {
+                    return registry.getChannels(uid);
+                }
+            });
+            Assert.assertEquals(0, registry.getUidCount());
+
+            ConcurrentHashMap<Long, CopyOnWriteArrayList<Channel>> legacy = new ConcurrentHashMap<>();
+            long legacyNanos = run(new Registry() {
+                @Override
+                public void add(long uid, Channel channel) {
+                    legacy.putIfAbsent(uid, new CopyOnWriteArrayList<>());
+                    legacy.get(uid).add(channel);
+                }
+
+                @Override
+                public void remove(long uid, Channel channel) {
+                    CopyOnWriteArrayList<Channel> channels = legacy.get(uid);
+                    if (Objects.nonNull(channels)) {
+                        channels.removeIf(ch -> Objects.equals(ch, channel));
+                    }
+                }
+
+                @Override
+                public List<Channel> get(long uid) {
+                    return legacy.get(uid);
+                }
+            });
+            System.out.printf("round=%d threads=%d 每线程ops=%d WSChannelRegistry=%.0fops/s 残留uid=%d | 旧实现=%.0fops/s 残留uid=%d%n",
+                    round, THREADS, OPS, opsPerSecond(registryNanos), registry.getUidCount(),
+                    opsPerSecond(legacyNanos), legacy.size());
+        }
+    }
+
+    private double opsPerSecond(long nanos) {
+        return (double) THREADS * OPS * 1_000_000_000L / nanos;
+    }
+
+    /**
+     * 每个线程循环：随机挑一个自己的channel，在线就下线，不在线就用随机uid上线，顺带查一次另一个随机uid的连接。
+     * 结束时把还在线的全部下线，最终map应该为空
+     */
+    private long run(Registry registry) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(THREADS);
+        for (int t = 0; t < THREADS; t++) {
+            new Thread(() -> {
+                Channel[] channels = new Channel[CHANNELS_PER_THREAD];
+                long[] uids = new long[CHANNELS_PER_THREAD];
+                for (int i = 0; i < CHANNELS_PER_THREAD; i++) {
+                    channels[i] = new EmbeddedChannel();
+                }
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                try {
+                    start.await();
+                    long blackhole = 0;
+                    for (int i = 0; i < OPS; i++) {
+                        int index = random.nextInt(CHANNELS_PER_THREAD);
+                        if (uids[index] == 0) {
+                            uids[index] = 1 + random.nextInt(UID_RANGE);
+                            registry.add(uids[index], channels[index]);
+                        } else {
+                            registry.remove(uids[index], channels[index]);
+                            uids[index] = 0;
+                        }
+                        List<Channel> online = registry.get(1 + random.nextInt(UID_RANGE));
+                        blackhole += Objects.isNull(online) ? 0 : online.size();
+                    }
+                    for (int i = 0; i < CHANNELS_PER_THREAD; i++) {
+                        if (uids[i] != 0) {
+                            registry.remove(uids[i], channels[i]);
+                        }
+                    }
+                    if (blackhole == Long.MIN_VALUE) {
+                        System.out.println(blackhole);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        return System.nanoTime() - begin;
+    }
+
+    private interface Registry {
+        void add(long uid, Channel channel);
+
+        void remove(long uid, Channel channel);
+
+        List<Channel> get(long uid);
+    }
+}
@@ -0,0 +1,92 @@
+package com.abin.mallchat.common.websocket;
+
+import cn.hutool.json.JSONUtil;
+import com.abin.mallchat.common.chat.domain.vo.response.ChatMessageResp;
+import com.abin.mallchat.common.chat.domain.vo.response.msg.TextMsgResp;
+import com.abin.mallchat.common.common.utils.discover.domain.UrlInfo;
+import com.abin.mallchat.common.user.service.adapter.WSAdapter;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionData;
+import io.netty.util.CharsetUtil;
+import org.junit.Test;
+
+import java.util.*;
+
+/**
+ * Description: permessage-deflate压缩的cpu开销和节省的字节数对比，payload取消息推送的典型大小。
+ * 手动执行：mvn test -DskipTests=false -Dtest=CompressionBenchmark
+ * Author: <a href="https://github.com/zongzibinbin">abin</a>
+ * Date: 2023-10-18
+ */
+public class CompressionBenchmark {
+    private static final int ROUNDS = Integer.getInteger("bench.rounds", 20000);
+
+    @Test
+    public void compare() {
+        Map<String, Integer> payloads = new LinkedHashMap<>();
+        payloads.put("短文本", 0);
+        payloads.put("带1个链接预览", 1);
+        payloads.put("带3个链接预览", 3);
+        for (Map.Entry<String, Integer> entry : payloads.entrySet()) {
+            for (int level : new int[]{1, 6}) {
+                run(entry.getKey(), entry.getValue(), level);
+            }
+        }
+    }
+
+    private void run(String name, int urlCount, int level) {
+        EmbeddedChannel channel = new EmbeddedChannel(WSCompressionHandler.newHandshaker(level, 0)
+                .handshakeExtension(new WebSocketExtensionData("permessage-deflate", Collections.emptyMap()))
+                .newExtensionEncoder());
+        long rawBytes = 0;
+        long wireBytes = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            String json = JSONUtil.toJsonStr(WSAdapter.buildMsgSend(buildMsg(i, urlCount)));
+            rawBytes += json.getBytes(CharsetUtil.UTF_8).length;
+            channel.writeOutbound(new TextWebSocketFrame(Unpooled.copiedBuffer(json, CharsetUtil.UTF_8)));
+            WebSocketFrame out = channel.readOutbound();
+            ByteBuf content = out.content();
+            wireBytes += content.readableBytes();
+            out.release();
+        }
+        long costNanos = System.nanoTime() - start;
+        channel.finishAndReleaseAll();
+        System.out.printf("%s level=%d 平均原始=%dB 平均压缩后=%dB 节省=%.1f%% 平均耗时(含序列化)=%.1fus%n",
+                name, level, rawBytes / ROUNDS, wireBytes / ROUNDS,
+                100.0 * (rawBytes - wireBytes) / rawBytes, costNanos / 1000.0 / ROUNDS);
+    }
+
+    private ChatMessageResp buildMsg(long msgId, int urlCount) {
+        Map<String, UrlInfo> urlContentMap = new HashMap<>();
+        StringBuilder content = new StringBuilder("大家看下这个，今天刚发布的版本，性能提升挺明显的 " + msgId);
+        for (int i = 0; i < urlCount; i++) {
+            String url = "https://github.com/zongzibinbin/MallChat/pull/" + (msgId + i);
+            content.append(' ').append(url);
+            urlContentMap.put(url, UrlInfo.builder()
+                    .title("MallChat: 一个既能购物又能聊天的电商系统 Pull Request #" + (msgId + i))
+                    .description("抹茶聊天是一个IM项目，通过netty实现和前端的websocket连接。内含微信扫描登录，成员列表，消息列表，消息撤回，礼物系统，聊天室，热门消息等功能")
+                    .image("https://opengraph.githubassets.com/" + UUID.randomUUID() + "/zongzibinbin/MallChat")
+                    .build());
+        }
+        ChatMessageResp.UserInfo userInfo = new ChatMessageResp.UserInfo();
+        userInfo.setUid(20000L + msgId % 100);
+        ChatMessageResp.MessageMark mark = new ChatMessageResp.MessageMark();
+        mark.setLikeCount(0);
+        mark.setUserLike(0);
+        mark.setDislikeCount(0);
+        mark.setUserDislike(0);
+        ChatMessageResp.Message message = new ChatMessageResp.Message();
+        message.setId(msgId);
+        message.setRoomId(1L);
+        message.setSendTime(new Date());
+        message.setType(1);
+        message.setMessageMark(mark);
+        message.setBody(TextMsgResp.builder().content(content.toString()).urlContentMap(urlContentMap).build());
+        return ChatMessageResp.builder().fromUser(userInfo).message(message).build();
+    }
+}
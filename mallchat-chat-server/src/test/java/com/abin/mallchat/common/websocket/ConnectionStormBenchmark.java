@@ -0,0 +1,153 @@
+package com.abin.mallchat.common.websocket;
+
+import com.abin.mallchat.common.common.config.WebSocketProperties;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.*;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.websocketx.*;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Description: 连接风暴压测，本机起一个ws server，同时打过去大量websocket连接。
+ * 不在单测里自动跑，需要手动执行：
+ * mvn test -DskipTests=false -Dtest=ConnectionStormBenchmark -Dstorm.clients=50000
+ * 5万连接需要先调大ulimit -n，客户端会轮流绑定127.0.0.x多个源地址来绕开本地端口数限制
+ * Author: <a href="https://github.com/zongzibinbin">abin</a>
+ * Date: 2023-10-18
+ */
+public class ConnectionStormBenchmark {
+    private static final int PORT = Integer.getInteger("storm.port", 18090);
+    private static final int CLIENTS = Integer.getInteger("storm.clients", 50000);
+    private static final int CONCURRENCY = Integer.getInteger("storm.concurrency", 2000);
+    private static final int CLIENTS_PER_SOURCE_IP = Integer.getInteger("storm.clientsPerIp", 20000);
+
+    @Test
+    public void storm() throws Exception {
+        WebSocketProperties properties = new WebSocketProperties();
+        properties.setPort(PORT);
+        properties.setReusePort(Boolean.parseBoolean(System.getProperty("storm.reusePort", "false")));
+        properties.setAcceptorThreads(Integer.getInteger("storm.acceptors", 1));
+        NettyServerBuilder server = new NettyServerBuilder(properties);
+        AtomicInteger serverHandshakes = new AtomicInteger();
+        server.bind(new ChannelInitializer<SocketChannel>() {
+            @Override
+            protected void initChannel(SocketChannel ch) {
+                ch.pipeline().addLast(new HttpServerCodec());
+                ch.pipeline().addLast(new HttpObjectAggregator(properties.getMaxContentLength()));
+                ch.pipeline().addLast(new WebSocketServerProtocolHandler("/"));
+                ch.pipeline().addLast(new ChannelInboundHandlerAdapter() {
+                    @Override
+                    public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+                        if (evt instanceof WebSocketServerProtocolHandler.HandshakeComplete) {
+                            serverHandshakes.incrementAndGet();
+                        }
+                        super.userEventTriggered(ctx, evt);
+                    }
+                });
+            }
+        });
+
+        URI uri = new URI("ws://127.0.0.1:" + PORT + "/");
+        EventLoopGroup clientGroup = new NioEventLoopGroup();
+        CountDownLatch done = new CountDownLatch(CLIENTS);
+        Semaphore inFlight = new Semaphore(CONCURRENCY);
+        AtomicInteger failed = new AtomicInteger();
+        List<Channel> clients = new ArrayList<>(CLIENTS);
+        Bootstrap bootstrap = new Bootstrap()
+                .group(clientGroup)
+                .channel(NioSocketChannel.class)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 10000);
+        long start = System.nanoTime();
+        for (int i = 0; i < CLIENTS; i++) {
+            inFlight.acquire();
+            //握手成功、连接失败、握手途中断开都走这里，每个连接只结算一次，信号量和计数不会漏还
+            AtomicBoolean settled = new AtomicBoolean();
+            Consumer<Boolean> settle = success -> {
+                if (settled.compareAndSet(false, true)) {
+                    if (!success) {
+                        failed.incrementAndGet();
+                    }
+                    inFlight.release();
+                    done.countDown();
+                }
+            };
+            InetSocketAddress source = new InetSocketAddress("127.0.0." + (1 + i / CLIENTS_PER_SOURCE_IP), 0);
+            ChannelFuture connect = bootstrap.clone()
+                    .handler(new ChannelInitializer<SocketChannel>() {
+                        @Override
+                        protected void initChannel(SocketChannel ch) {
+                            ch.pipeline().addLast(new HttpClientCodec());
+                            ch.pipeline().addLast(new HttpObjectAggregator(8192));
+                            ch.pipeline().addLast(new WebSocketClientProtocolHandler(WebSocketClientHandshakerFactory.newHandshaker(
+                                    uri, WebSocketVersion.V13, null, false, new DefaultHttpHeaders())));
+                            ch.pipeline().addLast(new ChannelInboundHandlerAdapter() {
+                                @Override
+                                public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+                                    if (evt == WebSocketClientProtocolHandler.ClientHandshakeStateEvent.HANDSHAKE_COMPLETE) {
+                                        settle.accept(true);
+                                    } else if (evt == WebSocketClientProtocolHandler.ClientHandshakeStateEvent.HANDSHAKE_TIMEOUT) {
+                                        fail(ctx.channel());
+                                    }
+                                    super.userEventTriggered(ctx, evt);
+                                }
+
+                                @Override
+                                public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+                                    fail(ctx.channel());
+                                }
+
+                                @Override
+                                public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+                                    fail(ctx.channel());
+                                    super.channelInactive(ctx);
+                                }
+
+                                private void fail(Channel channel) {
+                                    settle.accept(false);
+                                    channel.close();
+                                }
+                            });
+                        }
+                    })
+                    .connect(new InetSocketAddress(uri.getHost(), PORT), source);
+            connect.addListener((ChannelFutureListener) future -> {
+                if (!future.isSuccess()) {
+                    settle.accept(false);
+                }
+            });
+            clients.add(connect.channel());
+        }
+        boolean finished = done.await(5, TimeUnit.MINUTES);
+        long costMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        System.out.println("transport=" + (server.isEpoll() ? "epoll" : "nio")
+                + " clients=" + CLIENTS
+                + " finished=" + finished
+                + " handshakes=" + serverHandshakes.get()
+                + " failed=" + failed.get()
+                + " cost=" + costMillis + "ms"
+                + " rate=" + (CLIENTS * 1000L / Math.max(1, costMillis)) + "/s");
+
+        //注册失败的连接（文件句柄用完）没有绑定eventLoop，不能再close
+        clients.stream().filter(Channel::isRegistered).forEach(Channel::close);
+        clientGroup.shutdownGracefully().syncUninterruptibly();
+        server.shutdown();
+    }
+}
@@ -0,0 +1,141 @@
+package com.abin.mallchat.common.websocket;
+
+import cn.hutool.json.JSONUtil;
+import com.abin.mallchat.common.chat.domain.vo.response.ChatMessageResp;
+import com.abin.mallchat.common.chat.domain.vo.response.msg.TextMsgResp;
+import com.abin.mallchat.common.common.utils.discover.domain.UrlInfo;
+import com.abin.mallchat.common.user.domain.enums.ChatActiveStatusEnum;
+import com.abin.mallchat.common.user.domain.enums.WSBaseResp;
+import com.abin.mallchat.common.user.domain.enums.WSRespTypeEnum;
+import com.abin.mallchat.common.user.domain.vo.response.ws.ChatMemberResp;
+import com.abin.mallchat.common.user.domain.vo.response.ws.WSMsgMark;
+import com.abin.mallchat.common.user.domain.vo.response.ws.WSOnlineOfflineNotify;
+import com.abin.mallchat.common.user.service.adapter.WSAdapter;
+import io.netty.buffer.ByteBuf;
+import io.netty.util.CharsetUtil;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.*;
+
+/**
+ * Description: json和二进制两种推送编码的编解码耗时、帧大小对比，同时校验二进制编码能完整还原。
+ * 手动执行：mvn test -DskipTests=false -Dtest=WSCodecBenchmark
+ * Author: <a href="https://github.com/zongzibinbin">abin</a>
+ * Date: 2023-10-18
+ */
+public class WSCodecBenchmark {
+    private static final int WARMUP = Integer.getInteger("bench.warmup", 20000);
+    private static final int ROUNDS = Integer.getInteger("bench.rounds", 100000);
+
+    @Test
+    public void roundTrip() {
+        for (WSBaseResp<?> resp : samples().values()) {
+            ByteBuf buf = WSCodec.BINARY.encode(resp);
+            try {
+                Assert.assertEquals(JSONUtil.toJsonStr(resp), JSONUtil.toJsonStr(WSBinaryCodec.decodeResp(buf)));
+                Assert.assertFalse(buf.isReadable());
+            } finally {
+                buf.release();
+            }
+        }
+    }
+
+    @Test
+    public void compare() {
+        samples().forEach((name, resp) -> {
+            for (WSCodec codec : WSCodec.values()) {
+                bench(codec, resp, WARMUP);
+                long[] result = bench(codec, resp, ROUNDS);
+                System.out.printf("%s %s 帧大小=%dB 编码=%dns/op 解码=%dns/op%n",
+                        name, codec, result[0], result[1] / ROUNDS, result[2] / ROUNDS);
+            }
+        });
+    }
+
+    /**
+     * @return [帧大小, 编码总耗时, 解码总耗时]
+     */
+    private long[] bench(WSCodec codec, WSBaseResp<?> resp, int rounds) {
+        long size = 0;
+        long encodeNanos = 0;
+        long decodeNanos = 0;
+        long blackhole = 0;
+        for (int i = 0; i < rounds; i++) {
+            long start = System.nanoTime();
+            ByteBuf buf = codec.encode(resp);
+            long encoded = System.nanoTime();
+            size = buf.readableBytes();
+            Object decoded = codec == WSCodec.JSON
+                    ? JSONUtil.parseObj(buf.toString(CharsetUtil.UTF_8))
+                    : WSBinaryCodec.decodeResp(buf);
+            decodeNanos += System.nanoTime() - encoded;
+            encodeNanos += encoded - start;
+            blackhole += decoded.hashCode();
+            buf.release();
+        }
+        if (blackhole == 42) {
+            System.out.println(blackhole);
+        }
+        return new long[]{size, encodeNanos, decodeNanos};
+    }
+
+    private Map<String, WSBaseResp<?>> samples() {
+        Map<String, WSBaseResp<?>> samples = new LinkedHashMap<>();
+        samples.put("新消息", WSAdapter.buildMsgSend(buildMsg(0)));
+        samples.put("带链接预览的新消息", WSAdapter.buildMsgSend(buildMsg(2)));
+
+        WSOnlineOfflineNotify notify = new WSOnlineOfflineNotify();
+        notify.setChangeList(Collections.singletonList(ChatMemberResp.builder()
+                .uid(20001L).activeStatus(ChatActiveStatusEnum.ONLINE.getStatus()).lastOptTime(new Date()).build()));
+        notify.setOnlineNum(1024L);
+        WSBaseResp<WSOnlineOfflineNotify> online = new WSBaseResp<>();
+        online.setType(WSRespTypeEnum.ONLINE_OFFLINE_NOTIFY.getType());
+        online.setData(notify);
+        samples.put("上下线", online);
+
+        WSMsgMark.WSMsgMarkItem item = new WSMsgMark.WSMsgMarkItem();
+        item.setUid(20001L);
+        item.setMsgId(3500L);
+        item.setMarkType(1);
+        item.setMarkCount(12);
+        item.setActType(1);
+        WSBaseResp<WSMsgMark> mark = new WSBaseResp<>();
+        mark.setType(WSRespTypeEnum.MARK.getType());
+        mark.setData(new WSMsgMark(Collections.singletonList(item)));
+        samples.put("消息标记", mark);
+        return samples;
+    }
+
+    private ChatMessageResp buildMsg(int urlCount) {
+        Map<String, UrlInfo> urlContentMap = new HashMap<>();
+        StringBuilder content = new StringBuilder("大家看下这个，今天刚发布的版本，性能提升挺明显的");
+        for (int i = 0; i < urlCount; i++) {
+            String url = "https://github.com/zongzibinbin/MallChat/pull/" + i;
+            content.append(' ').append(url);
+            urlContentMap.put(url, UrlInfo.builder()
+                    .title("MallChat: 一个既能购物又能聊天的电商系统")
+                    .description("抹茶聊天是一个IM项目，通过netty实现和前端的websocket连接。")
+                    .image("https://opengraph.githubassets.com/1/zongzibinbin/MallChat")
+                    .build());
+        }
+        ChatMessageResp.UserInfo userInfo = new ChatMessageResp.UserInfo();
+        userInfo.setUid(20001L);
+        ChatMessageResp.MessageMark mark = new ChatMessageResp.MessageMark();
+        mark.setLikeCount(0);
+        mark.setUserLike(0);
+        mark.setDislikeCount(0);
+        mark.setUserDislike(0);
+        ChatMessageResp.Message message = new ChatMessageResp.Message();
+        message.setId(3500L);
+        message.setRoomId(1L);
+        message.setSeq(1024L);
+        message.setSendTime(new Date());
+        message.setType(1);
+        message.setStatus(0);
+        message.setMessageMark(mark);
+        message.setBody(TextMsgResp.builder().content(content.toString()).urlContentMap(urlContentMap)
+                .atUidList(Collections.singletonList(20002L)).build());
+        return ChatMessageResp.builder().fromUser(userInfo).message(message).build();
+    }
+}
@@ -35,4 +35,20 @@ public class MQProducer {
                 .build();
         rocketMQTemplate.send(topic, build);
     }
+
+    /**
+     * 发送可靠的顺序消息，hashKey相同的消息进同一个队列，配合顺序消费保证先后
+     *
+     * @param topic
+     * @param body
+     * @param hashKey 选择队列的依据
+     */
+    @SecureInvoke
+    public void sendSecureMsg(String topic, Object body, Object key, String hashKey) {
+        Message<Object> build = MessageBuilder
+                .withPayload(body)
+                .setHeader("KEYS", key)
+                .build();
+        rocketMQTemplate.syncSendOrderly(topic, build, hashKey);
+    }
 }